@@ -0,0 +1,32 @@
+package io.github.vincekruger.whatsapp_stickers;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Parsing a whole contents file, as every catalog load without a snapshot does.
+ */
+@State(Scope.Benchmark)
+public class ContentFileParserBenchmark {
+    @Param({"1", "10", "100", "2000"})
+    public int stickerPacks;
+
+    private byte[] contentsFile;
+
+    @Setup
+    public void setUp() {
+        contentsFile = SyntheticContents.contentsFile(stickerPacks);
+    }
+
+    @Benchmark
+    public List<StickerPack> parseStickerPacks() throws IOException {
+        return ContentFileParser.parseStickerPacks(new ByteArrayInputStream(contentsFile));
+    }
+}
@@ -0,0 +1,167 @@
+package io.github.vincekruger.whatsapp_stickers;
+
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The work behind the provider's queries and image lookups, on a resident catalog. The provider
+ * itself needs a Context, so this runs the same steps it does for each URI, short of the binder
+ * transaction and setNotificationUri. Queries read every row of the cursor they return, but a
+ * CursorWindow is native code that only runs on a device, so the rows are written into a
+ * {@link RecordingRow} instead. Copying the values into the window's memory is not measured.
+ * Requests go round all packs, like WhatsApp listing them.
+ */
+@State(Scope.Thread)
+public class StickerContentProviderBenchmark {
+    private static final String AUTHORITY = "com.example.stickercontentprovider";
+
+    // The columns of StickerContentProvider.
+    private static final String[] STICKER_PACK_INFO_COLUMNS = {
+            "sticker_pack_identifier", "sticker_pack_name", "sticker_pack_publisher", "sticker_pack_icon",
+            "android_play_store_link", "ios_app_download_link", "sticker_pack_publisher_email",
+            "sticker_pack_publisher_website", "sticker_pack_privacy_policy_website",
+            "sticker_pack_license_agreement_website", "image_data_version", "whatsapp_will_not_cache_stickers",
+            "animated_sticker_pack",
+    };
+    private static final String[] STICKER_COLUMNS = { "sticker_file_name", "sticker_emoji" };
+    private static final String[] STICKER_SEARCH_COLUMNS = {
+            "sticker_pack_identifier", "sticker_file_name", "sticker_emoji",
+    };
+    // One emoji that most packs use, the way a user searches.
+    private static final List<String> SEARCHED_EMOJIS = Collections.singletonList("\uD83D\uDE02");
+
+    @Param({"1", "10", "100", "2000"})
+    public int stickerPacks;
+
+    private StickerPackCatalog catalog;
+    private StickerPackFiles stickerPackFiles;
+    private String[] identifiers;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        final List<StickerPack> packs = SyntheticContents.stickerPacks(stickerPacks);
+        catalog = new ResidentStickerPackCatalog(packs);
+        catalog.getEmojiIndex();
+        stickerPackFiles = new StickerPackFiles(System.getProperty("java.io.tmpdir") + "/sticker_packs/", null, null);
+        identifiers = new String[packs.size()];
+        for (int i = 0; i < identifiers.length; i++) {
+            identifiers[i] = packs.get(i).identifier;
+        }
+    }
+
+    private String nextIdentifier() {
+        final String identifier = identifiers[next];
+        next = (next + 1) % identifiers.length;
+        return identifier;
+    }
+
+    /**
+     * content://authority/metadata
+     */
+    @Benchmark
+    public void queryMetadata(Blackhole blackhole) {
+        readAll(STICKER_PACK_INFO_COLUMNS, StickerPackCursorRows.metadataRows(catalog), blackhole);
+    }
+
+    /**
+     * content://authority/metadata/identifier
+     */
+    @Benchmark
+    public void querySingleMetadata(Blackhole blackhole) {
+        final Uri uri = Uri.parse("content://" + AUTHORITY + "/metadata/" + nextIdentifier());
+        final StickerPack stickerPack = catalog.getStickerPack(uri.getLastPathSegment());
+        readAll(STICKER_PACK_INFO_COLUMNS, StickerPackCursorRows.metadataRows(stickerPack != null
+                ? Collections.singletonList(stickerPack) : Collections.<StickerPack>emptyList()), blackhole);
+    }
+
+    /**
+     * content://authority/stickers/identifier
+     */
+    @Benchmark
+    public void queryStickers(Blackhole blackhole) {
+        final Uri uri = Uri.parse("content://" + AUTHORITY + "/stickers/" + nextIdentifier());
+        readAll(STICKER_COLUMNS,
+                StickerPackCursorRows.stickerRows(catalog, catalog.getStickerPack(uri.getLastPathSegment())), blackhole);
+    }
+
+    /**
+     * content://authority/sticker_search/emoji?limit=50
+     */
+    @Benchmark
+    public void searchStickers(Blackhole blackhole) {
+        readAll(STICKER_SEARCH_COLUMNS,
+                StickerPackCursorRows.searchRows(catalog, catalog.getEmojiIndex().find(SEARCHED_EMOJIS, 50)), blackhole);
+    }
+
+    /**
+     * content://authority/stickers_asset/identifier/file, up to the file the provider opens.
+     */
+    @Benchmark
+    public File lookupImageAsset() {
+        final String identifier = nextIdentifier();
+        final Uri uri = Uri.parse("content://" + AUTHORITY + "/stickers_asset/" + identifier + "/"
+                + SyntheticContents.stickerFileName(identifier.hashCode() & 15));
+        final List<String> pathSegments = uri.getPathSegments();
+        final String fileName = pathSegments.get(2);
+        final StickerPack stickerPack = catalog.getStickerPack(pathSegments.get(1));
+        return stickerPack != null && stickerPack.containsFile(fileName)
+                ? stickerPackFiles.getFile(stickerPack.identifier, fileName) : null;
+    }
+
+    /**
+     * Writes every row of the cursor in order, as StickerPackCursor#fillWindow does for a window
+     * large enough to hold all of them.
+     */
+    private static void readAll(@NonNull String[] columns, @NonNull StickerPackCursor.Rows rows,
+                                @NonNull Blackhole blackhole) {
+        final StickerPackCursor cursor = new StickerPackCursor(columns, rows);
+        final RecordingRow row = new RecordingRow(blackhole);
+        for (int position = 0; position < cursor.getCount(); position++) {
+            if (!rows.put(row, position)) {
+                throw new IllegalStateException("row " + position + " was not written");
+            }
+        }
+        blackhole.consume(row.values);
+    }
+
+    /**
+     * Stands in for the window, handing every value to the blackhole.
+     */
+    private static final class RecordingRow implements StickerPackCursor.Row {
+        private final Blackhole blackhole;
+        int values;
+
+        RecordingRow(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public boolean putString(@Nullable String value, int column) {
+            blackhole.consume(value);
+            values++;
+            return true;
+        }
+
+        @Override
+        public boolean putLong(long value, int column) {
+            blackhole.consume(value);
+            values++;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package io.github.vincekruger.whatsapp_stickers;
+
+import androidx.annotation.NonNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.List;
+
+/**
+ * Contents files of any number of packs with 30 stickers each, shaped like the packs apps ship.
+ */
+final class SyntheticContents {
+    static final int STICKERS_PER_PACK = 30;
+
+    private static final String[] EMOJIS = {
+            "\uD83D\uDE00", "\uD83D\uDE02", "\u2764\uFE0F", "\uD83D\uDC4D",
+            "\uD83C\uDF89", "\uD83D\uDE0E", "\uD83D\uDD25", "\uD83D\uDE4F",
+    };
+
+    private SyntheticContents() {
+    }
+
+    @NonNull
+    static String identifier(int pack) {
+        return "pack_" + pack;
+    }
+
+    @NonNull
+    static String stickerFileName(int sticker) {
+        return "sticker_" + sticker + ".webp";
+    }
+
+    @NonNull
+    static byte[] contentsFile(int stickerPacks) {
+        final StringBuilder json = new StringBuilder(stickerPacks * 2500);
+        json.append("{\"android_play_store_link\":\"https://play.google.com/store/apps/details?id=com.example\",")
+                .append("\"ios_app_store_link\":\"\",\"sticker_packs\":[");
+        for (int pack = 0; pack < stickerPacks; pack++) {
+            if (pack > 0) {
+                json.append(',');
+            }
+            json.append("{\"identifier\":\"").append(identifier(pack)).append('"')
+                    .append(",\"name\":\"Sticker Pack ").append(pack).append('"')
+                    .append(",\"publisher\":\"Example Publisher\"")
+                    .append(",\"tray_image_file\":\"tray.png\"")
+                    .append(",\"publisher_email\":\"stickers@example.com\"")
+                    .append(",\"publisher_website\":\"https://example.com\"")
+                    .append(",\"privacy_policy_website\":\"https://example.com/privacy\"")
+                    .append(",\"license_agreement_website\":\"https://example.com/license\"")
+                    .append(",\"image_data_version\":\"1\"")
+                    .append(",\"avoid_cache\":false")
+                    .append(",\"animated_sticker_pack\":false")
+                    .append(",\"stickers\":[");
+            for (int sticker = 0; sticker < STICKERS_PER_PACK; sticker++) {
+                if (sticker > 0) {
+                    json.append(',');
+                }
+                json.append("{\"image_file\":\"").append(stickerFileName(sticker)).append("\",\"emojis\":[\"")
+                        .append(EMOJIS[(pack + sticker) % EMOJIS.length]).append("\",\"")
+                        .append(EMOJIS[(pack + sticker + 3) % EMOJIS.length]).append("\"]}");
+            }
+            json.append("]}");
+        }
+        json.append("]}");
+        try {
+            return json.toString().getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @NonNull
+    static List<StickerPack> stickerPacks(int stickerPacks) throws IOException {
+        return ContentFileParser.parseStickerPacks(new ByteArrayInputStream(contentsFile(stickerPacks)));
+    }
+}
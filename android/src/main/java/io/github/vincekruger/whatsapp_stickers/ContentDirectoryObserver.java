@@ -0,0 +1,137 @@
+package io.github.vincekruger.whatsapp_stickers;
+
+import android.os.FileObserver;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Watches the non-asset content directory and reports changes to the contents file and, for the
+ * sharded layout, to the sticker pack manifests. Callbacks arrive on the FileObserver thread.
+ */
+final class ContentDirectoryObserver {
+    interface Listener {
+        /**
+         * The contents file was written, replaced or deleted, or the content directory went away.
+         */
+        void onContentFileChanged();
+
+        /**
+         * The manifest of a sticker pack was written, or its directory was created or deleted.
+         */
+        void onStickerPackChanged(@NonNull String identifier);
+    }
+
+    private static final int EVENTS = FileObserver.CREATE | FileObserver.CLOSE_WRITE | FileObserver.MOVED_TO
+            | FileObserver.MOVED_FROM | FileObserver.DELETE | FileObserver.DELETE_SELF | FileObserver.MOVE_SELF;
+
+    private final File contentDirectory;
+    private final String contentFileName;
+    private final boolean watchStickerPacks;
+    private final Listener listener;
+
+    // FileObservers stop delivering events once they are garbage collected, so keep them referenced.
+    private FileObserver contentDirectoryObserver;
+    private final Map<String, FileObserver> stickerPackObservers = new HashMap<>();
+
+    ContentDirectoryObserver(@NonNull File contentDirectory, @NonNull String contentFileName, boolean watchStickerPacks,
+                             @NonNull Listener listener) {
+        this.contentDirectory = contentDirectory;
+        this.contentFileName = contentFileName;
+        this.watchStickerPacks = watchStickerPacks;
+        this.listener = listener;
+    }
+
+    // FileObserver(String, int) is deprecated on API 29, its File replacement does not exist before that.
+    @SuppressWarnings("deprecation")
+    synchronized void startWatching() {
+        stopWatching();
+        //noinspection ResultOfMethodCallIgnored
+        contentDirectory.mkdirs();
+        contentDirectoryObserver = new FileObserver(contentDirectory.getPath(), EVENTS) {
+            @Override
+            public void onEvent(int event, @Nullable String path) {
+                onContentDirectoryEvent(event & FileObserver.ALL_EVENTS, path);
+            }
+        };
+        contentDirectoryObserver.startWatching();
+
+        if (watchStickerPacks) {
+            final File[] directories = contentDirectory.listFiles();
+            if (directories != null) {
+                for (File directory : directories) {
+                    if (isStickerPackDirectory(directory.getName())) {
+                        watchStickerPack(directory.getName());
+                    }
+                }
+            }
+        }
+    }
+
+    synchronized void stopWatching() {
+        if (contentDirectoryObserver != null) {
+            contentDirectoryObserver.stopWatching();
+            contentDirectoryObserver = null;
+        }
+        for (FileObserver observer : stickerPackObservers.values()) {
+            observer.stopWatching();
+        }
+        stickerPackObservers.clear();
+    }
+
+    private void onContentDirectoryEvent(int event, @Nullable String path) {
+        if ((event & (FileObserver.DELETE_SELF | FileObserver.MOVE_SELF)) != 0) {
+            // The directory is gone, watch the new one and reload whatever it has.
+            startWatching();
+            listener.onContentFileChanged();
+            return;
+        }
+        if (path == null) {
+            return;
+        }
+        if (path.equals(contentFileName)) {
+            listener.onContentFileChanged();
+        } else if (watchStickerPacks && isStickerPackDirectory(path)) {
+            if ((event & (FileObserver.CREATE | FileObserver.MOVED_TO)) != 0) {
+                watchStickerPack(path);
+            } else if ((event & (FileObserver.DELETE | FileObserver.MOVED_FROM)) != 0) {
+                unwatchStickerPack(path);
+            }
+            listener.onStickerPackChanged(path);
+        }
+    }
+
+    private synchronized boolean isStickerPackDirectory(@NonNull String name) {
+        return !name.startsWith(".") && new File(contentDirectory, name).isDirectory()
+                || stickerPackObservers.containsKey(name);
+    }
+
+    // See startWatching(), the File constructor needs API 29.
+    @SuppressWarnings("deprecation")
+    private synchronized void watchStickerPack(@NonNull final String identifier) {
+        if (stickerPackObservers.containsKey(identifier)) {
+            return;
+        }
+        final FileObserver observer = new FileObserver(new File(contentDirectory, identifier).getPath(), EVENTS) {
+            @Override
+            public void onEvent(int event, @Nullable String path) {
+                if (ShardedStickerPackCatalog.SHARD_FILE_NAME.equals(path)) {
+                    listener.onStickerPackChanged(identifier);
+                }
+            }
+        };
+        stickerPackObservers.put(identifier, observer);
+        observer.startWatching();
+    }
+
+    private synchronized void unwatchStickerPack(@NonNull String identifier) {
+        final FileObserver observer = stickerPackObservers.remove(identifier);
+        if (observer != null) {
+            observer.stopWatching();
+        }
+    }
+}
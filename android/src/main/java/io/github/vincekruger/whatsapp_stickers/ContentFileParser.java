@@ -13,6 +13,7 @@ import android.util.JsonReader;
 
 import androidx.annotation.NonNull;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -21,17 +22,90 @@ import java.util.List;
 
 class ContentFileParser {
 
-    private static final int LIMIT_EMOJI_COUNT = 3;
+    static final int LIMIT_EMOJI_COUNT = 3;
 
     @NonNull
     static List<StickerPack> parseStickerPacks(@NonNull InputStream contentsInputStream) throws IOException, IllegalStateException {
-        try (JsonReader reader = new JsonReader(new InputStreamReader(contentsInputStream))) {
-            return readStickerPacks(reader);
+        try (JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(contentsInputStream, "UTF-8")))) {
+            final Contents contents = readContents(reader);
+            if (contents.stickerPacks.size() == 0) {
+                throw new IllegalStateException("sticker pack list cannot be empty");
+            }
+            return contents.stickerPacks;
+        }
+    }
+
+    /**
+     * Parses a contents file that may not have any sticker packs yet, for rewriting it.
+     */
+    @NonNull
+    static Contents parseContents(@NonNull InputStream contentsInputStream) throws IOException, IllegalStateException {
+        try (JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(contentsInputStream, "UTF-8")))) {
+            return readContents(reader);
+        }
+    }
+
+    /**
+     * Parses the manifest of a single sticker pack, as used by the sharded layout where every
+     * sticker pack directory has its own manifest.
+     */
+    @NonNull
+    static StickerPack parseStickerPack(@NonNull InputStream contentsInputStream) throws IOException, IllegalStateException {
+        try (JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(contentsInputStream, "UTF-8")))) {
+            return readStickerPack(reader);
+        }
+    }
+
+    /**
+     * Parses only the store links of a contents file, skipping any sticker packs in it.
+     */
+    @NonNull
+    static StoreLinks parseStoreLinks(@NonNull InputStream contentsInputStream) throws IOException, IllegalStateException {
+        try (JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(contentsInputStream, "UTF-8")))) {
+            String androidPlayStoreLink = null;
+            String iosAppStoreLink = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String key = reader.nextName();
+                if ("android_play_store_link".equals(key)) {
+                    androidPlayStoreLink = reader.nextString();
+                } else if ("ios_app_store_link".equals(key)) {
+                    iosAppStoreLink = reader.nextString();
+                } else if ("sticker_packs".equals(key)) {
+                    reader.skipValue();
+                } else {
+                    throw new IllegalStateException("unknown field in json: " + key);
+                }
+            }
+            reader.endObject();
+            return new StoreLinks(androidPlayStoreLink, iosAppStoreLink);
+        }
+    }
+
+    static final class StoreLinks {
+        static final StoreLinks NONE = new StoreLinks(null, null);
+
+        final String androidPlayStoreLink;
+        final String iosAppStoreLink;
+
+        StoreLinks(String androidPlayStoreLink, String iosAppStoreLink) {
+            this.androidPlayStoreLink = androidPlayStoreLink;
+            this.iosAppStoreLink = iosAppStoreLink;
+        }
+    }
+
+    static final class Contents {
+        final StoreLinks storeLinks;
+        final List<StickerPack> stickerPacks;
+
+        Contents(StoreLinks storeLinks, List<StickerPack> stickerPacks) {
+            this.storeLinks = storeLinks;
+            this.stickerPacks = stickerPacks;
         }
     }
 
     @NonNull
-    private static List<StickerPack> readStickerPacks(@NonNull JsonReader reader) throws IOException, IllegalStateException {
+    private static Contents readContents(@NonNull JsonReader reader) throws IOException, IllegalStateException {
         List<StickerPack> stickerPackList = new ArrayList<>();
         String androidPlayStoreLink = null;
         String iosAppStoreLink = null;
@@ -54,18 +128,15 @@ class ContentFileParser {
             }
         }
         reader.endObject();
-        if (stickerPackList.size() == 0) {
-            throw new IllegalStateException("sticker pack list cannot be empty");
-        }
         for (StickerPack stickerPack : stickerPackList) {
             stickerPack.setAndroidPlayStoreLink(androidPlayStoreLink);
             stickerPack.setIosAppStoreLink(iosAppStoreLink);
         }
-        return stickerPackList;
+        return new Contents(new StoreLinks(androidPlayStoreLink, iosAppStoreLink), stickerPackList);
     }
 
     @NonNull
-    private static StickerPack readStickerPack(@NonNull JsonReader reader) throws IOException, IllegalStateException {
+    static StickerPack readStickerPack(@NonNull JsonReader reader) throws IOException, IllegalStateException {
         reader.beginObject();
         String identifier = null;
         String name = null;
@@ -122,31 +193,64 @@ class ContentFileParser {
                     reader.skipValue();
             }
         }
-        if (TextUtils.isEmpty(identifier)) {
+        reader.endObject();
+        final StickerPack stickerPack = new StickerPack(identifier, name, publisher, trayImageFile, publisherEmail, publisherWebsite, privacyPolicyWebsite, licenseAgreementWebsite, imageDataVersion, avoidCache, animatedStickerPack);
+        final List<Sticker> stickers = stickerList != null ? stickerList : new ArrayList<Sticker>();
+        checkStickerPack(stickerPack, stickers);
+        stickerPack.setStickers(stickers);
+        return stickerPack;
+    }
+
+    /**
+     * Checks the rules every sticker pack has to follow, whether it was parsed or built in code.
+     */
+    static void checkStickerPack(@NonNull StickerPack stickerPack) throws IllegalStateException {
+        checkStickerPack(stickerPack, stickerPack.getStickers());
+    }
+
+    /**
+     * Checks a pack with the stickers it is about to get. Packs are checked before their stickers
+     * are set, so the emojis of a rejected pack never reach the process-wide {@link EmojiTable}.
+     */
+    static void checkStickerPack(@NonNull StickerPack stickerPack, @NonNull List<Sticker> stickers)
+            throws IllegalStateException {
+        if (TextUtils.isEmpty(stickerPack.identifier)) {
             throw new IllegalStateException("identifier cannot be empty");
         }
-        if (TextUtils.isEmpty(name)) {
+        if (TextUtils.isEmpty(stickerPack.name)) {
             throw new IllegalStateException("name cannot be empty");
         }
-        if (TextUtils.isEmpty(publisher)) {
+        if (TextUtils.isEmpty(stickerPack.publisher)) {
             throw new IllegalStateException("publisher cannot be empty");
         }
-        if (TextUtils.isEmpty(trayImageFile)) {
+        if (TextUtils.isEmpty(stickerPack.trayImageFile)) {
             throw new IllegalStateException("tray_image_file cannot be empty");
         }
-        if (stickerList == null || stickerList.size() == 0) {
+        if (stickers.size() == 0) {
             throw new IllegalStateException("sticker list is empty");
         }
-        if (identifier.contains("..") || identifier.contains("/")) {
+        if (stickerPack.identifier.contains("..") || stickerPack.identifier.contains("/")) {
             throw new IllegalStateException("identifier should not contain .. or / to prevent directory traversal");
         }
-        if (TextUtils.isEmpty(imageDataVersion)) {
+        if (TextUtils.isEmpty(stickerPack.imageDataVersion)) {
             throw new IllegalStateException("image_data_version should not be empty");
         }
-        reader.endObject();
-        final StickerPack stickerPack = new StickerPack(identifier, name, publisher, trayImageFile, publisherEmail, publisherWebsite, privacyPolicyWebsite, licenseAgreementWebsite, imageDataVersion, avoidCache, animatedStickerPack);
-        stickerPack.setStickers(stickerList);
-        return stickerPack;
+        for (Sticker sticker : stickers) {
+            checkSticker(sticker);
+        }
+    }
+
+    private static void checkSticker(@NonNull Sticker sticker) throws IllegalStateException {
+        final String imageFile = sticker.imageFileName;
+        if (TextUtils.isEmpty(imageFile)) {
+            throw new IllegalStateException("sticker image_file cannot be empty");
+        }
+        if (!imageFile.endsWith(".webp")) {
+            throw new IllegalStateException("image file for stickers should be webp files, image file is: " + imageFile);
+        }
+        if (imageFile.contains("..") || imageFile.contains("/")) {
+            throw new IllegalStateException("the file name should not contain .. or / to prevent directory traversal, image file is:" + imageFile);
+        }
     }
 
     @NonNull
@@ -157,7 +261,8 @@ class ContentFileParser {
         while (reader.hasNext()) {
             reader.beginObject();
             String imageFile = null;
-            List<String> emojis = new ArrayList<>(LIMIT_EMOJI_COUNT);
+            // Only kept until the pack interns the emojis.
+            List<String> emojis = new ArrayList<>(2);
             while (reader.hasNext()) {
                 final String key = reader.nextName();
                 if ("image_file".equals(key)) {
@@ -174,15 +279,6 @@ class ContentFileParser {
                 }
             }
             reader.endObject();
-            if (TextUtils.isEmpty(imageFile)) {
-                throw new IllegalStateException("sticker image_file cannot be empty");
-            }
-            if (!imageFile.endsWith(".webp")) {
-                throw new IllegalStateException("image file for stickers should be webp files, image file is: " + imageFile);
-            }
-            if (imageFile.contains("..") || imageFile.contains("/")) {
-                throw new IllegalStateException("the file name should not contain .. or / to prevent directory traversal, image file is:" + imageFile);
-            }
             stickerList.add(new Sticker(imageFile, emojis));
         }
         reader.endArray();
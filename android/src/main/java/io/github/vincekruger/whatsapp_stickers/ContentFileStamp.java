@@ -0,0 +1,102 @@
+package io.github.vincekruger.whatsapp_stickers;
+
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.StructStat;
+import android.util.JsonReader;
+import android.util.JsonWriter;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Identifies a version of the sticker packs contents file on disk.
+ * Two stamps are equal when the file has the same modification time, size and inode,
+ * which is enough to tell whether a parsed catalog is still valid without reading the file.
+ */
+final class ContentFileStamp {
+    private static final long UNKNOWN_INODE = -1;
+
+    final long lastModified;
+    final long length;
+    final long inode;
+
+    private ContentFileStamp(long lastModified, long length, long inode) {
+        this.lastModified = lastModified;
+        this.length = length;
+        this.inode = inode;
+    }
+
+    @NonNull
+    static ContentFileStamp of(@NonNull File file) {
+        long inode = UNKNOWN_INODE;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            try {
+                final StructStat stat = Os.stat(file.getPath());
+                inode = stat.st_ino;
+            } catch (ErrnoException e) {
+                // Fall back to the modification time and size only.
+            }
+        }
+        return new ContentFileStamp(file.lastModified(), file.length(), inode);
+    }
+
+    /**
+     * Writes the stamp as a JSON object, for files that record which version of the contents file they belong to.
+     */
+    void write(@NonNull JsonWriter writer) throws IOException {
+        writer.beginObject();
+        writer.name("last_modified").value(lastModified);
+        writer.name("length").value(length);
+        writer.name("inode").value(inode);
+        writer.endObject();
+    }
+
+    /**
+     * Reads a stamp written by {@link #write(JsonWriter)}.
+     */
+    @NonNull
+    static ContentFileStamp read(@NonNull JsonReader reader) throws IOException, IllegalStateException {
+        long lastModified = 0;
+        long length = 0;
+        long inode = UNKNOWN_INODE;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String key = reader.nextName();
+            if ("last_modified".equals(key)) {
+                lastModified = reader.nextLong();
+            } else if ("length".equals(key)) {
+                length = reader.nextLong();
+            } else if ("inode".equals(key)) {
+                inode = reader.nextLong();
+            } else {
+                throw new IllegalStateException("unknown field in stamp: " + key);
+            }
+        }
+        reader.endObject();
+        return new ContentFileStamp(lastModified, length, inode);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ContentFileStamp)) {
+            return false;
+        }
+        final ContentFileStamp that = (ContentFileStamp) o;
+        return lastModified == that.lastModified && length == that.length && inode == that.inode;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (lastModified ^ (lastModified >>> 32));
+        result = 31 * result + (int) (length ^ (length >>> 32));
+        result = 31 * result + (int) (inode ^ (inode >>> 32));
+        return result;
+    }
+}
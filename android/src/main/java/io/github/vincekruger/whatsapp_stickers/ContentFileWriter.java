@@ -0,0 +1,129 @@
+package io.github.vincekruger.whatsapp_stickers;
+
+import android.util.JsonWriter;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.List;
+
+/**
+ * Writes contents files in the format read by {@link ContentFileParser}.
+ */
+final class ContentFileWriter {
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    private ContentFileWriter() {
+    }
+
+    /**
+     * Replaces the contents file in one step: the contents are written and synced to a temp file
+     * next to it, which is then renamed over the file, so readers only ever see a complete file.
+     */
+    static void write(@NonNull File file, @NonNull final ContentFileParser.StoreLinks storeLinks,
+                      @NonNull final List<StickerPack> stickerPacks) throws IOException {
+        replace(file, new Body() {
+            @Override
+            public void write(@NonNull JsonWriter writer) throws IOException {
+                writeContents(writer, storeLinks, stickerPacks);
+            }
+        });
+    }
+
+    /**
+     * Replaces the manifest of a single sticker pack in one step, as {@link #write} does for the contents file.
+     */
+    static void writeStickerPack(@NonNull File file, @NonNull final StickerPack stickerPack) throws IOException {
+        replace(file, new Body() {
+            @Override
+            public void write(@NonNull JsonWriter writer) throws IOException {
+                writeStickerPack(writer, stickerPack);
+            }
+        });
+    }
+
+    interface Body {
+        void write(@NonNull JsonWriter writer) throws IOException;
+    }
+
+    /**
+     * Replaces any JSON file in one step, as {@link #write} does for the contents file.
+     */
+    static void replace(@NonNull File file, @NonNull Body body) throws IOException {
+        final File tempFile = new File(file.getPath() + TEMP_FILE_SUFFIX);
+        try {
+            try (FileOutputStream outputStream = new FileOutputStream(tempFile);
+                 JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(outputStream, "UTF-8")))) {
+                writer.setIndent("  ");
+                body.write(writer);
+                writer.flush();
+                outputStream.getFD().sync();
+            }
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("could not rename " + tempFile + " to " + file);
+            }
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+        }
+    }
+
+    private static void writeContents(@NonNull JsonWriter writer, @NonNull ContentFileParser.StoreLinks storeLinks,
+                                      @NonNull List<StickerPack> stickerPacks) throws IOException {
+        writer.beginObject();
+        writer.name("android_play_store_link").value(nonNull(storeLinks.androidPlayStoreLink));
+        writer.name("ios_app_store_link").value(nonNull(storeLinks.iosAppStoreLink));
+        writer.name("sticker_packs").beginArray();
+        for (StickerPack stickerPack : stickerPacks) {
+            writeStickerPack(writer, stickerPack);
+        }
+        writer.endArray();
+        writer.endObject();
+    }
+
+    /**
+     * Writes a single sticker pack, in the format of the sharded manifests and the archives' config.json.
+     */
+    static void writeStickerPack(@NonNull JsonWriter writer, @NonNull StickerPack stickerPack) throws IOException {
+        writer.beginObject();
+        writer.name("identifier").value(stickerPack.identifier);
+        writer.name("name").value(stickerPack.name);
+        writer.name("publisher").value(stickerPack.publisher);
+        writer.name("tray_image_file").value(stickerPack.trayImageFile);
+        writeOptional(writer, "publisher_email", stickerPack.publisherEmail);
+        writeOptional(writer, "publisher_website", stickerPack.publisherWebsite);
+        writeOptional(writer, "privacy_policy_website", stickerPack.privacyPolicyWebsite);
+        writeOptional(writer, "license_agreement_website", stickerPack.licenseAgreementWebsite);
+        writer.name("image_data_version").value(stickerPack.imageDataVersion);
+        writer.name("avoid_cache").value(stickerPack.avoidCache);
+        writer.name("animated_sticker_pack").value(stickerPack.animatedStickerPack);
+        writer.name("stickers").beginArray();
+        for (Sticker sticker : stickerPack.getStickers()) {
+            writer.beginObject();
+            writer.name("image_file").value(sticker.imageFileName);
+            writer.name("emojis").beginArray();
+            for (String emoji : sticker.emojis) {
+                writer.value(emoji);
+            }
+            writer.endArray();
+            writer.endObject();
+        }
+        writer.endArray();
+        writer.endObject();
+    }
+
+    private static void writeOptional(@NonNull JsonWriter writer, @NonNull String name, String value) throws IOException {
+        if (value != null) {
+            writer.name(name).value(value);
+        }
+    }
+
+    @NonNull
+    private static String nonNull(String value) {
+        return value != null ? value : "";
+    }
+}
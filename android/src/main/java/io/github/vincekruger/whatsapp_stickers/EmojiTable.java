@@ -0,0 +1,89 @@
+package io.github.vincekruger.whatsapp_stickers;
+
+import androidx.annotation.NonNull;
+
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Process-wide table of the emojis of all stickers, so each distinct emoji is stored once and
+ * stickers refer to it by index. The table only grows; the emojis in use are a small set, so it
+ * stays small however many packs are loaded and reloaded.
+ */
+final class EmojiTable {
+    private static final Map<String, Integer> indexes = new HashMap<>();
+    // Replaced when it grows. Readers get indexes from packs that were published after the emoji was
+    // added, so they always see it.
+    private static volatile String[] emojis = new String[256];
+    private static int count;
+
+    private EmojiTable() {
+    }
+
+    static synchronized int intern(@NonNull String emoji) {
+        final Integer index = indexes.get(emoji);
+        if (index != null) {
+            return index;
+        }
+        String[] table = emojis;
+        if (count == table.length) {
+            final String[] grown = new String[table.length * 2];
+            System.arraycopy(table, 0, grown, 0, count);
+            table = grown;
+        }
+        table[count] = emoji;
+        emojis = table;
+        indexes.put(emoji, count);
+        return count++;
+    }
+
+    /**
+     * Returns the index of the emoji, or -1 if no sticker ever had it. Unlike {@link #intern(String)}
+     * this does not add it, so looking up arbitrary strings does not grow the table.
+     */
+    static synchronized int find(@NonNull String emoji) {
+        final Integer index = indexes.get(emoji);
+        return index != null ? index : -1;
+    }
+
+    @NonNull
+    static String get(int index) {
+        return emojis[index];
+    }
+
+    /**
+     * A read-only list of the emojis at {@code indexes[from]} up to {@code indexes[to]}.
+     */
+    @NonNull
+    static List<String> view(@NonNull final int[] indexes, final int from, final int to) {
+        return new EmojiList(indexes, from, to);
+    }
+
+    private static final class EmojiList extends AbstractList<String> implements RandomAccess {
+        private final int[] indexes;
+        private final int from;
+        private final int to;
+
+        EmojiList(int[] indexes, int from, int to) {
+            this.indexes = indexes;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public String get(int location) {
+            if (location < 0 || location >= to - from) {
+                throw new IndexOutOfBoundsException("index " + location + ", size " + (to - from));
+            }
+            return EmojiTable.get(indexes[from + location]);
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+    }
+}
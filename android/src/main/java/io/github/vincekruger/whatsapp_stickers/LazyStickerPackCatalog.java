@@ -0,0 +1,183 @@
+package io.github.vincekruger.whatsapp_stickers;
+
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Catalog that only keeps an identifier index of a {@link StickerPackSnapshot} on the heap.
+ * Packs are materialized from the memory-mapped snapshot when they are looked up, and a bounded
+ * number of them is kept in an LRU cache. The files of a pack are measured the first time it is
+ * materialized; a catalog only lives as long as its snapshot's stamp, and replacing files reloads it.
+ */
+final class LazyStickerPackCatalog extends StickerPackCatalog {
+    private final StickerPackSnapshot snapshot;
+    private final StickerPackFiles stickerPackFiles;
+    private final Map<String, Integer> packIndexes;
+    private final LruCache<String, StickerPack> residentPacks;
+    private final LruCache<String, StickerPackCursorRows.JoinedEmojis> residentJoinedEmojis;
+    // Sizes from StickerPack#getFileSizes() by pack index, null until the pack was measured.
+    private final AtomicReferenceArray<long[]> fileSizes;
+
+    LazyStickerPackCatalog(@NonNull StickerPackSnapshot snapshot, @NonNull StickerPackFiles stickerPackFiles,
+                           int maxResidentPacks) {
+        this.snapshot = snapshot;
+        this.stickerPackFiles = stickerPackFiles;
+        final int packCount = snapshot.getStickerPackCount();
+        this.packIndexes = new HashMap<>(packCount * 2);
+        for (int i = packCount - 1; i >= 0; i--) {
+            // Iterate backwards, so the first pack wins for a duplicated identifier.
+            packIndexes.put(snapshot.readIdentifier(i), i);
+        }
+        this.residentPacks = new LruCache<>(Math.max(1, maxResidentPacks));
+        this.residentJoinedEmojis = new LruCache<>(Math.max(1, maxResidentPacks));
+        this.fileSizes = new AtomicReferenceArray<>(packCount);
+    }
+
+    /**
+     * Materializes every pack. The packs are not kept in the cache, so listing the catalog does
+     * not evict the packs WhatsApp is currently importing.
+     */
+    @NonNull
+    @Override
+    List<StickerPack> getStickerPacks() {
+        final List<StickerPack> stickerPacks = snapshot.readStickerPacks();
+        applyFileSizes(stickerPacks, 0);
+        return stickerPacks;
+    }
+
+    /**
+     * Reads each pack from the snapshot when the index gets to it, without measuring its files, so
+     * the index never has every pack on the heap at once.
+     */
+    @NonNull
+    @Override
+    List<StickerPack> getStickerPacksToIndex() {
+        return new AbstractList<StickerPack>() {
+            @Override
+            public StickerPack get(int location) {
+                return snapshot.readStickerPack(location);
+            }
+
+            @Override
+            public int size() {
+                return snapshot.getStickerPackCount();
+            }
+        };
+    }
+
+    @Override
+    int getStickerPackCount() {
+        return snapshot.getStickerPackCount();
+    }
+
+    /**
+     * Only materializes the requested packs, and like {@link #getStickerPacks()} does not cache them.
+     */
+    @NonNull
+    @Override
+    List<StickerPack> getStickerPacks(int offset, int limit) {
+        final int end = (int) Math.min(snapshot.getStickerPackCount(), (long) offset + limit);
+        final List<StickerPack> stickerPacks = new ArrayList<>(Math.max(0, end - offset));
+        for (int i = offset; i < end; i++) {
+            stickerPacks.add(snapshot.readStickerPack(i));
+        }
+        applyFileSizes(stickerPacks, offset);
+        return stickerPacks;
+    }
+
+    /**
+     * Reads the packs without their stickers, so metadata queries neither decode stickers nor stat files.
+     */
+    @NonNull
+    @Override
+    List<StickerPack> getStickerPackMetadata(int offset, int limit) {
+        final int end = (int) Math.min(snapshot.getStickerPackCount(), (long) offset + limit);
+        final List<StickerPack> stickerPacks = new ArrayList<>(Math.max(0, end - offset));
+        for (int i = offset; i < end; i++) {
+            stickerPacks.add(snapshot.readStickerPackMetadata(i));
+        }
+        return stickerPacks;
+    }
+
+    @NonNull
+    @Override
+    ContentFileParser.StoreLinks getStoreLinks() {
+        return snapshot.getStoreLinks();
+    }
+
+    @Nullable
+    @Override
+    StickerPack getStickerPack(@Nullable String identifier) {
+        if (identifier == null) {
+            return null;
+        }
+        StickerPack stickerPack = residentPacks.get(identifier);
+        if (stickerPack == null) {
+            final Integer packIndex = packIndexes.get(identifier);
+            if (packIndex == null) {
+                return null;
+            }
+            stickerPack = snapshot.readStickerPack(packIndex);
+            applyFileSizes(Collections.singletonList(stickerPack), packIndex);
+            residentPacks.put(identifier, stickerPack);
+        }
+        return stickerPack;
+    }
+
+    /**
+     * Joined emojis are kept for the same bounded number of packs as the materialized packs.
+     */
+    @NonNull
+    @Override
+    String[] getJoinedEmojis(@NonNull String identifier, @Nullable String imageDataVersion,
+                             @NonNull List<Sticker> stickers) {
+        StickerPackCursorRows.JoinedEmojis joined = residentJoinedEmojis.get(identifier);
+        if (joined == null || !joined.isFor(imageDataVersion, stickers)) {
+            joined = StickerPackCursorRows.JoinedEmojis.of(imageDataVersion, stickers);
+            residentJoinedEmojis.put(identifier, joined);
+        }
+        return joined.emojis;
+    }
+
+    /**
+     * Sets the sizes of the packs, which start at {@code firstPackIndex} of the snapshot, from earlier
+     * measurements. Only packs that were never measured have their files stat'ed.
+     */
+    private void applyFileSizes(@NonNull List<StickerPack> stickerPacks, int firstPackIndex) {
+        final List<StickerPack> unmeasured = new ArrayList<>();
+        for (int i = 0; i < stickerPacks.size(); i++) {
+            final long[] sizes = fileSizes.get(firstPackIndex + i);
+            if (sizes != null) {
+                stickerPacks.get(i).setFileSizes(sizes);
+            } else {
+                unmeasured.add(stickerPacks.get(i));
+            }
+        }
+        if (unmeasured.isEmpty()) {
+            return;
+        }
+        stickerPackFiles.measure(unmeasured);
+        for (int i = 0; i < stickerPacks.size(); i++) {
+            if (fileSizes.get(firstPackIndex + i) == null) {
+                fileSizes.compareAndSet(firstPackIndex + i, null, stickerPacks.get(i).getFileSizes());
+            }
+        }
+    }
+
+    @Override
+    void trimMemory() {
+        super.trimMemory();
+        residentPacks.evictAll();
+        residentJoinedEmojis.evictAll();
+    }
+}
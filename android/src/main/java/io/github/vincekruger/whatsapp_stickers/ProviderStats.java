@@ -0,0 +1,101 @@
+package io.github.vincekruger.whatsapp_stickers;
+
+import android.os.Build;
+import android.os.Trace;
+
+import androidx.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histograms of the provider, cheap enough to stay on in production. Every
+ * update is a handful of atomic operations, binder threads never wait on each other.
+ */
+final class ProviderStats {
+    /**
+     * Bucket {@code i} counts latencies below 2^i microseconds and at least half that, the last bucket
+     * counts everything from about 8 seconds on.
+     */
+    static final int HISTOGRAM_BUCKETS = 24;
+
+    final LatencyHistogram metadataQueries = new LatencyHistogram();
+    final LatencyHistogram stickerPackQueries = new LatencyHistogram();
+    final LatencyHistogram stickersQueries = new LatencyHistogram();
+    final LatencyHistogram stickerSearches = new LatencyHistogram();
+    final LatencyHistogram fileRequests = new LatencyHistogram();
+    final LatencyHistogram manifestParses = new LatencyHistogram();
+    final LatencyHistogram imports = new LatencyHistogram();
+    final AtomicLong cacheHits = new AtomicLong();
+    final AtomicLong cacheMisses = new AtomicLong();
+    final AtomicLong bytesServed = new AtomicLong();
+    final AtomicLong failedFileLookups = new AtomicLong();
+
+    static final class LatencyHistogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(HISTOGRAM_BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalMicros = new AtomicLong();
+        private final AtomicLong maxMicros = new AtomicLong();
+
+        void record(long nanos) {
+            final long micros = Math.max(0, nanos / 1000);
+            buckets.incrementAndGet(Math.min(HISTOGRAM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros)));
+            count.incrementAndGet();
+            totalMicros.addAndGet(micros);
+            long max = maxMicros.get();
+            while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+                max = maxMicros.get();
+            }
+        }
+
+        /**
+         * The fields are read one by one, so a snapshot taken while requests run can be off by those requests.
+         */
+        @NonNull
+        HashMap<String, Object> snapshot() {
+            final long[] counts = new long[HISTOGRAM_BUCKETS];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = buckets.get(i);
+            }
+            final HashMap<String, Object> snapshot = new HashMap<>();
+            snapshot.put("count", count.get());
+            snapshot.put("totalMicros", totalMicros.get());
+            snapshot.put("maxMicros", maxMicros.get());
+            snapshot.put("buckets", counts);
+            return snapshot;
+        }
+    }
+
+    @NonNull
+    HashMap<String, Object> snapshot() {
+        final HashMap<String, Object> snapshot = new HashMap<>();
+        snapshot.put("metadataQueries", metadataQueries.snapshot());
+        snapshot.put("stickerPackQueries", stickerPackQueries.snapshot());
+        snapshot.put("stickersQueries", stickersQueries.snapshot());
+        snapshot.put("stickerSearches", stickerSearches.snapshot());
+        snapshot.put("fileRequests", fileRequests.snapshot());
+        snapshot.put("manifestParses", manifestParses.snapshot());
+        snapshot.put("imports", imports.snapshot());
+        snapshot.put("cacheHits", cacheHits.get());
+        snapshot.put("cacheMisses", cacheMisses.get());
+        snapshot.put("bytesServed", bytesServed.get());
+        snapshot.put("failedFileLookups", failedFileLookups.get());
+        return snapshot;
+    }
+
+    /**
+     * Starts a systrace section, on the API levels that have them. Sections nest per thread.
+     */
+    static void beginSection(@NonNull String name) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection(name);
+        }
+    }
+
+    static void endSection() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
+        }
+    }
+}
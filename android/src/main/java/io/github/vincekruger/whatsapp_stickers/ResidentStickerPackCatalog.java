@@ -0,0 +1,69 @@
+package io.github.vincekruger.whatsapp_stickers;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable view of the parsed sticker packs, indexed by identifier so the provider
+ * can answer single pack and asset lookups without scanning the whole list.
+ */
+final class ResidentStickerPackCatalog extends StickerPackCatalog {
+    private final List<StickerPack> stickerPacks;
+    private final Map<String, StickerPack> stickerPacksByIdentifier;
+
+    ResidentStickerPackCatalog(@NonNull List<StickerPack> stickerPacks) {
+        final Map<String, StickerPack> byIdentifier = new HashMap<>(stickerPacks.size() * 2);
+        for (StickerPack stickerPack : stickerPacks) {
+            // Keep the first pack for a duplicated identifier, as the linear lookups did.
+            if (!byIdentifier.containsKey(stickerPack.identifier)) {
+                byIdentifier.put(stickerPack.identifier, stickerPack);
+            }
+        }
+        this.stickerPacks = Collections.unmodifiableList(stickerPacks);
+        this.stickerPacksByIdentifier = Collections.unmodifiableMap(byIdentifier);
+    }
+
+    /**
+     * Returns a catalog with the changed packs replaced, removed or added at the end.
+     *
+     * @param changes the changed packs by identifier, with null for removed packs.
+     */
+    @NonNull
+    ResidentStickerPackCatalog withChanges(@NonNull Map<String, StickerPack> changes) {
+        final List<StickerPack> changed = new ArrayList<>(stickerPacks.size() + changes.size());
+        final Set<String> applied = new HashSet<>();
+        for (StickerPack stickerPack : stickerPacks) {
+            if (!changes.containsKey(stickerPack.identifier)) {
+                changed.add(stickerPack);
+            } else if (applied.add(stickerPack.identifier) && changes.get(stickerPack.identifier) != null) {
+                changed.add(changes.get(stickerPack.identifier));
+            }
+        }
+        for (Map.Entry<String, StickerPack> change : changes.entrySet()) {
+            if (!applied.contains(change.getKey()) && change.getValue() != null) {
+                changed.add(change.getValue());
+            }
+        }
+        return new ResidentStickerPackCatalog(changed);
+    }
+
+    @NonNull
+    @Override
+    List<StickerPack> getStickerPacks() {
+        return stickerPacks;
+    }
+
+    @Nullable
+    @Override
+    StickerPack getStickerPack(@Nullable String identifier) {
+        return identifier == null ? null : stickerPacksByIdentifier.get(identifier);
+    }
+}
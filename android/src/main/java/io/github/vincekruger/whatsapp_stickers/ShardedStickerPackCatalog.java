@@ -0,0 +1,206 @@
+package io.github.vincekruger.whatsapp_stickers;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Catalog for the sharded layout, where every {@code sticker_packs/<identifier>/} directory has its
+ * own {@link #SHARD_FILE_NAME} manifest and the root contents file only holds the store links.
+ * <p>
+ * Instances are immutable. Refreshing returns a new catalog that re-uses every shard whose manifest
+ * did not change, so updating one pack only costs reading that pack's manifest.
+ */
+final class ShardedStickerPackCatalog extends StickerPackCatalog {
+    private static final String TAG = "ShardedStickerPacks";
+
+    static final String SHARD_FILE_NAME = "sticker_pack.json";
+
+    private final File contentDirectory;
+    private final File rootFile;
+    private final StickerPackFiles stickerPackFiles;
+    private final ContentFileStamp rootStamp;
+    private final ContentFileParser.StoreLinks storeLinks;
+    private final Map<String, Shard> shards;
+    private final List<StickerPack> stickerPacks;
+
+    private ShardedStickerPackCatalog(File contentDirectory, File rootFile, StickerPackFiles stickerPackFiles,
+                                      ContentFileStamp rootStamp, ContentFileParser.StoreLinks storeLinks,
+                                      Map<String, Shard> shards) {
+        this.contentDirectory = contentDirectory;
+        this.rootFile = rootFile;
+        this.stickerPackFiles = stickerPackFiles;
+        this.rootStamp = rootStamp;
+        this.storeLinks = storeLinks;
+        this.shards = Collections.unmodifiableMap(shards);
+        final List<StickerPack> stickerPacks = new ArrayList<>(shards.size());
+        for (Shard shard : shards.values()) {
+            stickerPacks.add(shard.stickerPack);
+        }
+        this.stickerPacks = Collections.unmodifiableList(stickerPacks);
+    }
+
+    /**
+     * Loads every shard of the content directory.
+     *
+     * @param rootFile the contents file holding the store links, it does not have to exist.
+     */
+    @NonNull
+    static ShardedStickerPackCatalog load(@NonNull File contentDirectory, @NonNull File rootFile,
+                                          @NonNull StickerPackFiles stickerPackFiles) throws IOException {
+        return new ShardedStickerPackCatalog(contentDirectory, rootFile, stickerPackFiles, null,
+                ContentFileParser.StoreLinks.NONE, new TreeMap<String, Shard>()).refresh();
+    }
+
+    @NonNull
+    @Override
+    List<StickerPack> getStickerPacks() {
+        return stickerPacks;
+    }
+
+    @NonNull
+    @Override
+    ContentFileParser.StoreLinks getStoreLinks() {
+        return storeLinks;
+    }
+
+    @Nullable
+    @Override
+    StickerPack getStickerPack(@Nullable String identifier) {
+        final Shard shard = identifier == null ? null : shards.get(identifier);
+        return shard == null ? null : shard.stickerPack;
+    }
+
+    /**
+     * Re-scans the content directory. Only shards whose manifest changed are parsed again.
+     *
+     * @return this catalog if nothing changed, otherwise the updated catalog.
+     */
+    @NonNull
+    ShardedStickerPackCatalog refresh() throws IOException {
+        final ContentFileStamp newRootStamp = ContentFileStamp.of(rootFile);
+        final boolean rootChanged = !newRootStamp.equals(rootStamp);
+        final ContentFileParser.StoreLinks newStoreLinks = rootChanged ? readStoreLinks() : storeLinks;
+
+        boolean changed = rootChanged;
+        final Map<String, Shard> newShards = new TreeMap<>();
+        final File[] directories = contentDirectory.listFiles();
+        if (directories != null) {
+            for (File directory : directories) {
+                final String identifier = directory.getName();
+                if (!directory.isDirectory() || identifier.startsWith(".")) {
+                    continue;
+                }
+                final Shard current = shards.get(identifier);
+                final Shard shard = loadShard(identifier, current, newStoreLinks, rootChanged);
+                if (shard != null) {
+                    newShards.put(identifier, shard);
+                }
+                changed |= shard != current;
+            }
+        }
+        changed |= newShards.size() != shards.size();
+        if (!changed) {
+            return this;
+        }
+        return new ShardedStickerPackCatalog(contentDirectory, rootFile, stickerPackFiles, newRootStamp, newStoreLinks,
+                newShards);
+    }
+
+    /**
+     * Checks the manifest of a single shard, without looking at the rest of the content directory.
+     *
+     * @param force parse the manifest even if it looks unchanged.
+     * @return this catalog if the shard did not change, otherwise the updated catalog.
+     */
+    @NonNull
+    ShardedStickerPackCatalog refreshShard(@NonNull String identifier, boolean force) throws IOException {
+        if (identifier.contains("..") || identifier.contains("/") || identifier.startsWith(".")) {
+            return this;
+        }
+        final Shard current = shards.get(identifier);
+        final Shard shard = loadShard(identifier, force ? null : current, storeLinks, false);
+        if (shard == current) {
+            return this;
+        }
+        final Map<String, Shard> newShards = new TreeMap<>(shards);
+        if (shard == null) {
+            newShards.remove(identifier);
+        } else {
+            newShards.put(identifier, shard);
+        }
+        return new ShardedStickerPackCatalog(contentDirectory, rootFile, stickerPackFiles, rootStamp, storeLinks, newShards);
+    }
+
+    /**
+     * @return the current shard if its manifest did not change, the re-parsed shard, or null if
+     * the shard has no valid manifest.
+     */
+    @Nullable
+    private Shard loadShard(String identifier, @Nullable Shard current, ContentFileParser.StoreLinks storeLinks,
+                            boolean storeLinksChanged) {
+        final File manifest = new File(new File(contentDirectory, identifier), SHARD_FILE_NAME);
+        if (!manifest.isFile()) {
+            return null;
+        }
+        final ContentFileStamp stamp = ContentFileStamp.of(manifest);
+        if (current != null && stamp.equals(current.stamp)) {
+            if (storeLinksChanged) {
+                // The current pack may be in use by readers of this catalog, so it is copied, not changed.
+                return new Shard(current.stamp, current.stickerPack.withStoreLinks(storeLinks.androidPlayStoreLink,
+                        storeLinks.iosAppStoreLink));
+            }
+            return current;
+        }
+        try (InputStream contentsInputStream = new FileInputStream(manifest)) {
+            final StickerPack stickerPack = ContentFileParser.parseStickerPack(contentsInputStream);
+            if (!identifier.equals(stickerPack.identifier)) {
+                throw new IllegalStateException("identifier " + stickerPack.identifier
+                        + " does not match the sticker pack directory " + identifier);
+            }
+            applyStoreLinks(stickerPack, storeLinks);
+            stickerPackFiles.measure(stickerPack);
+            return new Shard(stamp, stickerPack);
+        } catch (IOException | IllegalStateException e) {
+            // A broken pack should not take the other packs down with it.
+            Log.e(TAG, SHARD_FILE_NAME + " of sticker pack " + identifier + " has some issues: " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    @NonNull
+    private ContentFileParser.StoreLinks readStoreLinks() throws IOException {
+        if (!rootFile.isFile()) {
+            return ContentFileParser.StoreLinks.NONE;
+        }
+        try (InputStream contentsInputStream = new FileInputStream(rootFile)) {
+            return ContentFileParser.parseStoreLinks(contentsInputStream);
+        }
+    }
+
+    private static void applyStoreLinks(StickerPack stickerPack, ContentFileParser.StoreLinks storeLinks) {
+        stickerPack.setAndroidPlayStoreLink(storeLinks.androidPlayStoreLink);
+        stickerPack.setIosAppStoreLink(storeLinks.iosAppStoreLink);
+    }
+
+    private static final class Shard {
+        final ContentFileStamp stamp;
+        final StickerPack stickerPack;
+
+        Shard(ContentFileStamp stamp, StickerPack stickerPack) {
+            this.stamp = stamp;
+            this.stickerPack = stickerPack;
+        }
+    }
+}
@@ -16,11 +16,16 @@ import java.util.List;
 class Sticker implements Parcelable {
     final String imageFileName;
     final List<String> emojis;
-    long size;
+    final long size;
 
     Sticker(String imageFileName, List<String> emojis) {
+        this(imageFileName, emojis, 0);
+    }
+
+    Sticker(String imageFileName, List<String> emojis, long size) {
         this.imageFileName = imageFileName;
         this.emojis = emojis;
+        this.size = size;
     }
 
     private Sticker(Parcel in) {
@@ -41,10 +46,6 @@ class Sticker implements Parcelable {
         }
     };
 
-    public void setSize(long size) {
-        this.size = size;
-    }
-
     @Override
     public int describeContents() {
         return 0;
@@ -0,0 +1,244 @@
+package io.github.vincekruger.whatsapp_stickers;
+
+import android.util.JsonReader;
+import android.util.JsonWriter;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stores the sticker and tray image files of the non-asset packs once per content, so packs that
+ * share stickers share their files.
+ * <p>
+ * Files still arrive in the pack directories, written by imports, conversions or the app itself.
+ * Ingesting a pack hashes the image files it lists, records file name to hash in the pack's
+ * {@link #MAPPING_FILE_NAME} and moves each file into {@link #BLOB_DIRECTORY_NAME}, named by its
+ * hash, or drops it when that blob already exists. Blobs are reference counted over all mappings
+ * and deleted once no pack refers to them.
+ * <p>
+ * The mapping is written before any file moves and a file in the pack directory is always served
+ * before its blob, so a crash at any point leaves every file readable and the next ingest finishes
+ * the job. Blobs that no mapping refers to are deleted when the store is loaded.
+ */
+final class StickerBlobStore {
+    private static final String TAG = "StickerBlobStore";
+
+    // Hidden names are skipped by the catalogs, the content directory observer and archive imports.
+    static final String BLOB_DIRECTORY_NAME = ".blobs";
+    static final String MAPPING_FILE_NAME = ".sticker_files.json";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final File contentDirectory;
+    private final File blobDirectory;
+    // Held by archive imports while they move pack directories around.
+    private final Object importCommitLock;
+    // Serializes loading and ingesting, and guards the reference counts.
+    private final Object lock = new Object();
+    // Mapping of every pack, by identifier. The mapping of a pack is replaced, never changed.
+    private final Map<String, Map<String, String>> mappings = new ConcurrentHashMap<>();
+    private final Map<String, Integer> referenceCounts = new HashMap<>();
+    private volatile boolean loaded;
+
+    /**
+     * @param importCommitLock the lock {@link StickerPackArchiveImporter} holds while it commits an import.
+     */
+    StickerBlobStore(@NonNull File contentDirectory, @NonNull Object importCommitLock) {
+        this.contentDirectory = contentDirectory;
+        this.blobDirectory = new File(contentDirectory, BLOB_DIRECTORY_NAME);
+        this.importCommitLock = importCommitLock;
+    }
+
+    /**
+     * Returns the file holding a sticker or tray image of a pack.
+     */
+    @NonNull
+    File resolve(@NonNull String identifier, @NonNull String fileName) {
+        final File file = new File(new File(contentDirectory, identifier), fileName);
+        ensureLoaded();
+        final Map<String, String> mapping = mappings.get(identifier);
+        final String hash = mapping != null ? mapping.get(fileName) : null;
+        // A file written to the pack directory replaces the blob right away, before it is ingested.
+        if (hash == null || file.exists()) {
+            return file;
+        }
+        return new File(blobDirectory, hash);
+    }
+
+    /**
+     * Moves the image files of a pack's directory into the store. The mapping is rebuilt from the
+     * pack's stickers and tray image, so files the pack no longer lists release their blobs. Files in
+     * the directory that the pack does not list yet stay where they are.
+     */
+    void ingest(@NonNull StickerPack stickerPack) throws IOException {
+        synchronized (lock) {
+            ensureLoaded();
+            final File directory = new File(contentDirectory, stickerPack.identifier);
+            // Read from disk, the directory may have been replaced since the pack was ingested last.
+            final Map<String, String> previous = readMapping(directory);
+            final Map<String, String> mapping = new HashMap<>();
+            final List<File> files = new ArrayList<>();
+            final List<String> fileNames = new ArrayList<>(stickerPack.getStickerCount() + 1);
+            for (Sticker sticker : stickerPack.getStickers()) {
+                fileNames.add(sticker.imageFileName);
+            }
+            fileNames.add(stickerPack.trayImageFile);
+            for (String fileName : fileNames) {
+                final File file = new File(directory, fileName);
+                if (file.isFile()) {
+                    mapping.put(fileName, hash(file));
+                    files.add(file);
+                } else if (previous.containsKey(fileName)) {
+                    mapping.put(fileName, previous.get(fileName));
+                }
+            }
+            if (!mapping.equals(previous)) {
+                writeMapping(directory, mapping);
+            }
+            publish(stickerPack.identifier, mapping);
+
+            //noinspection ResultOfMethodCallIgnored
+            blobDirectory.mkdirs();
+            for (File file : files) {
+                final File blob = new File(blobDirectory, mapping.get(file.getName()));
+                final boolean moved = blob.exists() ? file.delete() : file.renameTo(blob);
+                if (!moved) {
+                    // The file keeps being served from the pack directory, the next ingest tries again.
+                    Log.w(TAG, "Could not move " + file + " into the blob store");
+                }
+            }
+        }
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        synchronized (lock) {
+            if (loaded) {
+                return;
+            }
+            // While an import commits, the previous directory of a pack is hidden and its blobs would look unused.
+            synchronized (importCommitLock) {
+                final File[] directories = contentDirectory.listFiles();
+                if (directories != null) {
+                    for (File directory : directories) {
+                        if (directory.isDirectory() && !directory.getName().startsWith(".")) {
+                            publish(directory.getName(), readMapping(directory));
+                        }
+                    }
+                }
+            }
+            final File[] blobs = blobDirectory.listFiles();
+            if (blobs != null) {
+                for (File blob : blobs) {
+                    // Left behind by a pack directory that was replaced before it could be ingested again.
+                    if (!referenceCounts.containsKey(blob.getName()) && !blob.delete()) {
+                        Log.w(TAG, "Could not delete " + blob);
+                    }
+                }
+            }
+            loaded = true;
+        }
+    }
+
+    /**
+     * Makes the mapping the pack's current one, and deletes the blobs only the previous mapping referred to.
+     */
+    private void publish(@NonNull String identifier, @NonNull Map<String, String> mapping) {
+        final Map<String, String> previous = mapping.isEmpty() ? mappings.remove(identifier)
+                : mappings.put(identifier, Collections.unmodifiableMap(mapping));
+        for (String hash : mapping.values()) {
+            final Integer count = referenceCounts.get(hash);
+            referenceCounts.put(hash, count != null ? count + 1 : 1);
+        }
+        if (previous == null) {
+            return;
+        }
+        for (String hash : previous.values()) {
+            final int count = referenceCounts.get(hash) - 1;
+            if (count > 0) {
+                referenceCounts.put(hash, count);
+                continue;
+            }
+            referenceCounts.remove(hash);
+            final File blob = new File(blobDirectory, hash);
+            if (blob.exists() && !blob.delete()) {
+                Log.w(TAG, "Could not delete " + blob);
+            }
+        }
+    }
+
+    @NonNull
+    private static Map<String, String> readMapping(@NonNull File directory) {
+        final Map<String, String> mapping = new HashMap<>();
+        final File file = new File(directory, MAPPING_FILE_NAME);
+        if (!file.isFile()) {
+            return mapping;
+        }
+        try (JsonReader reader = new JsonReader(new InputStreamReader(new FileInputStream(file), "UTF-8"))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                mapping.put(reader.nextName(), reader.nextString());
+            }
+            reader.endObject();
+        } catch (IOException | IllegalStateException e) {
+            // The files of the pack are served from its directory, or are lost if they were moved already.
+            Log.e(TAG, "Could not read " + file, e);
+            mapping.clear();
+        }
+        return mapping;
+    }
+
+    private static void writeMapping(@NonNull File directory, @NonNull final Map<String, String> mapping)
+            throws IOException {
+        ContentFileWriter.replace(new File(directory, MAPPING_FILE_NAME), new ContentFileWriter.Body() {
+            @Override
+            public void write(@NonNull JsonWriter writer) throws IOException {
+                writer.beginObject();
+                for (Map.Entry<String, String> entry : mapping.entrySet()) {
+                    writer.name(entry.getKey()).value(entry.getValue());
+                }
+                writer.endObject();
+            }
+        });
+    }
+
+    @NonNull
+    private static String hash(@NonNull File file) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        final byte[] buffer = new byte[16 * 1024];
+        try (InputStream inputStream = new FileInputStream(file)) {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        final byte[] bytes = digest.digest();
+        final char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+}
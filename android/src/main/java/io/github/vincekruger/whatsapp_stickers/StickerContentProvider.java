@@ -9,20 +9,24 @@
 package io.github.vincekruger.whatsapp_stickers;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.content.res.AssetFileDescriptor;
 import android.content.res.AssetManager;
 import android.database.Cursor;
-import android.database.MatrixCursor;
 import android.net.Uri;
+import android.os.Binder;
 import android.os.Bundle;
 import android.os.ParcelFileDescriptor;
 import android.os.CancellationSignal;
+import android.os.Process;
 import android.text.TextUtils;
 import android.util.Log;
 
@@ -30,18 +34,29 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import io.flutter.util.PathUtils;
 
 public class StickerContentProvider extends ContentProvider {
+    private static final String TAG = "StickerContentProvider";
 
     /**
      * Do not change the strings listed below, as these are used by WhatsApp. And
@@ -64,10 +79,33 @@ public class StickerContentProvider extends ContentProvider {
     public static final String STICKER_FILE_NAME_IN_QUERY = "sticker_file_name";
     public static final String STICKER_FILE_EMOJI_IN_QUERY = "sticker_emoji";
     public static final String CONTENT_PATH = "sticker_packs/";
+
+    static final String[] STICKER_PACK_INFO_COLUMNS = new String[] { STICKER_PACK_IDENTIFIER_IN_QUERY,
+            STICKER_PACK_NAME_IN_QUERY, STICKER_PACK_PUBLISHER_IN_QUERY, STICKER_PACK_ICON_IN_QUERY,
+            ANDROID_APP_DOWNLOAD_LINK_IN_QUERY, IOS_APP_DOWNLOAD_LINK_IN_QUERY, PUBLISHER_EMAIL, PUBLISHER_WEBSITE,
+            PRIVACY_POLICY_WEBSITE, LICENSE_AGREEMENT_WEBSITE, IMAGE_DATA_VERSION, AVOID_CACHE, ANIMATED_STICKER_PACK, };
+    static final String[] STICKER_COLUMNS = new String[] { STICKER_FILE_NAME_IN_QUERY, STICKER_FILE_EMOJI_IN_QUERY };
+    static final String[] STICKER_SEARCH_COLUMNS = new String[] { STICKER_PACK_IDENTIFIER_IN_QUERY,
+            STICKER_FILE_NAME_IN_QUERY, STICKER_FILE_EMOJI_IN_QUERY };
     public static final String CONTENT_FILE_NAME = BuildConfig.STICKER_PACK_FILE;
 
+    private static final int DEFAULT_MAX_RESIDENT_STICKER_PACKS = 8;
+
     private boolean nonAssetContentProvider = false;
+    private boolean shardedStickerPackContents = false;
+    private boolean lazyStickerPackLoading = false;
+    private int maxResidentStickerPacks = DEFAULT_MAX_RESIDENT_STICKER_PACKS;
+    private int stickerFileCacheSize = 0;
+    private boolean deduplicatedStickerStorage = false;
+    private boolean preloadStickerPacks = false;
     private String contentPath;
+    private StickerPackFiles stickerPackFiles;
+    private StickerPackValidator stickerPackValidator;
+    @Nullable
+    private StickerFileCache stickerFileCache;
+    @Nullable
+    private StickerBlobStore stickerBlobStore;
+    private final ProviderStats stats = new ProviderStats();
 
     /**
      * Do not change the values in the UriMatcher because otherwise, WhatsApp will
@@ -87,7 +125,66 @@ public class StickerContentProvider extends ContentProvider {
 
     private static final int STICKER_PACK_TRAY_ICON_CODE = 5;
 
-    private List<StickerPack> stickerPackList;
+    // Not used by WhatsApp, searches the stickers of every pack by emoji.
+    static final String STICKER_SEARCH = "sticker_search";
+    private static final int STICKER_SEARCH_CODE = 6;
+    static final String STICKER_SEARCH_LIMIT = "limit";
+
+    /**
+     * Methods handled by {@link #call(String, String, Bundle)}, used by the plugin to talk to the
+     * provider running in the same process.
+     */
+    static final String METHOD_INVALIDATE = "invalidate";
+    static final String METHOD_GET_STICKER_PACK_SIZES = "getStickerPackSizes";
+    static final String EXTRA_STICKER_PACK_SIZES = "sticker_pack_sizes";
+    static final String METHOD_VALIDATE_STICKER_PACK = "validateStickerPack";
+    static final String EXTRA_VALIDATION_REPORT = "validation_report";
+    static final String METHOD_IMPORT_STICKER_PACK_ARCHIVES = "importStickerPackArchives";
+    static final String EXTRA_ARCHIVE_PATHS = "archive_paths";
+    static final String EXTRA_ARCHIVE_BYTES = "archive_bytes";
+    static final String EXTRA_IMPORTED_STICKER_PACKS = "imported_sticker_packs";
+    static final String METHOD_UPSERT_STICKER_PACK = "upsertStickerPack";
+    static final String METHOD_REMOVE_STICKER_PACK = "removeStickerPack";
+    static final String METHOD_CREATE_STICKERS_FROM_IMAGES = "createStickersFromImages";
+    static final String EXTRA_IMAGE_PATHS = "image_paths";
+    static final String EXTRA_TRAY_IMAGE_PATH = "tray_image_path";
+    static final String EXTRA_STICKER_FILE_NAMES = "sticker_file_names";
+    static final String EXTRA_TRAY_IMAGE_FILE_NAME = "tray_image_file_name";
+    static final String METHOD_GET_PROVIDER_STATS = "getProviderStats";
+    static final String METHOD_GET_STICKER_PACKS = "getStickerPacks";
+    static final String EXTRA_FIELDS = "fields";
+    static final String EXTRA_OFFSET = "offset";
+    static final String EXTRA_LIMIT = "limit";
+    static final String EXTRA_STICKER_PACKS = "sticker_packs";
+    static final String EXTRA_STICKER_PACK_COUNT = "sticker_pack_count";
+    static final String EXTRA_PROVIDER_STATS = "provider_stats";
+    static final String METHOD_FIND_STICKERS_BY_EMOJI = "findStickersByEmoji";
+    static final String EXTRA_EMOJIS = "emojis";
+    static final String EXTRA_STICKERS = "stickers";
+
+    /**
+     * The current catalog. Readers only ever get the reference; a new catalog is built next to it
+     * and swapped in, so binder threads do not block on reloads.
+     */
+    private final AtomicReference<StickerPackCatalog> stickerPackCatalog = new AtomicReference<>();
+    private final Object stickerPackCatalogLock = new Object();
+    // Guarded by stickerPackCatalogLock.
+    private ContentFileStamp contentFileStamp;
+    private ContentFileStamp journalStamp;
+
+    private final ExecutorService backgroundExecutor = Executors.newSingleThreadExecutor();
+    private ContentDirectoryObserver contentDirectoryObserver;
+    private StickerPackArchiveImporter stickerPackArchiveImporter;
+    private StickerImageTranscoder stickerImageTranscoder;
+    // Null for asset and sharded contents, which have no single contents file to journal.
+    @Nullable
+    private StickerPackJournal stickerPackJournal;
+    private final AtomicBoolean journalCompactionScheduled = new AtomicBoolean();
+
+    // Serializes provider writes, so every write edits the catalog the previous one produced.
+    private final Object stickerPackWriteLock = new Object();
+    // The editor of the batch applyBatch is running on this thread, if any.
+    private final ThreadLocal<StickerPackEditor> batchEditor = new ThreadLocal<>();
 
     @Override
     public boolean onCreate() {
@@ -105,6 +202,14 @@ public class StickerContentProvider extends ContentProvider {
                     PackageManager.GET_META_DATA);
             final Bundle bundle = ai.metaData;
             nonAssetContentProvider = bundle.getBoolean("NonAssetContentProvider");
+            shardedStickerPackContents = nonAssetContentProvider && bundle.getBoolean("ShardedStickerPackContents");
+            // Lazy loading reads packs out of the binary snapshot, which only exists for a non-asset contents file.
+            lazyStickerPackLoading = nonAssetContentProvider && !shardedStickerPackContents
+                    && bundle.getBoolean("LazyStickerPackLoading");
+            maxResidentStickerPacks = bundle.getInt("MaxResidentStickerPacks", DEFAULT_MAX_RESIDENT_STICKER_PACKS);
+            stickerFileCacheSize = bundle.getInt("StickerFileCacheSize", 0) * 1024;
+            deduplicatedStickerStorage = nonAssetContentProvider && bundle.getBoolean("DeduplicatedStickerStorage");
+            preloadStickerPacks = bundle.getBoolean("PreloadStickerPacks");
         } catch (PackageManager.NameNotFoundException | NullPointerException e) {
             nonAssetContentProvider = false;
         }
@@ -112,6 +217,24 @@ public class StickerContentProvider extends ContentProvider {
         // Set sticker packs path
         contentPath = nonAssetContentProvider ? PathUtils.getDataDirectory(getContext()) + "/" + CONTENT_PATH
                 : "flutter_assets/" + CONTENT_PATH;
+        if (nonAssetContentProvider) {
+            if (!shardedStickerPackContents) {
+                stickerPackJournal = new StickerPackJournal(new File(contentPath + CONTENT_FILE_NAME));
+            }
+            stickerPackArchiveImporter = new StickerPackArchiveImporter(new File(contentPath), stickerPackJournal,
+                    shardedStickerPackContents);
+            stickerPackArchiveImporter.deleteStaleDirectories();
+        }
+        if (deduplicatedStickerStorage) {
+            stickerBlobStore = new StickerBlobStore(new File(contentPath),
+                    Objects.requireNonNull(stickerPackArchiveImporter).getCommitLock());
+        }
+        stickerPackFiles = new StickerPackFiles(contentPath, nonAssetContentProvider ? null : getContext().getAssets(),
+                stickerBlobStore);
+        stickerPackValidator = new StickerPackValidator(stickerPackFiles);
+        if (stickerFileCacheSize > 0) {
+            stickerFileCache = new StickerFileCache(stickerPackFiles, stickerFileCacheSize);
+        }
 
         // The call to get the metadata for the sticker packs.
         MATCHER.addURI(authority, METADATA, METADATA_CODE);
@@ -126,21 +249,96 @@ public class StickerContentProvider extends ContentProvider {
         // Gets the an asset from a sticker pack
         MATCHER.addURI(authority, STICKERS_ASSET + "/*/*", STICKERS_ASSET_CODE);
 
+        // Finds stickers of every pack by emoji, * represents a comma separated list of emojis.
+        MATCHER.addURI(authority, STICKER_SEARCH + "/*", STICKER_SEARCH_CODE);
+
+        if (nonAssetContentProvider) {
+            stickerImageTranscoder = new StickerImageTranscoder(new File(contentPath));
+
+            contentDirectoryObserver = new ContentDirectoryObserver(new File(contentPath), CONTENT_FILE_NAME,
+                    shardedStickerPackContents, new ContentDirectoryObserver.Listener() {
+                        @Override
+                        public void onContentFileChanged() {
+                            reloadStickerPackCatalogInBackground(null);
+                        }
+
+                        @Override
+                        public void onStickerPackChanged(@NonNull final String identifier) {
+                            reloadStickerPackCatalogInBackground(identifier);
+                        }
+                    });
+            contentDirectoryObserver.startWatching();
+        }
+
+        if (preloadStickerPacks) {
+            preloadStickerPackCatalog();
+        }
+
         return true;
     }
 
+    /**
+     * Loads the catalog and builds the emoji index in the background, so WhatsApp's first query
+     * does not parse the contents on its binder thread. A query arriving meanwhile waits on
+     * stickerPackCatalogLock for this load and then uses its catalog. A lazy catalog does not get
+     * its index here, as building it reads every pack of the snapshot, which it only does on a search.
+     */
+    private void preloadStickerPackCatalog() {
+        backgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ProviderStats.beginSection("StickerProvider.preload");
+                try {
+                    final StickerPackCatalog catalog = reloadStickerPackCatalog(null, false);
+                    if (!(catalog instanceof LazyStickerPackCatalog)) {
+                        catalog.getEmojiIndex();
+                    }
+                } catch (RuntimeException e) {
+                    // The first query loads the catalog again and reports the problem to WhatsApp.
+                    Log.e(TAG, "Could not preload the sticker packs", e);
+                } finally {
+                    ProviderStats.endSection();
+                }
+            }
+        });
+    }
+
     @Override
-    public MatrixCursor query(@NonNull final Uri uri, @Nullable final String[] projection, final String selection,
+    public Cursor query(@NonNull final Uri uri, @Nullable final String[] projection, final String selection,
             final String[] selectionArgs, final String sortOrder) {
         final int code = MATCHER.match(uri);
-        if (code == METADATA_CODE) {
-            return getPackForAllStickerPacks(uri);
-        } else if (code == METADATA_CODE_FOR_SINGLE_PACK) {
-            return getCursorForSingleStickerPack(uri);
-        } else if (code == STICKERS_CODE) {
-            return getStickersForAStickerPack(uri);
-        } else {
-            throw new IllegalArgumentException("Unknown URI: " + uri);
+        final long start = System.nanoTime();
+        try {
+            if (code == METADATA_CODE) {
+                ProviderStats.beginSection("StickerProvider.metadata");
+                return getPackForAllStickerPacks(uri);
+            } else if (code == METADATA_CODE_FOR_SINGLE_PACK) {
+                ProviderStats.beginSection("StickerProvider.metadataForPack");
+                return getCursorForSingleStickerPack(uri);
+            } else if (code == STICKERS_CODE) {
+                ProviderStats.beginSection("StickerProvider.stickers");
+                return getStickersForAStickerPack(uri);
+            } else if (code == STICKER_SEARCH_CODE) {
+                ProviderStats.beginSection("StickerProvider.search");
+                return getStickersForEmojis(uri);
+            } else {
+                throw new IllegalArgumentException("Unknown URI: " + uri);
+            }
+        } finally {
+            if (code == METADATA_CODE || code == METADATA_CODE_FOR_SINGLE_PACK || code == STICKERS_CODE
+                    || code == STICKER_SEARCH_CODE) {
+                ProviderStats.endSection();
+                final long nanos = System.nanoTime() - start;
+                if (code == METADATA_CODE) {
+                    stats.metadataQueries.record(nanos);
+                } else if (code == METADATA_CODE_FOR_SINGLE_PACK) {
+                    stats.stickerPackQueries.record(nanos);
+                } else if (code == STICKERS_CODE) {
+                    stats.stickersQueries.record(nanos);
+                } else {
+                    stats.stickerSearches.record(nanos);
+                }
+            }
         }
     }
 
@@ -149,7 +347,20 @@ public class StickerContentProvider extends ContentProvider {
     public AssetFileDescriptor openAssetFile(@NonNull final Uri uri, @NonNull final String mode) {
         final int matchCode = MATCHER.match(uri);
         if (matchCode == STICKERS_ASSET_CODE || matchCode == STICKER_PACK_TRAY_ICON_CODE) {
-            return getImageAsset(uri);
+            final long start = System.nanoTime();
+            ProviderStats.beginSection("StickerProvider.file");
+            try {
+                final AssetFileDescriptor fd = getImageAsset(uri);
+                if (fd == null) {
+                    stats.failedFileLookups.incrementAndGet();
+                } else if (fd.getLength() != AssetFileDescriptor.UNKNOWN_LENGTH) {
+                    stats.bytesServed.addAndGet(fd.getLength());
+                }
+                return fd;
+            } finally {
+                ProviderStats.endSection();
+                stats.fileRequests.record(System.nanoTime() - start);
+            }
         }
         return null;
     }
@@ -170,6 +381,9 @@ public class StickerContentProvider extends ContentProvider {
             case STICKERS_CODE:
                 return "vnd.android.cursor.dir/vnd." + WhatsAppStickersPlugin.getContentProviderAuthority(context) + "."
                         + STICKERS;
+            case STICKER_SEARCH_CODE:
+                return "vnd.android.cursor.dir/vnd." + WhatsAppStickersPlugin.getContentProviderAuthority(context) + "."
+                        + STICKER_SEARCH;
             case STICKERS_ASSET_CODE:
                 final List<String> pathSegments = uri.getPathSegments();
 
@@ -186,91 +400,289 @@ public class StickerContentProvider extends ContentProvider {
         }
     }
 
-    private synchronized void readContentFile(@NonNull final Context context) {
-        if (nonAssetContentProvider) {
-            final File file = new File(contentPath + CONTENT_FILE_NAME);
-            try (InputStream contentsInputStream = new FileInputStream(file)) {
-                stickerPackList = ContentFileParser.parseStickerPacks(contentsInputStream);
-            } catch (IOException | IllegalStateException e) {
-                throw new RuntimeException(CONTENT_FILE_NAME + " file has some issues: " + e.getMessage(), e);
+    /**
+     * Builds the catalog from the contents on disk and publishes it. Unchanged contents are not read again
+     * unless {@code force} is set.
+     *
+     * @param identifier with sharded contents, only the manifest of this pack is checked. Null checks everything.
+     */
+    @NonNull
+    private StickerPackCatalog reloadStickerPackCatalog(@Nullable final String identifier, final boolean force) {
+        ProviderStats.beginSection("StickerProvider.reload");
+        try {
+            return loadStickerPackCatalog(identifier, force);
+        } finally {
+            ProviderStats.endSection();
+        }
+    }
+
+    @NonNull
+    private StickerPackCatalog loadStickerPackCatalog(@Nullable final String identifier, final boolean force) {
+        synchronized (stickerPackCatalogLock) {
+            final long start = System.nanoTime();
+            final StickerPackCatalog current = stickerPackCatalog.get();
+            final StickerPackCatalog catalog;
+            if (shardedStickerPackContents) {
+                catalog = loadShardedCatalog(current, identifier, force);
+            } else if (nonAssetContentProvider) {
+                final File file = new File(contentPath + CONTENT_FILE_NAME);
+                final StickerPackJournal journal = Objects.requireNonNull(stickerPackJournal);
+                // The stamps are taken before reading, so a write racing with the parse is picked up by the next reload.
+                final ContentFileStamp stamp = ContentFileStamp.of(file);
+                final ContentFileStamp newJournalStamp = ContentFileStamp.of(journal.getFile());
+                if (current != null && !force && stamp.equals(contentFileStamp) && newJournalStamp.equals(journalStamp)) {
+                    return current;
+                }
+                try {
+                    if (journal.hasRecords()) {
+                        catalog = loadJournaledCatalog(journal);
+                    } else {
+                        catalog = lazyStickerPackLoading ? loadLazyCatalog(file, stamp) : loadResidentCatalog(file, stamp);
+                    }
+                    contentFileStamp = stamp;
+                    journalStamp = newJournalStamp;
+                } catch (IOException | IllegalStateException e) {
+                    throw new RuntimeException(CONTENT_FILE_NAME + " file has some issues: " + e.getMessage(), e);
+                }
+            } else {
+                if (current != null && !force) {
+                    return current;
+                }
+                final Context context = Objects.requireNonNull(getContext());
+                try (InputStream contentsInputStream = context.getAssets().open(contentPath + CONTENT_FILE_NAME)) {
+                    final List<StickerPack> stickerPacks = ContentFileParser.parseStickerPacks(contentsInputStream);
+                    stickerPackFiles.measure(stickerPacks);
+                    catalog = new ResidentStickerPackCatalog(stickerPacks);
+                } catch (IOException | IllegalStateException e) {
+                    throw new RuntimeException(CONTENT_FILE_NAME + " file has some issues: " + e.getMessage(), e);
+                }
             }
-        } else {
-            try (InputStream contentsInputStream = context.getAssets().open(contentPath + CONTENT_FILE_NAME)) {
-                stickerPackList = ContentFileParser.parseStickerPacks(contentsInputStream);
-            } catch (IOException | IllegalStateException e) {
-                throw new RuntimeException(CONTENT_FILE_NAME + " file has some issues: " + e.getMessage(), e);
+            if (catalog != current) {
+                stats.manifestParses.record(System.nanoTime() - start);
             }
+            publishStickerPackCatalog(current, catalog);
+            return catalog;
         }
     }
 
-    private List<StickerPack> getStickerPackList() {
-        if (stickerPackList == null || nonAssetContentProvider) {
-            readContentFile(Objects.requireNonNull(getContext()));
+    // Called with stickerPackCatalogLock held.
+    private void publishStickerPackCatalog(@Nullable final StickerPackCatalog current,
+            @NonNull final StickerPackCatalog catalog) {
+        if (catalog != current && stickerFileCache != null) {
+            stickerFileCache.clear();
+        }
+        if (catalog != current && current != null) {
+            catalog.inheritEmojiIndex(current);
         }
-        return stickerPackList;
+        stickerPackCatalog.set(catalog);
     }
 
-    private MatrixCursor getPackForAllStickerPacks(@NonNull final Uri uri) {
-        return getStickerPackInfo(uri, getStickerPackList());
+    @NonNull
+    private StickerPackCatalog loadShardedCatalog(@Nullable final StickerPackCatalog current,
+            @Nullable final String identifier, final boolean force) {
+        try {
+            if (!(current instanceof ShardedStickerPackCatalog)) {
+                return ShardedStickerPackCatalog.load(new File(contentPath), new File(contentPath + CONTENT_FILE_NAME),
+                        stickerPackFiles);
+            } else if (identifier != null) {
+                return ((ShardedStickerPackCatalog) current).refreshShard(identifier, force);
+            } else {
+                return ((ShardedStickerPackCatalog) current).refresh();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(CONTENT_FILE_NAME + " file has some issues: " + e.getMessage(), e);
+        }
     }
 
-    private MatrixCursor getCursorForSingleStickerPack(@NonNull final Uri uri) {
-        final String identifier = uri.getLastPathSegment();
-        for (final StickerPack stickerPack : getStickerPackList()) {
-            if (identifier.equals(stickerPack.identifier)) {
-                return getStickerPackInfo(uri, Collections.singletonList(stickerPack));
+    /**
+     * Called for file system events. The reload runs on the background executor and the catalog
+     * is swapped once it is built, readers keep using the previous catalog meanwhile.
+     */
+    private void reloadStickerPackCatalogInBackground(@Nullable final String identifier) {
+        backgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    reloadStickerPackCatalog(identifier, false);
+                } catch (RuntimeException e) {
+                    // Keep serving the previous catalog until the contents are fixed.
+                    Log.e(TAG, "Could not reload the sticker packs", e);
+                }
             }
+        });
+    }
+
+    @NonNull
+    private StickerPackCatalog getStickerPackCatalog() {
+        final StickerPackCatalog catalog = stickerPackCatalog.get();
+        return catalog != null ? catalog : reloadStickerPackCatalog(null, false);
+    }
+
+    @Nullable
+    private StickerPack getStickerPack(@Nullable final String identifier) {
+        return getStickerPackCatalog().getStickerPack(identifier);
+    }
+
+    @NonNull
+    private StickerPackCatalog loadResidentCatalog(@NonNull final File file, @NonNull final ContentFileStamp stamp)
+            throws IOException {
+        final File snapshotFile = getSnapshotFile();
+        final StickerPackSnapshot snapshot = openSnapshot(snapshotFile, stamp);
+        final List<StickerPack> stickerPacks;
+        if (snapshot != null) {
+            stickerPacks = snapshot.readStickerPacks();
+        } else {
+            stickerPacks = parseContentFile(file);
+            writeSnapshot(snapshotFile, stamp, stickerPacks);
         }
+        stickerPackFiles.measure(stickerPacks);
+        return new ResidentStickerPackCatalog(stickerPacks);
+    }
 
-        return getStickerPackInfo(uri, new ArrayList<StickerPack>());
+    /**
+     * The lazy catalog reads packs out of the snapshot, so a missing or stale snapshot is written
+     * before the catalog is returned.
+     */
+    @NonNull
+    private StickerPackCatalog loadLazyCatalog(@NonNull final File file, @NonNull final ContentFileStamp stamp)
+            throws IOException {
+        final File snapshotFile = getSnapshotFile();
+        StickerPackSnapshot snapshot = openSnapshot(snapshotFile, stamp);
+        if (snapshot == null) {
+            final List<StickerPack> stickerPacks = parseContentFile(file);
+            StickerPackSnapshot.write(snapshotFile, stamp, stickerPacks);
+            snapshot = StickerPackSnapshot.open(snapshotFile, stamp);
+            if (snapshot == null) {
+                stickerPackFiles.measure(stickerPacks);
+                return new ResidentStickerPackCatalog(stickerPacks);
+            }
+        }
+        return new LazyStickerPackCatalog(snapshot, stickerPackFiles, maxResidentStickerPacks);
     }
 
+    /**
+     * Until the journal is compacted there is no snapshot of the current contents, so the packs are
+     * always kept resident.
+     */
     @NonNull
-    private MatrixCursor getStickerPackInfo(@NonNull final Uri uri, @NonNull final List<StickerPack> stickerPackList) {
-        final MatrixCursor cursor = new MatrixCursor(new String[] { STICKER_PACK_IDENTIFIER_IN_QUERY,
-                STICKER_PACK_NAME_IN_QUERY, STICKER_PACK_PUBLISHER_IN_QUERY, STICKER_PACK_ICON_IN_QUERY,
-                ANDROID_APP_DOWNLOAD_LINK_IN_QUERY, IOS_APP_DOWNLOAD_LINK_IN_QUERY, PUBLISHER_EMAIL, PUBLISHER_WEBSITE,
-                PRIVACY_POLICY_WEBSITE, LICENSE_AGREEMENT_WEBSITE, IMAGE_DATA_VERSION, AVOID_CACHE, ANIMATED_STICKER_PACK, });
-
-        for (final StickerPack stickerPack : stickerPackList) {
-            final MatrixCursor.RowBuilder builder = cursor.newRow();
-            builder.add(stickerPack.identifier);
-            builder.add(stickerPack.name);
-            builder.add(stickerPack.publisher);
-            builder.add(stickerPack.trayImageFile);
-            builder.add(stickerPack.androidPlayStoreLink);
-            builder.add(stickerPack.iosAppStoreLink);
-            builder.add(stickerPack.publisherEmail);
-            builder.add(stickerPack.publisherWebsite);
-            builder.add(stickerPack.privacyPolicyWebsite);
-            builder.add(stickerPack.licenseAgreementWebsite);
-            builder.add(stickerPack.imageDataVersion);
-            builder.add(stickerPack.avoidCache ? 1 : 0);
-            builder.add(stickerPack.animatedStickerPack ? 1 : 0);
+    private StickerPackCatalog loadJournaledCatalog(@NonNull final StickerPackJournal journal) throws IOException {
+        final List<StickerPack> stickerPacks = journal.read().stickerPacks;
+        if (stickerPacks.isEmpty()) {
+            throw new IllegalStateException("sticker pack list cannot be empty");
         }
+        stickerPackFiles.measure(stickerPacks);
+        return new ResidentStickerPackCatalog(stickerPacks);
+    }
 
-        cursor.setNotificationUri(Objects.requireNonNull(getContext()).getContentResolver(), uri);
-        return cursor;
+    @NonNull
+    private static List<StickerPack> parseContentFile(@NonNull final File file) throws IOException {
+        try (InputStream contentsInputStream = new FileInputStream(file)) {
+            return ContentFileParser.parseStickerPacks(contentsInputStream);
+        }
     }
 
     @NonNull
-    private MatrixCursor getStickersForAStickerPack(@NonNull final Uri uri) {
-        final String identifier = uri.getLastPathSegment();
-        final MatrixCursor cursor = new MatrixCursor(
-                new String[] { STICKER_FILE_NAME_IN_QUERY, STICKER_FILE_EMOJI_IN_QUERY });
-
-        for (final StickerPack stickerPack : getStickerPackList()) {
-            if (identifier.equals(stickerPack.identifier)) {
-                for (final Sticker sticker : stickerPack.getStickers()) {
-                    cursor.addRow(new Object[] { sticker.imageFileName, TextUtils.join(",", sticker.emojis) });
+    private File getSnapshotFile() {
+        return new File(contentPath + CONTENT_FILE_NAME + StickerPackSnapshot.FILE_SUFFIX);
+    }
+
+    @Nullable
+    private StickerPackSnapshot openSnapshot(@NonNull final File snapshotFile, @NonNull final ContentFileStamp stamp) {
+        try {
+            return StickerPackSnapshot.open(snapshotFile, stamp);
+        } catch (final IOException e) {
+            Log.w(TAG, "Could not read sticker pack snapshot, falling back to " + CONTENT_FILE_NAME, e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes the binary snapshot of the parsed packs in the background, so the next cold start can
+     * skip parsing {@link #CONTENT_FILE_NAME}.
+     */
+    private void writeSnapshot(@NonNull final File snapshotFile, @NonNull final ContentFileStamp stamp,
+            @NonNull final List<StickerPack> stickerPacks) {
+        backgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    StickerPackSnapshot.write(snapshotFile, stamp, stickerPacks);
+                } catch (final IOException e) {
+                    Log.w(TAG, "Could not write sticker pack snapshot", e);
                 }
             }
+        });
+    }
+
+    /**
+     * Reads the contents again right away, without waiting for the file observer. With sharded
+     * contents and a known identifier, only that pack's manifest is read again.
+     */
+    private void invalidateStickerPackList(@Nullable final String identifier) {
+        // The app may have replaced sticker files without changing image_data_version.
+        stickerPackValidator.clear();
+        if (stickerFileCache != null) {
+            stickerFileCache.clear();
+        }
+        try {
+            reloadStickerPackCatalog(identifier, true);
+        } catch (RuntimeException e) {
+            // Let the next query report the broken contents.
+            Log.e(TAG, "Could not reload the sticker packs", e);
+            synchronized (stickerPackCatalogLock) {
+                stickerPackCatalog.set(null);
+                contentFileStamp = null;
+                journalStamp = null;
+            }
         }
+    }
 
+    private Cursor getPackForAllStickerPacks(@NonNull final Uri uri) {
+        return getCursor(uri, STICKER_PACK_INFO_COLUMNS, StickerPackCursorRows.metadataRows(getStickerPackCatalog()));
+    }
+
+    private Cursor getCursorForSingleStickerPack(@NonNull final Uri uri) {
+        final StickerPack stickerPack = getStickerPack(uri.getLastPathSegment());
+        return getCursor(uri, STICKER_PACK_INFO_COLUMNS, StickerPackCursorRows.metadataRows(stickerPack != null
+                ? Collections.singletonList(stickerPack) : Collections.<StickerPack>emptyList()));
+    }
+
+    @NonNull
+    private Cursor getStickersForAStickerPack(@NonNull final Uri uri) {
+        final StickerPackCatalog catalog = getStickerPackCatalog();
+        return getCursor(uri, STICKER_COLUMNS,
+                StickerPackCursorRows.stickerRows(catalog, catalog.getStickerPack(uri.getLastPathSegment())));
+    }
+
+    /**
+     * The cursor reads the catalog it was created with, so a reload while it is read does not mix
+     * rows of two catalogs.
+     */
+    @NonNull
+    private Cursor getCursor(@NonNull final Uri uri, @NonNull final String[] columns,
+            @NonNull final StickerPackCursor.Rows rows) {
+        final StickerPackCursor cursor = new StickerPackCursor(columns, rows);
         cursor.setNotificationUri(Objects.requireNonNull(getContext()).getContentResolver(), uri);
         return cursor;
     }
 
+    /**
+     * content://authority/sticker_search/emojis?limit=n, with the best matches first.
+     */
+    @NonNull
+    private Cursor getStickersForEmojis(@NonNull final Uri uri) {
+        final String limit = uri.getQueryParameter(STICKER_SEARCH_LIMIT);
+        final StickerPackCatalog catalog = getStickerPackCatalog();
+        final List<StickerEmojiIndex.Match> matches;
+        try {
+            matches = catalog.getEmojiIndex().find(
+                    Arrays.asList(uri.getLastPathSegment().split(",")), limit != null ? Integer.parseInt(limit) : 0);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("limit should be a number, uri is: " + uri, e);
+        }
+        return getCursor(uri, STICKER_SEARCH_COLUMNS, StickerPackCursorRows.searchRows(catalog, matches));
+    }
+
     private AssetFileDescriptor getImageAsset(final Uri uri) throws IllegalArgumentException {
         final AssetManager am = Objects.requireNonNull(getContext()).getAssets();
         final List<String> pathSegments = uri.getPathSegments();
@@ -291,22 +703,56 @@ public class StickerContentProvider extends ContentProvider {
         }
 
         // making sure the file that is trying to be fetched is in the list of stickers.
-        for (final StickerPack stickerPack : getStickerPackList()) {
-            if (identifier.equals(stickerPack.identifier)) {
-                if (fileName.equals(stickerPack.trayImageFile)) {
-                    return fetchFile(uri, am, fileName, identifier);
-                } else {
-                    for (final Sticker sticker : stickerPack.getStickers()) {
-                        if (fileName.equals(sticker.imageFileName)) {
-                            return fetchFile(uri, am, fileName, identifier);
-                        }
-                    }
+        final StickerPack stickerPack = getStickerPack(identifier);
+        if (stickerPack != null && stickerPack.containsFile(fileName)) {
+            if (stickerFileCache != null) {
+                byte[] bytes = stickerFileCache.get(stickerPack, fileName);
+                if (bytes != null) {
+                    stats.cacheHits.incrementAndGet();
+                    return fetchCachedFile(uri, bytes);
+                }
+                stats.cacheMisses.incrementAndGet();
+                bytes = stickerFileCache.load(stickerPack, fileName, getFileSize(stickerPack, fileName));
+                if (bytes != null) {
+                    return fetchCachedFile(uri, bytes);
                 }
             }
+            return fetchFile(uri, am, fileName, identifier);
         }
         return null;
     }
 
+    private static long getFileSize(@NonNull final StickerPack stickerPack, @NonNull final String fileName) {
+        final Sticker sticker = stickerPack.getSticker(fileName);
+        return sticker != null ? sticker.size : stickerPack.getTrayImageSize();
+    }
+
+    /**
+     * Streams cached bytes to the caller through a pipe, the write happens on a background thread.
+     */
+    private AssetFileDescriptor fetchCachedFile(@NonNull final Uri uri, @NonNull final byte[] bytes) {
+        try {
+            final ParcelFileDescriptor fd = openPipeHelper(uri, getType(uri), null, bytes,
+                    new PipeDataWriter<byte[]>() {
+                        @Override
+                        public void writeDataToPipe(@NonNull final ParcelFileDescriptor output, @NonNull final Uri uri,
+                                @NonNull final String mimeType, @Nullable final Bundle opts, @Nullable final byte[] data) {
+                            try (OutputStream outputStream = new ParcelFileDescriptor.AutoCloseOutputStream(output)) {
+                                outputStream.write(Objects.requireNonNull(data));
+                            } catch (final IOException e) {
+                                // The reader went away before reading everything, nothing to clean up.
+                                Log.w(TAG, "Could not write cached file, uri: " + uri, e);
+                            }
+                        }
+                    });
+            return new AssetFileDescriptor(fd, 0, bytes.length);
+        } catch (final IOException e) {
+            Log.e(Objects.requireNonNull(getContext()).getPackageName(),
+                    "IOException when getting cached file, uri:" + uri, e);
+            return null;
+        }
+    }
+
     private AssetFileDescriptor fetchFile(@NonNull final Uri uri, @NonNull final AssetManager am,
             @NonNull final String fileName, @NonNull final String identifier) {
         return nonAssetContentProvider ? fetchNonAssetFile(uri, fileName, identifier)
@@ -315,9 +761,10 @@ public class StickerContentProvider extends ContentProvider {
 
     private AssetFileDescriptor fetchNonAssetFile(final Uri uri, final String fileName, final String identifier) {
         try {
-            final File file = new File(contentPath + identifier, fileName);
-            return new AssetFileDescriptor(ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY), 0,
-                    AssetFileDescriptor.UNKNOWN_LENGTH);
+            final File file = stickerPackFiles.getFile(identifier, fileName);
+            final ParcelFileDescriptor fd = ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+            // Take the length from the opened file, so it is exact even if the file changed since the catalog loaded.
+            return new AssetFileDescriptor(fd, 0, fd.getStatSize());
         } catch (final IOException e) {
             Log.e(Objects.requireNonNull(getContext()).getPackageName(),
                     "IOException when getting asset file, uri:" + uri, e);
@@ -336,25 +783,593 @@ public class StickerContentProvider extends ContentProvider {
         }
     }
 
+    @Override
+    public void onTrimMemory(final int level) {
+        super.onTrimMemory(level);
+        final StickerPackCatalog catalog = stickerPackCatalog.get();
+        if (catalog != null) {
+            catalog.trimMemory();
+        }
+        if (stickerFileCache != null) {
+            stickerFileCache.clear();
+        }
+    }
+
     @Override
     public boolean refresh(final Uri uri, final Bundle args, final CancellationSignal cancellationSignal) {
         return true;
     }
 
+    @Nullable
     @Override
-    public int delete(@NonNull final Uri uri, @NonNull final String selection, final String[] selectionArgs) {
-        throw new UnsupportedOperationException("Not supported");
+    public Bundle call(@NonNull final String method, @Nullable final String arg, @Nullable final Bundle extras) {
+        // The provider is exported for WhatsApp, these methods are only meant for the app itself.
+        enforceCallingSelf("call");
+        if (METHOD_INVALIDATE.equals(method)) {
+            invalidateStickerPackList(arg);
+            if (arg != null) {
+                // Ingested after the reload, so the files the pack lists now are the ones that are kept.
+                ingestStickerFiles(Collections.singletonList(arg));
+            }
+            return null;
+        } else if (METHOD_GET_STICKER_PACK_SIZES.equals(method)) {
+            return getStickerPackSizes(arg);
+        } else if (METHOD_VALIDATE_STICKER_PACK.equals(method)) {
+            return validateStickerPack(Objects.requireNonNull(arg, "identifier"));
+        } else if (METHOD_UPSERT_STICKER_PACK.equals(method)) {
+            upsertStickerPack(Objects.requireNonNull(arg, "sticker pack"));
+            return null;
+        } else if (METHOD_REMOVE_STICKER_PACK.equals(method)) {
+            removeStickerPack(Objects.requireNonNull(arg, "identifier"));
+            return null;
+        } else if (METHOD_IMPORT_STICKER_PACK_ARCHIVES.equals(method)) {
+            return importStickerPackArchives(Objects.requireNonNull(extras, "extras"));
+        } else if (METHOD_GET_STICKER_PACKS.equals(method)) {
+            return getStickerPacks(extras != null ? extras : new Bundle());
+        } else if (METHOD_FIND_STICKERS_BY_EMOJI.equals(method)) {
+            return findStickersByEmoji(Objects.requireNonNull(extras, "extras"));
+        } else if (METHOD_GET_PROVIDER_STATS.equals(method)) {
+            final Bundle result = new Bundle();
+            result.putSerializable(EXTRA_PROVIDER_STATS, stats.snapshot());
+            return result;
+        } else if (METHOD_CREATE_STICKERS_FROM_IMAGES.equals(method)) {
+            return createStickersFromImages(Objects.requireNonNull(arg, "identifier"), Objects.requireNonNull(extras, "extras"));
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Returns the size in bytes of the stickers and tray image of every pack, or of the pack
+     * with the given identifier.
+     */
+    @NonNull
+    private Bundle getStickerPackSizes(@Nullable final String identifier) {
+        final StickerPackCatalog catalog = getStickerPackCatalog();
+        final List<StickerPack> stickerPacks;
+        if (identifier != null) {
+            final StickerPack stickerPack = catalog.getStickerPack(identifier);
+            stickerPacks = stickerPack != null ? Collections.singletonList(stickerPack) : Collections.<StickerPack>emptyList();
+        } else {
+            stickerPacks = catalog.getStickerPacks();
+        }
+        final HashMap<String, Long> sizes = new HashMap<>();
+        for (final StickerPack stickerPack : stickerPacks) {
+            sizes.put(stickerPack.identifier, stickerPack.getTotalSize() + stickerPack.getTrayImageSize());
+        }
+        final Bundle result = new Bundle();
+        result.putSerializable(EXTRA_STICKER_PACK_SIZES, sizes);
+        return result;
     }
 
+    /**
+     * Exports a page of the catalog, with the selected fields only.
+     */
+    @NonNull
+    private Bundle getStickerPacks(@NonNull final Bundle extras) {
+        final int offset = extras.getInt(EXTRA_OFFSET, 0);
+        final int limit = extras.getInt(EXTRA_LIMIT, 0);
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("offset and limit should not be negative");
+        }
+        final Bundle result = new Bundle();
+        final StickerPackCatalog catalog;
+        try {
+            catalog = getStickerPackCatalog();
+        } catch (RuntimeException e) {
+            // WhatsApp is refused a contents file without packs, the app gets an empty page of it.
+            if (!hasNoStickerPacks()) {
+                throw e;
+            }
+            result.putSerializable(EXTRA_STICKER_PACKS, new ArrayList<HashMap<String, Object>>());
+            result.putInt(EXTRA_STICKER_PACK_COUNT, 0);
+            return result;
+        }
+        final List<StickerPack> stickerPacks = catalog.getStickerPacks(offset, limit > 0 ? limit : Integer.MAX_VALUE);
+        result.putSerializable(EXTRA_STICKER_PACKS,
+                StickerPackExporter.export(stickerPacks, extras.getStringArrayList(EXTRA_FIELDS)));
+        result.putInt(EXTRA_STICKER_PACK_COUNT, catalog.getStickerPackCount());
+        return result;
+    }
+
+    /**
+     * Whether the contents file on disk, with its journal, is readable and lists no packs, like the
+     * one an app writes before it adds its first pack.
+     */
+    private boolean hasNoStickerPacks() {
+        if (!nonAssetContentProvider || shardedStickerPackContents) {
+            return false;
+        }
+        try {
+            return Objects.requireNonNull(stickerPackJournal).read().stickerPacks.isEmpty();
+        } catch (IOException | IllegalStateException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Searches the emoji index of the catalog, like the sticker_search URI.
+     */
+    @NonNull
+    private Bundle findStickersByEmoji(@NonNull final Bundle extras) {
+        final List<String> emojis = Objects.requireNonNull(extras.getStringArrayList(EXTRA_EMOJIS), "emojis");
+        final int limit = extras.getInt(EXTRA_LIMIT, 0);
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit should not be negative");
+        }
+        final long start = System.nanoTime();
+        ProviderStats.beginSection("StickerProvider.search");
+        try {
+            final Bundle result = new Bundle();
+            final StickerPackCatalog catalog = getStickerPackCatalog();
+            result.putSerializable(EXTRA_STICKERS,
+                    StickerPackExporter.exportMatches(catalog, catalog.getEmojiIndex().find(emojis, limit)));
+            return result;
+        } finally {
+            ProviderStats.endSection();
+            stats.stickerSearches.record(System.nanoTime() - start);
+        }
+    }
+
+    @NonNull
+    private Bundle validateStickerPack(@NonNull final String identifier) {
+        final StickerPack stickerPack = getStickerPackCatalog().getStickerPack(identifier);
+        final StickerPackValidator.Report report = stickerPack != null ? stickerPackValidator.validate(stickerPack)
+                : new StickerPackValidator.Report(identifier, null,
+                        Collections.singletonList("there is no sticker pack with identifier " + identifier));
+        final Bundle result = new Bundle();
+        result.putSerializable(EXTRA_VALIDATION_REPORT, report.toMap());
+        return result;
+    }
+
+    /**
+     * Imports sticker pack archives given as file paths and/or bytes, then reloads the catalog and
+     * notifies observers once for all of them.
+     */
+    @NonNull
+    private Bundle importStickerPackArchives(@NonNull final Bundle extras) {
+        if (stickerPackArchiveImporter == null) {
+            throw new IllegalStateException("sticker pack archives can only be imported with NonAssetContentProvider");
+        }
+        final List<StickerPackArchiveImporter.Archive> archives = new ArrayList<>();
+        final List<String> paths = extras.getStringArrayList(EXTRA_ARCHIVE_PATHS);
+        if (paths != null) {
+            for (final String path : paths) {
+                archives.add(StickerPackArchiveImporter.Archive.of(new File(path)));
+            }
+        }
+        @SuppressWarnings("unchecked")
+        final List<byte[]> archiveBytes = (List<byte[]>) extras.getSerializable(EXTRA_ARCHIVE_BYTES);
+        if (archiveBytes != null) {
+            for (final byte[] bytes : archiveBytes) {
+                archives.add(StickerPackArchiveImporter.Archive.of(bytes));
+            }
+        }
+
+        final List<String> imported;
+        final long start = System.nanoTime();
+        ProviderStats.beginSection("StickerProvider.import");
+        try {
+            imported = stickerPackArchiveImporter.importArchives(archives);
+        } catch (final IOException e) {
+            throw new RuntimeException("Could not import sticker pack archives: " + e.getMessage(), e);
+        } finally {
+            ProviderStats.endSection();
+            stats.imports.record(System.nanoTime() - start);
+        }
+        invalidateStickerPackList(null);
+        ingestStickerFiles(imported);
+        final Context context = Objects.requireNonNull(getContext());
+        context.getContentResolver().notifyChange(
+                Uri.parse("content://" + WhatsAppStickersPlugin.getContentProviderAuthority(context) + "/" + METADATA),
+                null);
+
+        final Bundle result = new Bundle();
+        result.putStringArrayList(EXTRA_IMPORTED_STICKER_PACKS, new ArrayList<>(imported));
+        return result;
+    }
+
+    /**
+     * Converts PNG and JPEG images into sticker files and optionally a tray image file in the
+     * directory of a pack. The pack itself is not changed, the caller adds the files to it.
+     */
+    @NonNull
+    private Bundle createStickersFromImages(@NonNull final String identifier, @NonNull final Bundle extras) {
+        if (stickerImageTranscoder == null) {
+            throw new IllegalStateException("stickers can only be created with NonAssetContentProvider");
+        }
+        final List<StickerImageTranscoder.Conversion> conversions = new ArrayList<>();
+        final List<String> imagePaths = extras.getStringArrayList(EXTRA_IMAGE_PATHS);
+        if (imagePaths != null) {
+            for (final String imagePath : imagePaths) {
+                conversions.add(new StickerImageTranscoder.Conversion(new File(imagePath), false));
+            }
+        }
+        final String trayImagePath = extras.getString(EXTRA_TRAY_IMAGE_PATH);
+        if (trayImagePath != null) {
+            conversions.add(new StickerImageTranscoder.Conversion(new File(trayImagePath), true));
+        }
+
+        final List<String> fileNames;
+        try {
+            fileNames = stickerImageTranscoder.transcode(identifier, conversions);
+        } catch (final IOException e) {
+            throw new RuntimeException("Could not create stickers: " + e.getMessage(), e);
+        }
+        ingestStickerFiles(Collections.singletonList(identifier));
+        // Files of the pack may have been replaced in place.
+        stickerPackValidator.clear();
+        if (stickerFileCache != null) {
+            stickerFileCache.clear();
+        }
+
+        final Bundle result = new Bundle();
+        if (trayImagePath != null) {
+            result.putString(EXTRA_TRAY_IMAGE_FILE_NAME, fileNames.remove(fileNames.size() - 1));
+        }
+        result.putStringArrayList(EXTRA_STICKER_FILE_NAMES, new ArrayList<>(fileNames));
+        return result;
+    }
+
+    /**
+     * Moves the sticker files of packs of the current catalog into the blob store, see
+     * {@link #ingestStickerPackFiles(Collection)}.
+     */
+    private void ingestStickerFiles(@NonNull final List<String> identifiers) {
+        final StickerPackCatalog catalog = stickerPackCatalog.get();
+        if (stickerBlobStore == null || catalog == null) {
+            return;
+        }
+        final List<StickerPack> stickerPacks = new ArrayList<>(identifiers.size());
+        for (final String identifier : identifiers) {
+            final StickerPack stickerPack = catalog.getStickerPack(identifier);
+            if (stickerPack != null) {
+                stickerPacks.add(stickerPack);
+            }
+        }
+        ingestStickerPackFiles(stickerPacks);
+    }
+
+    /**
+     * Moves the sticker files the packs list into the blob store, if the storage is deduplicated.
+     * Files that could not be moved are still served from the pack directories.
+     */
+    private void ingestStickerPackFiles(@NonNull final Collection<StickerPack> stickerPacks) {
+        if (stickerBlobStore == null) {
+            return;
+        }
+        for (final StickerPack stickerPack : stickerPacks) {
+            try {
+                stickerBlobStore.ingest(stickerPack);
+            } catch (final IOException e) {
+                Log.e(TAG, "Could not deduplicate the sticker files of " + stickerPack.identifier, e);
+            }
+        }
+    }
+
+    /**
+     * Adds or replaces a single sticker pack, given as the JSON object of the pack.
+     */
+    private void upsertStickerPack(@NonNull final String stickerPackJson) {
+        final StickerPack stickerPack;
+        try {
+            stickerPack = ContentFileParser.parseStickerPack(new ByteArrayInputStream(stickerPackJson.getBytes("UTF-8")));
+        } catch (final IOException e) {
+            throw new IllegalArgumentException("sticker pack has some issues: " + e.getMessage(), e);
+        }
+        synchronized (stickerPackWriteLock) {
+            writeStickerPacks(Collections.singletonMap(stickerPack.identifier, stickerPack));
+        }
+    }
+
+    /**
+     * Removes a sticker pack from the contents. Its images are left on disk.
+     */
+    private void removeStickerPack(@NonNull final String identifier) {
+        synchronized (stickerPackWriteLock) {
+            writeStickerPacks(Collections.<String, StickerPack>singletonMap(identifier, null));
+        }
+    }
+
+    /**
+     * The one write path for sticker pack changes. Only the changed packs are written: with sharded
+     * contents to their manifests, otherwise to the journal. The catalog is updated in place when
+     * it is resident and up to date, so nothing has to be parsed again, and observers are
+     * notified once.
+     *
+     * @param changes the changed packs by identifier, with null for removed packs.
+     */
+    private void writeStickerPacks(@NonNull final Map<String, StickerPack> changes) {
+        if (!nonAssetContentProvider) {
+            throw new IllegalStateException("sticker packs can only be changed with NonAssetContentProvider");
+        }
+        if (changes.isEmpty()) {
+            return;
+        }
+        final List<StickerPack> upserted = new ArrayList<>(changes.size());
+        for (final StickerPack stickerPack : changes.values()) {
+            if (stickerPack != null) {
+                upserted.add(stickerPack);
+            }
+        }
+        ingestStickerPackFiles(upserted);
+        synchronized (stickerPackCatalogLock) {
+            try {
+                if (shardedStickerPackContents) {
+                    writeStickerPackShards(changes);
+                    for (final String identifier : changes.keySet()) {
+                        reloadStickerPackCatalog(identifier, true);
+                    }
+                } else {
+                    writeStickerPackJournal(changes);
+                }
+            } catch (final IOException e) {
+                throw new RuntimeException("Could not write sticker packs: " + e.getMessage(), e);
+            }
+        }
+        stickerPackValidator.clear();
+
+        final Context context = Objects.requireNonNull(getContext());
+        final String metadataUri = "content://" + WhatsAppStickersPlugin.getContentProviderAuthority(context) + "/"
+                + METADATA;
+        context.getContentResolver().notifyChange(Uri.parse(changes.size() == 1
+                ? metadataUri + "/" + changes.keySet().iterator().next() : metadataUri), null);
+        scheduleJournalCompaction();
+    }
+
+    private void writeStickerPackShards(@NonNull final Map<String, StickerPack> changes) throws IOException {
+        for (final Map.Entry<String, StickerPack> change : changes.entrySet()) {
+            final String identifier = change.getKey();
+            if (identifier.contains("..") || identifier.contains("/")) {
+                throw new IllegalArgumentException("identifier should not contain .. or / to prevent directory traversal");
+            }
+            final File manifest = new File(contentPath + identifier, ShardedStickerPackCatalog.SHARD_FILE_NAME);
+            if (change.getValue() != null) {
+                //noinspection ResultOfMethodCallIgnored
+                manifest.getParentFile().mkdirs();
+                ContentFileWriter.writeStickerPack(manifest, change.getValue());
+            } else if (manifest.exists() && !manifest.delete()) {
+                throw new IOException("could not delete " + manifest);
+            }
+        }
+    }
+
+    // Called with stickerPackCatalogLock held.
+    private void writeStickerPackJournal(@NonNull final Map<String, StickerPack> changes) throws IOException {
+        final StickerPackJournal journal = Objects.requireNonNull(stickerPackJournal);
+        final File file = new File(contentPath + CONTENT_FILE_NAME);
+        final StickerPackCatalog current = stickerPackCatalog.get();
+        final boolean upToDate = current instanceof ResidentStickerPackCatalog
+                && ContentFileStamp.of(file).equals(contentFileStamp)
+                && ContentFileStamp.of(journal.getFile()).equals(journalStamp);
+        journal.write(changes);
+        if (!upToDate) {
+            reloadStickerPackCatalog(null, true);
+            return;
+        }
+        final List<StickerPack> changed = new ArrayList<>(changes.size());
+        for (final StickerPack stickerPack : changes.values()) {
+            if (stickerPack != null) {
+                changed.add(stickerPack);
+            }
+        }
+        stickerPackFiles.measure(changed);
+        journalStamp = ContentFileStamp.of(journal.getFile());
+        publishStickerPackCatalog(current, ((ResidentStickerPackCatalog) current).withChanges(changes));
+    }
+
+    /**
+     * Applies the changes of a provider write to a new editor, or to the editor of the batch
+     * being applied on this thread.
+     */
+    @NonNull
+    private StickerPackEditor beginEdit() {
+        enforceCallingSelf("writing sticker packs");
+        final StickerPackEditor batch = batchEditor.get();
+        return batch != null ? batch : new StickerPackEditor(getEditableStickerPackCatalog());
+    }
+
+    /**
+     * The catalog writes start from. A contents file without packs can not be served, but the first
+     * pack can be added to it.
+     */
+    @NonNull
+    private StickerPackCatalog getEditableStickerPackCatalog() {
+        try {
+            return getStickerPackCatalog();
+        } catch (RuntimeException e) {
+            if (!hasNoStickerPacks()) {
+                throw e;
+            }
+            return new ResidentStickerPackCatalog(Collections.<StickerPack>emptyList());
+        }
+    }
+
+    private void endEdit(@NonNull final StickerPackEditor editor) {
+        if (batchEditor.get() != editor) {
+            commitEdit(editor);
+        }
+    }
+
+    private void commitEdit(@NonNull final StickerPackEditor editor) {
+        if (editor.isEmpty()) {
+            return;
+        }
+        final Map<String, StickerPack> changes;
+        try {
+            changes = editor.build();
+        } catch (final IllegalStateException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+        writeStickerPacks(changes);
+    }
+
+    /**
+     * Folds the journal into the contents file in the background once it grew large enough. Lazy
+     * loading needs a snapshot of the contents file, so there the journal is folded in right away.
+     */
+    private void scheduleJournalCompaction() {
+        final StickerPackJournal journal = stickerPackJournal;
+        if (journal == null || !(lazyStickerPackLoading ? journal.hasRecords() : journal.needsCompaction())
+                || !journalCompactionScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        backgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                journalCompactionScheduled.set(false);
+                try {
+                    journal.compact();
+                } catch (final IOException | IllegalStateException e) {
+                    Log.e(TAG, "Could not compact the sticker pack journal", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Adds a pack through {@code metadata}, or a sticker through {@code stickers/<identifier>}.
+     * Rows use the columns of the query cursors. Only the app itself may write.
+     * <p>
+     * Every write is validated like a pack of the contents file, and a pack needs at least one
+     * sticker. A new pack is therefore inserted in one {@link #applyBatch(ArrayList)} together with
+     * its stickers; inserting it on its own throws {@link IllegalArgumentException}.
+     */
     @Override
     public Uri insert(@NonNull final Uri uri, final ContentValues values) {
-        throw new UnsupportedOperationException("Not supported");
+        synchronized (stickerPackWriteLock) {
+            final StickerPackEditor editor = beginEdit();
+            final Context context = Objects.requireNonNull(getContext());
+            final String authority = WhatsAppStickersPlugin.getContentProviderAuthority(context);
+            final Uri result;
+            switch (MATCHER.match(uri)) {
+                case METADATA_CODE:
+                    result = Uri.parse("content://" + authority + "/" + METADATA + "/"
+                            + Uri.encode(editor.insertStickerPack(values)));
+                    break;
+                case STICKERS_CODE:
+                    final String identifier = uri.getLastPathSegment();
+                    result = Uri.parse("content://" + authority + "/" + STICKERS_ASSET + "/" + Uri.encode(identifier)
+                            + "/" + Uri.encode(editor.insertSticker(identifier, values)));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown URI: " + uri);
+            }
+            endEdit(editor);
+            return result;
+        }
     }
 
+    /**
+     * Changes a pack through {@code metadata/<identifier>}, or the emojis of stickers through
+     * {@code stickers/<identifier>}, optionally selecting one sticker with {@code sticker_file_name = ?}.
+     */
     @Override
     public int update(@NonNull final Uri uri, final ContentValues values, final String selection,
             final String[] selectionArgs) {
-        throw new UnsupportedOperationException("Not supported");
+        synchronized (stickerPackWriteLock) {
+            final StickerPackEditor editor = beginEdit();
+            final int count;
+            switch (MATCHER.match(uri)) {
+                case METADATA_CODE_FOR_SINGLE_PACK:
+                    count = editor.updateStickerPack(uri.getLastPathSegment(), values);
+                    break;
+                case STICKERS_CODE:
+                    count = editor.updateStickers(uri.getLastPathSegment(), values,
+                            getSelectedFileName(selection, selectionArgs));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown URI: " + uri);
+            }
+            endEdit(editor);
+            return count;
+        }
+    }
+
+    /**
+     * Removes a pack through {@code metadata/<identifier>}, or stickers through
+     * {@code stickers/<identifier>}, optionally selecting one sticker with {@code sticker_file_name = ?}.
+     * Removing every sticker of a pack fails, unless the pack is removed in the same batch.
+     */
+    @Override
+    public int delete(@NonNull final Uri uri, @Nullable final String selection, final String[] selectionArgs) {
+        synchronized (stickerPackWriteLock) {
+            final StickerPackEditor editor = beginEdit();
+            final int count;
+            switch (MATCHER.match(uri)) {
+                case METADATA_CODE_FOR_SINGLE_PACK:
+                    count = editor.deleteStickerPack(uri.getLastPathSegment());
+                    break;
+                case STICKERS_CODE:
+                    count = editor.deleteStickers(uri.getLastPathSegment(), getSelectedFileName(selection, selectionArgs));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown URI: " + uri);
+            }
+            endEdit(editor);
+            return count;
+        }
+    }
+
+    /**
+     * Applies the operations as one transaction: the changed packs only have to be valid once
+     * every operation ran, they are written together and observers are notified once.
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull final ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        enforceCallingSelf("writing sticker packs");
+        synchronized (stickerPackWriteLock) {
+            final StickerPackEditor editor = new StickerPackEditor(getEditableStickerPackCatalog());
+            batchEditor.set(editor);
+            final ContentProviderResult[] results;
+            try {
+                results = super.applyBatch(operations);
+            } finally {
+                batchEditor.remove();
+            }
+            commitEdit(editor);
+            return results;
+        }
+    }
+
+    @Nullable
+    private static String getSelectedFileName(@Nullable final String selection, @Nullable final String[] selectionArgs) {
+        if (selection == null) {
+            return null;
+        }
+        if (!selection.replace(" ", "").equals(STICKER_FILE_NAME_IN_QUERY + "=?") || selectionArgs == null
+                || selectionArgs.length != 1) {
+            throw new IllegalArgumentException("only " + STICKER_FILE_NAME_IN_QUERY + " = ? is supported as selection");
+        }
+        return selectionArgs[0];
+    }
+
+    private static void enforceCallingSelf(@NonNull final String action) {
+        // The provider is exported for WhatsApp, which may only read.
+        if (Binder.getCallingUid() != Process.myUid()) {
+            throw new SecurityException(action + " is not allowed from uid " + Binder.getCallingUid());
+        }
     }
 
     public static String convertStreamToString(final InputStream is) throws Exception {
@@ -0,0 +1,272 @@
+package io.github.vincekruger.whatsapp_stickers;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inverted index from emoji to the stickers that have it, across every pack of a catalog.
+ * <p>
+ * The index only keeps postings, the index of a sticker in its pack, and no stickers. Matches are
+ * looked up in the catalog the index was built from.
+ * <p>
+ * Instances are immutable. An index built on top of the index of the previous catalog re-uses the
+ * entries of every pack with the same identifier, image data version and stickers, so a catalog
+ * that changed one pack only costs indexing that pack. This holds for catalogs that materialize a
+ * new pack object on every read, too. Emojis are matched without their variation selector, so the text and
+ * emoji presentation of a symbol find each other.
+ */
+final class StickerEmojiIndex {
+    private static final char VARIATION_SELECTOR = '\uFE0F';
+
+    private final Map<String, PackEntry> packs;
+    private final Map<String, Integer> packOrder;
+    // Emoji key to the identifiers of the packs with a sticker that has the emoji.
+    private final Map<Integer, List<String>> packsByEmoji;
+    private final int indexedPackCount;
+
+    private StickerEmojiIndex(Map<String, PackEntry> packs, Map<String, Integer> packOrder,
+                              Map<Integer, List<String>> packsByEmoji, int indexedPackCount) {
+        this.packs = packs;
+        this.packOrder = packOrder;
+        this.packsByEmoji = packsByEmoji;
+        this.indexedPackCount = indexedPackCount;
+    }
+
+    /**
+     * Indexes the packs, in the order of the catalog. The packs are read once each, in order, and
+     * not kept, so the list may materialize them as they are read.
+     *
+     * @param base the index of the previous catalog, whose unchanged packs are not indexed again.
+     */
+    @NonNull
+    static StickerEmojiIndex build(@NonNull List<StickerPack> stickerPacks, @Nullable StickerEmojiIndex base) {
+        final Map<String, PackEntry> packs = new HashMap<>(stickerPacks.size() * 2);
+        final Map<String, Integer> packOrder = new HashMap<>(stickerPacks.size() * 2);
+        final List<PackEntry> indexed = new ArrayList<>();
+        for (int i = 0; i < stickerPacks.size(); i++) {
+            final StickerPack stickerPack = stickerPacks.get(i);
+            // Keep the first pack for a duplicated identifier, as the catalogs do.
+            if (packs.containsKey(stickerPack.identifier)) {
+                continue;
+            }
+            PackEntry entry = base != null ? base.packs.get(stickerPack.identifier) : null;
+            if (entry == null || !entry.isIndexOf(stickerPack)) {
+                entry = PackEntry.of(stickerPack);
+                indexed.add(entry);
+            }
+            packs.put(stickerPack.identifier, entry);
+            packOrder.put(stickerPack.identifier, i);
+        }
+
+        final Map<Integer, List<String>> packsByEmoji;
+        final Set<Integer> copied = new HashSet<>();
+        if (base == null) {
+            packsByEmoji = new HashMap<>();
+        } else {
+            packsByEmoji = new HashMap<>(base.packsByEmoji);
+            for (PackEntry entry : base.packs.values()) {
+                if (packs.get(entry.identifier) != entry) {
+                    for (Integer emoji : entry.stickersByEmoji.keySet()) {
+                        editableList(packsByEmoji, emoji, copied).remove(entry.identifier);
+                    }
+                }
+            }
+        }
+        for (PackEntry entry : indexed) {
+            for (Integer emoji : entry.stickersByEmoji.keySet()) {
+                editableList(packsByEmoji, emoji, copied).add(entry.identifier);
+            }
+        }
+        for (Integer emoji : copied) {
+            if (packsByEmoji.get(emoji).isEmpty()) {
+                packsByEmoji.remove(emoji);
+            }
+        }
+        return new StickerEmojiIndex(packs, packOrder, packsByEmoji, indexed.size());
+    }
+
+    /**
+     * The number of packs this index did not take from its base.
+     */
+    @VisibleForTesting
+    int getIndexedPackCount() {
+        return indexedPackCount;
+    }
+
+    /**
+     * Lists of the base index are shared, so they are copied the first time the new index changes them.
+     */
+    private static List<String> editableList(Map<Integer, List<String>> packsByEmoji, Integer emoji,
+                                             Set<Integer> copied) {
+        final List<String> identifiers = packsByEmoji.get(emoji);
+        if (copied.add(emoji)) {
+            final List<String> copy = identifiers != null ? new ArrayList<>(identifiers) : new ArrayList<String>(4);
+            packsByEmoji.put(emoji, copy);
+            return copy;
+        }
+        return identifiers;
+    }
+
+    /**
+     * Finds the stickers with any of the emojis. Stickers with more of the emojis come first, then
+     * stickers where a match comes earlier in their emoji list, then the order of the catalog.
+     *
+     * @param limit the most stickers to return, 0 for all of them.
+     */
+    @NonNull
+    List<Match> find(@NonNull List<String> emojis, int limit) {
+        final Set<Integer> keys = new HashSet<>();
+        for (String emoji : emojis) {
+            final int key = EmojiTable.find(key(emoji));
+            if (key >= 0) {
+                keys.add(key);
+            }
+        }
+        final Map<Long, Match> matches = new HashMap<>();
+        for (Integer key : keys) {
+            final List<String> identifiers = packsByEmoji.get(key);
+            if (identifiers == null) {
+                continue;
+            }
+            for (String identifier : identifiers) {
+                final PackEntry entry = packs.get(identifier);
+                final int order = packOrder.get(identifier);
+                for (int posting : entry.stickersByEmoji.get(key)) {
+                    final int stickerIndex = posting >>> 8;
+                    final Long id = ((long) order << 32) | stickerIndex;
+                    Match match = matches.get(id);
+                    if (match == null) {
+                        match = new Match(identifier, order, stickerIndex);
+                        matches.put(id, match);
+                    }
+                    match.add(posting & 0xFF);
+                }
+            }
+        }
+        final List<Match> ranked = new ArrayList<>(matches.values());
+        Collections.sort(ranked, RANKING);
+        return limit > 0 && ranked.size() > limit ? ranked.subList(0, limit) : ranked;
+    }
+
+    private static final Comparator<Match> RANKING = new Comparator<Match>() {
+        @Override
+        public int compare(Match a, Match b) {
+            if (a.matchedEmojis != b.matchedEmojis) {
+                return b.matchedEmojis - a.matchedEmojis;
+            }
+            if (a.firstPosition != b.firstPosition) {
+                return a.firstPosition - b.firstPosition;
+            }
+            if (a.packOrder != b.packOrder) {
+                return a.packOrder - b.packOrder;
+            }
+            return a.stickerIndex - b.stickerIndex;
+        }
+    };
+
+    @NonNull
+    private static String key(@NonNull String emoji) {
+        return emoji.indexOf(VARIATION_SELECTOR) < 0 ? emoji
+                : emoji.replace(String.valueOf(VARIATION_SELECTOR), "");
+    }
+
+    /**
+     * A sticker found by {@link #find(List, int)}, the sticker at {@link #getStickerIndex()} of the
+     * pack with {@link #getIdentifier()} in the catalog of the index.
+     */
+    static final class Match {
+        private final String identifier;
+        private final int packOrder;
+        private final int stickerIndex;
+        private int matchedEmojis;
+        private int firstPosition = Integer.MAX_VALUE;
+
+        private Match(String identifier, int packOrder, int stickerIndex) {
+            this.identifier = identifier;
+            this.packOrder = packOrder;
+            this.stickerIndex = stickerIndex;
+        }
+
+        private void add(int position) {
+            matchedEmojis++;
+            firstPosition = Math.min(firstPosition, position);
+        }
+
+        @NonNull
+        String getIdentifier() {
+            return identifier;
+        }
+
+        int getStickerIndex() {
+            return stickerIndex;
+        }
+    }
+
+    private static final class PackEntry {
+        final String identifier;
+        final String imageDataVersion;
+        final int stickerCount;
+        final int stickersFingerprint;
+        // Emoji key to postings of the sticker index shifted left by 8, or'ed with the emoji's position in the sticker.
+        final Map<Integer, int[]> stickersByEmoji;
+
+        private PackEntry(StickerPack stickerPack, Map<Integer, int[]> stickersByEmoji) {
+            this.identifier = stickerPack.identifier;
+            this.imageDataVersion = stickerPack.imageDataVersion;
+            this.stickerCount = stickerPack.getStickerCount();
+            this.stickersFingerprint = stickerPack.getStickersFingerprint();
+            this.stickersByEmoji = stickersByEmoji;
+        }
+
+        /**
+         * Whether this entry indexes the same stickers as the pack has.
+         */
+        boolean isIndexOf(@NonNull StickerPack stickerPack) {
+            return identifier.equals(stickerPack.identifier)
+                    && (imageDataVersion == null ? stickerPack.imageDataVersion == null
+                    : imageDataVersion.equals(stickerPack.imageDataVersion))
+                    && stickerCount == stickerPack.getStickerCount()
+                    && stickersFingerprint == stickerPack.getStickersFingerprint();
+        }
+
+        @NonNull
+        static PackEntry of(@NonNull StickerPack stickerPack) {
+            final List<Sticker> stickers = stickerPack.getStickers();
+            final Map<Integer, List<Integer>> postings = new HashMap<>();
+            for (int i = 0; i < stickers.size(); i++) {
+                final List<String> emojis = stickers.get(i).emojis;
+                for (int position = 0; position < emojis.size(); position++) {
+                    final Integer key = EmojiTable.intern(key(emojis.get(position)));
+                    List<Integer> stickerPostings = postings.get(key);
+                    if (stickerPostings == null) {
+                        stickerPostings = new ArrayList<>(2);
+                        postings.put(key, stickerPostings);
+                    } else if ((stickerPostings.get(stickerPostings.size() - 1) >>> 8) == i) {
+                        // The same emoji twice in one sticker counts once.
+                        continue;
+                    }
+                    stickerPostings.add((i << 8) | Math.min(position, 0xFF));
+                }
+            }
+            final Map<Integer, int[]> stickersByEmoji = new HashMap<>(postings.size() * 2);
+            for (Map.Entry<Integer, List<Integer>> posting : postings.entrySet()) {
+                final int[] packed = new int[posting.getValue().size()];
+                for (int i = 0; i < packed.length; i++) {
+                    packed[i] = posting.getValue().get(i);
+                }
+                stickersByEmoji.put(posting.getKey(), packed);
+            }
+            return new PackEntry(stickerPack, stickersByEmoji);
+        }
+    }
+}
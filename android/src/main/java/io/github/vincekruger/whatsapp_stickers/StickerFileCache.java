@@ -0,0 +1,107 @@
+package io.github.vincekruger.whatsapp_stickers;
+
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Size bounded LRU of the most recently requested sticker and tray image bytes, so files that
+ * WhatsApp asks for again and again can be streamed from memory instead of being opened again.
+ * <p>
+ * A miss reads the file once, on the thread of the request, and those bytes are both served and
+ * cached.
+ */
+final class StickerFileCache {
+    private static final String TAG = "StickerFileCache";
+
+    private final StickerPackFiles stickerPackFiles;
+    private final int maxEntrySize;
+    private final LruCache<String, byte[]> entries;
+    // Bumped on every clear, so reads that started before a clear do not put stale bytes back.
+    private final AtomicInteger generation = new AtomicInteger();
+
+    /**
+     * @param maxSize the most bytes kept in memory. Files larger than an eighth of it are never cached.
+     */
+    StickerFileCache(@NonNull StickerPackFiles stickerPackFiles, int maxSize) {
+        this.stickerPackFiles = stickerPackFiles;
+        this.maxEntrySize = maxSize / 8;
+        this.entries = new LruCache<String, byte[]>(maxSize) {
+            @Override
+            protected int sizeOf(String key, byte[] value) {
+                return value.length;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached bytes of a file, or null if they are not cached.
+     */
+    @Nullable
+    byte[] get(@NonNull StickerPack stickerPack, @NonNull String fileName) {
+        return entries.get(key(stickerPack, fileName));
+    }
+
+    /**
+     * Reads a file that was not cached and caches its bytes.
+     *
+     * @param size the size of the file when the catalog was loaded, files that are too big are not read.
+     * @return the bytes of the file, or null if it is too big to cache or could not be read.
+     */
+    @Nullable
+    byte[] load(@NonNull StickerPack stickerPack, @NonNull String fileName, long size) {
+        if (size <= 0 || size > maxEntrySize) {
+            return null;
+        }
+        final int readGeneration = generation.get();
+        try {
+            final byte[] bytes = read(stickerPack.identifier, fileName);
+            if (bytes != null && readGeneration == generation.get()) {
+                entries.put(key(stickerPack, fileName), bytes);
+            }
+            return bytes;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not cache " + stickerPack.identifier + "/" + fileName, e);
+            return null;
+        }
+    }
+
+    void clear() {
+        generation.incrementAndGet();
+        entries.evictAll();
+    }
+
+    /**
+     * @return the bytes of the file, or null if it turned out to be larger than {@link #maxEntrySize}.
+     */
+    @Nullable
+    private byte[] read(@NonNull String identifier, @NonNull String fileName) throws IOException {
+        try (InputStream inputStream = stickerPackFiles.open(identifier, fileName)) {
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+                if (outputStream.size() > maxEntrySize) {
+                    return null;
+                }
+            }
+            return outputStream.toByteArray();
+        }
+    }
+
+    /**
+     * The image data version is part of the key, so updated packs never get the previous bytes.
+     */
+    @NonNull
+    private static String key(@NonNull StickerPack stickerPack, @NonNull String fileName) {
+        return stickerPack.identifier + "/" + stickerPack.imageDataVersion + "/" + fileName;
+    }
+}
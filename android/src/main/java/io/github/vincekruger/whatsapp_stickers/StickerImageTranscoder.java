@@ -0,0 +1,321 @@
+package io.github.vincekruger.whatsapp_stickers;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.media.ExifInterface;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Turns PNG and JPEG images into sticker and tray image files in a pack's directory. Stickers are
+ * fitted into a transparent 512x512 canvas and encoded as WebP at the highest quality that stays
+ * under the size limit, tray images are fitted into 96x96 and encoded as PNG.
+ * <p>
+ * Conversions run in parallel on a small pool of their own, as every conversion holds a few
+ * bitmaps and keeps a core busy while encoding. The files of a batch are only moved into place
+ * once every conversion succeeded, and a batch that can not move every file leaves the directory
+ * as it was.
+ */
+final class StickerImageTranscoder {
+    private static final String TAG = "StickerImageTranscoder";
+
+    private static final int STICKER_DIMENSION = 512;
+    private static final int TRAY_IMAGE_DIMENSION = 96;
+    private static final int STICKER_FILE_SIZE_MAX = 100 * 1024;
+    private static final int TRAY_IMAGE_FILE_SIZE_MAX = 50 * 1024;
+    // Below this quality the stickers are not worth keeping, the image is rejected instead.
+    private static final int QUALITY_MIN = 10;
+    private static final int QUALITY_MAX = 100;
+
+    // Each conversion holds up to three bitmaps of a few MB, so the pool is kept small on any device.
+    private static final int MAX_TRANSCODE_THREADS = 3;
+    private static final String TEMP_FILE_SUFFIX = ".transcoding";
+    private static final String REPLACED_FILE_SUFFIX = ".replaced";
+    private static ExecutorService transcodeExecutor;
+
+    private final File contentDirectory;
+
+    StickerImageTranscoder(@NonNull File contentDirectory) {
+        this.contentDirectory = contentDirectory;
+    }
+
+    /**
+     * One image to convert, into a sticker or into the tray image.
+     */
+    static final class Conversion {
+        final File source;
+        final boolean trayImage;
+
+        Conversion(@NonNull File source, boolean trayImage) {
+            this.source = source;
+            this.trayImage = trayImage;
+        }
+
+        /**
+         * Named after the source image, so converting the same image again replaces the earlier file.
+         */
+        @NonNull
+        String getFileName() {
+            final String name = source.getName();
+            final int extension = name.lastIndexOf('.');
+            return (extension > 0 ? name.substring(0, extension) : name) + (trayImage ? ".png" : ".webp");
+        }
+    }
+
+    /**
+     * Converts the images into the directory of the pack, replacing files with the same names.
+     *
+     * @return the file names, in the order of the conversions.
+     */
+    @NonNull
+    List<String> transcode(@NonNull String identifier, @NonNull List<Conversion> conversions) throws IOException {
+        if (identifier.contains("..") || identifier.contains("/")) {
+            throw new IllegalArgumentException("identifier should not contain .. or / to prevent directory traversal");
+        }
+        final File directory = new File(contentDirectory, identifier);
+        //noinspection ResultOfMethodCallIgnored
+        directory.mkdirs();
+
+        final List<String> fileNames = new ArrayList<>(conversions.size());
+        final List<Callable<File>> tasks = new ArrayList<>(conversions.size());
+        for (final Conversion conversion : conversions) {
+            final String fileName = conversion.getFileName();
+            if (fileNames.contains(fileName)) {
+                throw new IllegalArgumentException("more than one image would be written to " + fileName);
+            }
+            fileNames.add(fileName);
+            tasks.add(new Callable<File>() {
+                @Override
+                public File call() throws IOException {
+                    final File tempFile = new File(directory, fileName + TEMP_FILE_SUFFIX);
+                    final byte[] bytes = conversion.trayImage ? encodeTrayImage(conversion.source)
+                            : encodeSticker(conversion.source);
+                    try (FileOutputStream outputStream = new FileOutputStream(tempFile)) {
+                        outputStream.write(bytes);
+                        outputStream.getFD().sync();
+                    } catch (IOException e) {
+                        //noinspection ResultOfMethodCallIgnored
+                        tempFile.delete();
+                        throw e;
+                    }
+                    return tempFile;
+                }
+            });
+        }
+
+        final List<File> tempFiles = new ArrayList<>(conversions.size());
+        try {
+            Throwable failure = null;
+            for (Future<File> future : getTranscodeExecutor().invokeAll(tasks)) {
+                try {
+                    tempFiles.add(future.get());
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                }
+            }
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            } else if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            } else if (failure != null) {
+                throw new IOException(failure);
+            }
+            final List<File> files = new ArrayList<>(fileNames.size());
+            for (String fileName : fileNames) {
+                files.add(new File(directory, fileName));
+            }
+            moveIntoPlace(tempFiles, files);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("transcoding was interrupted", e);
+        } finally {
+            for (File tempFile : tempFiles) {
+                //noinspection ResultOfMethodCallIgnored
+                tempFile.delete();
+            }
+        }
+        return fileNames;
+    }
+
+    /**
+     * Renames the temp files to their targets. The files they replace are moved aside until every
+     * file is in place, so when a rename fails the files already moved are deleted and the files
+     * they replaced are restored.
+     */
+    private static void moveIntoPlace(@NonNull List<File> tempFiles, @NonNull List<File> files) throws IOException {
+        // The replaced file of every target moved so far, null where there was none.
+        final List<File> replacedFiles = new ArrayList<>(files.size());
+        boolean moved = false;
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                final File file = files.get(i);
+                final File replacedFile = file.exists() ? new File(file.getPath() + REPLACED_FILE_SUFFIX) : null;
+                if (replacedFile != null && !file.renameTo(replacedFile)) {
+                    throw new IOException("could not move " + file + " out of the way");
+                }
+                replacedFiles.add(replacedFile);
+                if (!tempFiles.get(i).renameTo(file)) {
+                    throw new IOException("could not move " + file + " into place");
+                }
+            }
+            moved = true;
+        } finally {
+            for (int i = 0; i < replacedFiles.size(); i++) {
+                final File replacedFile = replacedFiles.get(i);
+                if (!moved) {
+                    //noinspection ResultOfMethodCallIgnored
+                    files.get(i).delete();
+                    if (replacedFile != null && !replacedFile.renameTo(files.get(i))) {
+                        Log.w(TAG, "Could not restore " + files.get(i));
+                    }
+                } else if (replacedFile != null) {
+                    //noinspection ResultOfMethodCallIgnored
+                    replacedFile.delete();
+                }
+            }
+        }
+    }
+
+    @NonNull
+    private static byte[] encodeSticker(@NonNull File source) {
+        final Bitmap bitmap = decodeFitted(source, STICKER_DIMENSION);
+        try {
+            // WebP keeps transparency from API 18 on, older devices encode the canvas without it.
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(STICKER_FILE_SIZE_MAX);
+            byte[] best = null;
+            int low = QUALITY_MIN;
+            int high = QUALITY_MAX;
+            // File size grows with quality, so search for the highest quality that still fits.
+            while (low <= high) {
+                final int quality = (low + high) >>> 1;
+                outputStream.reset();
+                bitmap.compress(Bitmap.CompressFormat.WEBP, quality, outputStream);
+                if (outputStream.size() <= STICKER_FILE_SIZE_MAX) {
+                    best = outputStream.toByteArray();
+                    low = quality + 1;
+                } else {
+                    high = quality - 1;
+                }
+            }
+            if (best == null) {
+                throw new IllegalStateException(source.getName() + " does not fit in " + STICKER_FILE_SIZE_MAX
+                        + " bytes even at quality " + QUALITY_MIN);
+            }
+            return best;
+        } finally {
+            bitmap.recycle();
+        }
+    }
+
+    @NonNull
+    private static byte[] encodeTrayImage(@NonNull File source) {
+        final Bitmap bitmap = decodeFitted(source, TRAY_IMAGE_DIMENSION);
+        try {
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            bitmap.compress(Bitmap.CompressFormat.PNG, QUALITY_MAX, outputStream);
+            if (outputStream.size() > TRAY_IMAGE_FILE_SIZE_MAX) {
+                throw new IllegalStateException(source.getName() + " makes a tray image of " + outputStream.size()
+                        + " bytes, the limit is " + TRAY_IMAGE_FILE_SIZE_MAX);
+            }
+            return outputStream.toByteArray();
+        } finally {
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * Decodes the image subsampled to about the target size, and draws it upright and centered on
+     * a transparent square canvas of the target size.
+     */
+    @NonNull
+    private static Bitmap decodeFitted(@NonNull File source, int dimension) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(source.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IllegalArgumentException(source + " is not a PNG or JPEG image");
+        }
+
+        // The largest power of two that keeps both sides at least the target size, the canvas scales the rest.
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= dimension && options.outHeight / (sampleSize * 2) >= dimension) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        final Bitmap decoded = BitmapFactory.decodeFile(source.getPath(), options);
+        if (decoded == null) {
+            throw new IllegalArgumentException(source + " could not be decoded");
+        }
+
+        try {
+            final int rotation = getRotation(source);
+            final boolean sideways = rotation == 90 || rotation == 270;
+            final int width = sideways ? decoded.getHeight() : decoded.getWidth();
+            final int height = sideways ? decoded.getWidth() : decoded.getHeight();
+            final float scale = Math.min((float) dimension / width, (float) dimension / height);
+
+            final Matrix matrix = new Matrix();
+            matrix.postTranslate(-decoded.getWidth() / 2f, -decoded.getHeight() / 2f);
+            matrix.postRotate(rotation);
+            matrix.postScale(scale, scale);
+            matrix.postTranslate(dimension / 2f, dimension / 2f);
+
+            final Bitmap fitted = Bitmap.createBitmap(dimension, dimension, Bitmap.Config.ARGB_8888);
+            new Canvas(fitted).drawBitmap(decoded, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+            return fitted;
+        } finally {
+            decoded.recycle();
+        }
+    }
+
+    /**
+     * Returns the clockwise rotation in degrees stored in the EXIF data of a JPEG, 0 for anything else.
+     */
+    private static int getRotation(@NonNull File source) {
+        try {
+            switch (new ExifInterface(source.getPath()).getAttributeInt(ExifInterface.TAG_ORIENTATION,
+                    ExifInterface.ORIENTATION_NORMAL)) {
+                case ExifInterface.ORIENTATION_ROTATE_90:
+                    return 90;
+                case ExifInterface.ORIENTATION_ROTATE_180:
+                    return 180;
+                case ExifInterface.ORIENTATION_ROTATE_270:
+                    return 270;
+                default:
+                    return 0;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read the orientation of " + source, e);
+            return 0;
+        }
+    }
+
+    @NonNull
+    private static synchronized ExecutorService getTranscodeExecutor() {
+        if (transcodeExecutor == null) {
+            final int threads = Math.max(1, Math.min(MAX_TRANSCODE_THREADS, Runtime.getRuntime().availableProcessors() - 1));
+            transcodeExecutor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("sticker-transcode"));
+        }
+        return transcodeExecutor;
+    }
+}
@@ -11,7 +11,10 @@ package io.github.vincekruger.whatsapp_stickers;
 import android.os.Parcel;
 import android.os.Parcelable;
 
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.RandomAccess;
 
 class StickerPack implements Parcelable {
     final String identifier;
@@ -27,8 +30,15 @@ class StickerPack implements Parcelable {
     final boolean animatedStickerPack;
 
     String iosAppStoreLink;
-    private List<Sticker> stickers;
+    // The stickers as parallel arrays, Sticker objects are only built when they are accessed. The emojis
+    // of sticker i are emojiIndexes[emojiOffsets[i]] up to emojiIndexes[emojiOffsets[i + 1]], as
+    // indexes into the EmojiTable.
+    private String[] stickerFileNames = new String[0];
+    private long[] stickerSizes = new long[0];
+    private int[] emojiOffsets = new int[1];
+    private int[] emojiIndexes = new int[0];
     private long totalSize;
+    private long trayImageSize;
     String androidPlayStoreLink;
     private boolean isWhitelisted;
 
@@ -64,13 +74,14 @@ class StickerPack implements Parcelable {
         privacyPolicyWebsite = in.readString();
         licenseAgreementWebsite = in.readString();
         iosAppStoreLink = in.readString();
-        stickers = in.createTypedArrayList(Sticker.CREATOR);
+        setStickers(in.createTypedArrayList(Sticker.CREATOR));
         totalSize = in.readLong();
         androidPlayStoreLink = in.readString();
         isWhitelisted = in.readByte() != 0;
         imageDataVersion = in.readString();
         avoidCache = in.readByte() != 0;
         animatedStickerPack = in.readByte() != 0;
+        trayImageSize = in.readLong();
     }
 
     public static final Creator<StickerPack> CREATOR = new Creator<StickerPack>() {
@@ -85,12 +96,81 @@ class StickerPack implements Parcelable {
         }
     };
 
+    /**
+     * Packs the stickers into the arrays of this pack, the list is not kept.
+     */
     void setStickers(List<Sticker> stickers) {
-        this.stickers = stickers;
-        totalSize = 0;
-        for (Sticker sticker : stickers) {
-            totalSize += sticker.size;
+        final int count = stickers.size();
+        int emojiCount = 0;
+        for (int i = 0; i < count; i++) {
+            emojiCount += stickers.get(i).emojis.size();
         }
+        final String[] fileNames = new String[count];
+        final long[] sizes = new long[count];
+        final int[] offsets = new int[count + 1];
+        final int[] indexes = new int[emojiCount];
+        int emojiIndex = 0;
+        for (int i = 0; i < count; i++) {
+            final Sticker sticker = stickers.get(i);
+            fileNames[i] = sticker.imageFileName;
+            sizes[i] = sticker.size;
+            offsets[i] = emojiIndex;
+            for (String emoji : sticker.emojis) {
+                indexes[emojiIndex++] = EmojiTable.intern(emoji);
+            }
+        }
+        offsets[count] = emojiIndex;
+        stickerFileNames = fileNames;
+        stickerSizes = sizes;
+        emojiOffsets = offsets;
+        emojiIndexes = indexes;
+        updateTotalSize();
+    }
+
+    int getStickerCount() {
+        return stickerFileNames.length;
+    }
+
+    void setStickerSize(int index, long size) {
+        stickerSizes[index] = size;
+    }
+
+    /**
+     * Sums up the sizes of the stickers, call after the sticker sizes changed.
+     */
+    void updateTotalSize() {
+        long total = 0;
+        for (long size : stickerSizes) {
+            total += size;
+        }
+        totalSize = total;
+    }
+
+    /**
+     * Returns the sizes of the stickers followed by the size of the tray image.
+     */
+    long[] getFileSizes() {
+        final long[] sizes = new long[stickerSizes.length + 1];
+        System.arraycopy(stickerSizes, 0, sizes, 0, stickerSizes.length);
+        sizes[stickerSizes.length] = trayImageSize;
+        return sizes;
+    }
+
+    /**
+     * Applies sizes returned by {@link #getFileSizes()} for the same stickers, instead of measuring the files again.
+     */
+    void setFileSizes(long[] sizes) {
+        System.arraycopy(sizes, 0, stickerSizes, 0, stickerSizes.length);
+        trayImageSize = sizes[stickerSizes.length];
+        updateTotalSize();
+    }
+
+    void setTrayImageSize(long trayImageSize) {
+        this.trayImageSize = trayImageSize;
+    }
+
+    long getTrayImageSize() {
+        return trayImageSize;
     }
 
     void setAndroidPlayStoreLink(String androidPlayStoreLink) {
@@ -101,8 +181,94 @@ class StickerPack implements Parcelable {
         this.iosAppStoreLink = iosAppStoreLink;
     }
 
+    /**
+     * Returns a copy of this pack with other store links, leaving this pack untouched. The sticker
+     * arrays that are never written after they are packed are shared with the copy.
+     */
+    StickerPack withStoreLinks(String androidPlayStoreLink, String iosAppStoreLink) {
+        final StickerPack copy = new StickerPack(identifier, name, publisher, trayImageFile, publisherEmail,
+                publisherWebsite, privacyPolicyWebsite, licenseAgreementWebsite, imageDataVersion, avoidCache,
+                animatedStickerPack);
+        copy.stickerFileNames = stickerFileNames;
+        copy.stickerSizes = stickerSizes.clone();
+        copy.emojiOffsets = emojiOffsets;
+        copy.emojiIndexes = emojiIndexes;
+        copy.totalSize = totalSize;
+        copy.trayImageSize = trayImageSize;
+        copy.isWhitelisted = isWhitelisted;
+        copy.androidPlayStoreLink = androidPlayStoreLink;
+        copy.iosAppStoreLink = iosAppStoreLink;
+        return copy;
+    }
+
+    /**
+     * Returns a read-only view of the stickers, each access builds a small Sticker object.
+     */
     List<Sticker> getStickers() {
-        return stickers;
+        return new StickerList(stickerFileNames, stickerSizes, emojiOffsets, emojiIndexes);
+    }
+
+    /**
+     * Returns the sticker with the given image file name, or null if this pack does not have it.
+     */
+    Sticker getSticker(String imageFileName) {
+        final int index = indexOfSticker(imageFileName);
+        return index >= 0 ? getStickers().get(index) : null;
+    }
+
+    /**
+     * Hash of the file names and emojis of the stickers, to tell whether two materializations of a
+     * pack have the same stickers without comparing them one by one.
+     */
+    int getStickersFingerprint() {
+        int fingerprint = Arrays.hashCode(stickerFileNames);
+        fingerprint = 31 * fingerprint + Arrays.hashCode(emojiOffsets);
+        return 31 * fingerprint + Arrays.hashCode(emojiIndexes);
+    }
+
+    /**
+     * Whether the file name is the tray image or one of the stickers of this pack.
+     */
+    boolean containsFile(String fileName) {
+        return fileName.equals(trayImageFile) || indexOfSticker(fileName) >= 0;
+    }
+
+    /**
+     * Packs hold a few dozen stickers at most, scanning them is cheaper than keeping a map per pack.
+     */
+    private int indexOfSticker(String imageFileName) {
+        final String[] fileNames = stickerFileNames;
+        for (int i = 0; i < fileNames.length; i++) {
+            if (fileNames[i].equals(imageFileName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static final class StickerList extends AbstractList<Sticker> implements RandomAccess {
+        private final String[] fileNames;
+        private final long[] sizes;
+        private final int[] emojiOffsets;
+        private final int[] emojiIndexes;
+
+        StickerList(String[] fileNames, long[] sizes, int[] emojiOffsets, int[] emojiIndexes) {
+            this.fileNames = fileNames;
+            this.sizes = sizes;
+            this.emojiOffsets = emojiOffsets;
+            this.emojiIndexes = emojiIndexes;
+        }
+
+        @Override
+        public Sticker get(int index) {
+            return new Sticker(fileNames[index], EmojiTable.view(emojiIndexes, emojiOffsets[index],
+                    emojiOffsets[index + 1]), sizes[index]);
+        }
+
+        @Override
+        public int size() {
+            return fileNames.length;
+        }
     }
 
     long getTotalSize() {
@@ -125,12 +291,13 @@ class StickerPack implements Parcelable {
         dest.writeString(privacyPolicyWebsite);
         dest.writeString(licenseAgreementWebsite);
         dest.writeString(iosAppStoreLink);
-        dest.writeTypedList(stickers);
+        dest.writeTypedList(getStickers());
         dest.writeLong(totalSize);
         dest.writeString(androidPlayStoreLink);
         dest.writeByte((byte) (isWhitelisted ? 1 : 0));
         dest.writeString(imageDataVersion);
         dest.writeByte((byte) (avoidCache ? 1 : 0));
         dest.writeByte((byte) (animatedStickerPack ? 1 : 0));
+        dest.writeLong(trayImageSize);
     }
 }
\ No newline at end of file
@@ -26,11 +26,19 @@ public class StickerPackActivity implements PluginRegistry.ActivityResultListene
     static final int ADD_PACK = 200;
 
     private Context context;
+    private String stickerPackIdentifier;
 
     StickerPackActivity(@NonNull Context context) {
         this.context = context;
     }
 
+    /**
+     * Sets the sticker pack that is about to be sent to WhatsApp, so its result can be tied to it.
+     */
+    void setStickerPackIdentifier(String stickerPackIdentifier) {
+        this.stickerPackIdentifier = stickerPackIdentifier;
+    }
+
     @Override
     public boolean onActivityResult(int requestCode, int resultCode, Intent data) {
         if (requestCode == ADD_PACK) {
@@ -47,6 +55,10 @@ public class StickerPackActivity implements PluginRegistry.ActivityResultListene
                 }
             }
             else if(resultCode == Activity.RESULT_OK) {
+                // WhatsApp now has the pack, the cached whitelist result is out of date.
+                if (stickerPackIdentifier != null) {
+                    WhitelistCheck.invalidateStickerPack(stickerPackIdentifier);
+                }
                 if (data != null) {
                     Bundle bundle = data.getExtras();
                     if(bundle.containsKey("add_successful")){
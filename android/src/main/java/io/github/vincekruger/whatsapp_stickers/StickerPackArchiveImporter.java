@@ -0,0 +1,568 @@
+package io.github.vincekruger.whatsapp_stickers;
+
+import android.util.JsonReader;
+import android.util.JsonWriter;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Imports sticker packs from zip archives into the non-asset content directory. Every archive
+ * holds a {@link #PACK_CONTENTS_FILE_NAME} describing the pack and the pack's image files, all
+ * at the root of the archive.
+ * <p>
+ * Archives are streamed into hidden staging directories in parallel, then every pack is moved
+ * into place and the contents file is replaced once, so either all archives are imported or none.
+ * A commit record lists the directories being moved, so {@link #deleteStaleDirectories()} can
+ * finish or undo a commit that was cut short by the process dying.
+ */
+final class StickerPackArchiveImporter {
+    private static final String TAG = "StickerPackImporter";
+
+    static final String PACK_CONTENTS_FILE_NAME = "config.json";
+    // Hidden directories are skipped by the catalogs and the content directory observer.
+    private static final String STAGING_DIRECTORY_PREFIX = ".import-";
+    private static final String REPLACED_DIRECTORY_PREFIX = ".replaced-";
+    private static final String COMMIT_RECORD_FILE_NAME = ".pending-import.json";
+    // The length of "-" and a random UUID, which follow the identifier in the name of a replaced directory.
+    private static final int REPLACED_DIRECTORY_SUFFIX_LENGTH = 37;
+
+    private final File contentDirectory;
+    @Nullable
+    private final StickerPackJournal journal;
+    private final boolean shardedStickerPackContents;
+    // Serializes moving pack directories between imports.
+    private final Object commitLock = new Object();
+    // Run between moving the previous directories away and moving the staged ones in, lets tests interrupt a commit.
+    @VisibleForTesting
+    @Nullable
+    Runnable onTargetsMovedAway;
+
+    /**
+     * @param journal the journal of the contents file, null with sharded contents.
+     */
+    StickerPackArchiveImporter(@NonNull File contentDirectory, @Nullable StickerPackJournal journal,
+                               boolean shardedStickerPackContents) {
+        this.contentDirectory = contentDirectory;
+        this.journal = journal;
+        this.shardedStickerPackContents = shardedStickerPackContents;
+    }
+
+    /**
+     * The lock held while a commit moves pack directories, see {@link #commit(List)}.
+     */
+    @NonNull
+    Object getCommitLock() {
+        return commitLock;
+    }
+
+    /**
+     * An archive to import, either a file or the bytes of one.
+     */
+    abstract static class Archive {
+        @NonNull
+        abstract InputStream open() throws IOException;
+
+        @NonNull
+        static Archive of(@NonNull final File file) {
+            return new Archive() {
+                @NonNull
+                @Override
+                InputStream open() throws IOException {
+                    return new FileInputStream(file);
+                }
+
+                @Override
+                public String toString() {
+                    return file.getPath();
+                }
+            };
+        }
+
+        @NonNull
+        static Archive of(@NonNull final byte[] bytes) {
+            return new Archive() {
+                @NonNull
+                @Override
+                InputStream open() {
+                    return new ByteArrayInputStream(bytes);
+                }
+
+                @Override
+                public String toString() {
+                    return "archive of " + bytes.length + " bytes";
+                }
+            };
+        }
+    }
+
+    /**
+     * Finishes or rolls back a commit that was interrupted, and removes the staging directories left
+     * behind by interrupted imports. Call before any import starts.
+     */
+    void deleteStaleDirectories() {
+        final File commitRecordFile = new File(contentDirectory, COMMIT_RECORD_FILE_NAME);
+        if (commitRecordFile.exists()) {
+            try {
+                recover(commitRecordFile);
+            } catch (IOException | IllegalStateException e) {
+                Log.e(TAG, "Could not read " + commitRecordFile, e);
+            }
+            deleteCommitRecord();
+        }
+        final File[] files = contentDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            final String name = file.getName();
+            if (name.startsWith(STAGING_DIRECTORY_PREFIX)) {
+                deleteRecursively(file);
+            } else if (name.startsWith(REPLACED_DIRECTORY_PREFIX)) {
+                // Without a commit record the import was committed, but never delete the only copy of a pack.
+                final File target = getReplacedTarget(name);
+                if (target != null && !target.exists() && file.renameTo(target)) {
+                    Log.w(TAG, "Restored " + target + " from " + name);
+                } else {
+                    deleteRecursively(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes the previous directories of a committed import, or moves them back into place.
+     */
+    private void recover(@NonNull File commitRecordFile) throws IOException {
+        final ContentFileStamp[] contentsStamp = new ContentFileStamp[1];
+        final List<Swap> swaps = readCommitRecord(commitRecordFile, contentsStamp);
+        final boolean committed;
+        if (journal != null && contentsStamp[0] != null) {
+            // The contents file is replaced as the last step, after that the import is committed.
+            committed = !contentsStamp[0].equals(ContentFileStamp.of(journal.getContentFile()));
+        } else {
+            // Every pack has its own manifest, so the import is committed once every pack was moved in.
+            boolean allMovedIn = true;
+            for (Swap swap : swaps) {
+                allMovedIn &= !swap.staged.exists() && swap.target.exists();
+            }
+            committed = allMovedIn;
+        }
+        for (int i = swaps.size() - 1; i >= 0; i--) {
+            final Swap swap = swaps.get(i);
+            if (committed) {
+                if (swap.replaced != null) {
+                    deleteRecursively(swap.replaced);
+                }
+                continue;
+            }
+            // Staging directories outlive the commit record, so a pack without one was moved in. A restored
+            // previous directory is in place again, though, even if its staging directory is gone.
+            swap.movedAway = swap.replaced != null && swap.replaced.exists();
+            swap.movedIn = !swap.staged.exists() && swap.target.exists() && (swap.replaced == null || swap.movedAway);
+            swap.rollBack();
+        }
+        Log.w(TAG, (committed ? "Finished" : "Rolled back") + " an interrupted import of " + swaps.size() + " sticker packs");
+    }
+
+    /**
+     * The directory a replaced directory was moved away from, null if the name is not one of them.
+     */
+    @Nullable
+    private File getReplacedTarget(@NonNull String name) {
+        final int end = name.length() - REPLACED_DIRECTORY_SUFFIX_LENGTH;
+        if (end <= REPLACED_DIRECTORY_PREFIX.length() || name.charAt(end) != '-') {
+            return null;
+        }
+        return new File(contentDirectory, name.substring(REPLACED_DIRECTORY_PREFIX.length(), end));
+    }
+
+    /**
+     * Imports the archives, replacing packs with the same identifiers.
+     *
+     * @return the identifiers of the imported packs, in the order of the archives.
+     */
+    @NonNull
+    List<String> importArchives(@NonNull List<Archive> archives) throws IOException {
+        //noinspection ResultOfMethodCallIgnored
+        contentDirectory.mkdirs();
+        final List<Callable<StagedStickerPack>> tasks = new ArrayList<>(archives.size());
+        for (final Archive archive : archives) {
+            tasks.add(new Callable<StagedStickerPack>() {
+                @Override
+                public StagedStickerPack call() throws IOException {
+                    return stage(archive);
+                }
+            });
+        }
+
+        final List<StagedStickerPack> stagedStickerPacks = new ArrayList<>(archives.size());
+        try {
+            Throwable failure = null;
+            for (Future<StagedStickerPack> future : StickerPackFiles.getIoExecutor().invokeAll(tasks)) {
+                try {
+                    stagedStickerPacks.add(future.get());
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                }
+            }
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            } else if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            } else if (failure != null) {
+                throw new IOException(failure);
+            }
+
+            final Set<String> identifiers = new HashSet<>();
+            for (StagedStickerPack stagedStickerPack : stagedStickerPacks) {
+                if (!identifiers.add(stagedStickerPack.stickerPack.identifier)) {
+                    throw new IllegalStateException("more than one archive has sticker pack "
+                            + stagedStickerPack.stickerPack.identifier);
+                }
+            }
+            commit(stagedStickerPacks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("import was interrupted", e);
+        } finally {
+            for (StagedStickerPack stagedStickerPack : stagedStickerPacks) {
+                deleteRecursively(stagedStickerPack.directory);
+            }
+        }
+
+        final List<String> imported = new ArrayList<>(stagedStickerPacks.size());
+        for (StagedStickerPack stagedStickerPack : stagedStickerPacks) {
+            imported.add(stagedStickerPack.stickerPack.identifier);
+        }
+        return imported;
+    }
+
+    /**
+     * Unpacks an archive into a new staging directory and checks that it holds a valid pack.
+     */
+    @NonNull
+    private StagedStickerPack stage(@NonNull Archive archive) throws IOException {
+        final File directory = new File(contentDirectory, STAGING_DIRECTORY_PREFIX + UUID.randomUUID());
+        if (!directory.mkdirs()) {
+            throw new IOException("could not create " + directory);
+        }
+        try {
+            final Set<String> fileNames = unpack(archive, directory);
+            if (!fileNames.contains(PACK_CONTENTS_FILE_NAME)) {
+                throw new IllegalStateException(archive + " has no " + PACK_CONTENTS_FILE_NAME);
+            }
+            final StickerPack stickerPack;
+            try (InputStream contentsInputStream = new FileInputStream(new File(directory, PACK_CONTENTS_FILE_NAME))) {
+                stickerPack = ContentFileParser.parseStickerPack(contentsInputStream);
+            }
+            if (!fileNames.contains(stickerPack.trayImageFile)) {
+                throw new IllegalStateException(archive + " has no tray image " + stickerPack.trayImageFile);
+            }
+            for (Sticker sticker : stickerPack.getStickers()) {
+                if (!fileNames.contains(sticker.imageFileName)) {
+                    throw new IllegalStateException(archive + " has no sticker " + sticker.imageFileName);
+                }
+            }
+            if (shardedStickerPackContents) {
+                final File manifest = new File(directory, ShardedStickerPackCatalog.SHARD_FILE_NAME);
+                if (!new File(directory, PACK_CONTENTS_FILE_NAME).renameTo(manifest)) {
+                    throw new IOException("could not create " + manifest);
+                }
+            }
+            return new StagedStickerPack(directory, stickerPack);
+        } catch (IOException | RuntimeException e) {
+            deleteRecursively(directory);
+            throw e;
+        }
+    }
+
+    /**
+     * Streams every entry of the archive into the directory.
+     *
+     * @return the names of the unpacked files.
+     */
+    @NonNull
+    private static Set<String> unpack(@NonNull Archive archive, @NonNull File directory) throws IOException {
+        final Set<String> fileNames = new HashSet<>();
+        final byte[] buffer = new byte[16 * 1024];
+        try (ZipInputStream zipInputStream = new ZipInputStream(new BufferedInputStream(archive.open()))) {
+            ZipEntry entry;
+            while ((entry = zipInputStream.getNextEntry()) != null) {
+                final String fileName = entry.getName();
+                if (entry.isDirectory()) {
+                    throw new IllegalStateException("the archive should only have files at its root, found directory: "
+                            + fileName);
+                }
+                checkFileName(fileName);
+                if (!fileNames.add(fileName)) {
+                    throw new IllegalStateException("the archive has more than one " + fileName);
+                }
+                try (OutputStream outputStream = new FileOutputStream(new File(directory, fileName))) {
+                    int read;
+                    while ((read = zipInputStream.read(buffer)) != -1) {
+                        outputStream.write(buffer, 0, read);
+                    }
+                }
+            }
+        }
+        return fileNames;
+    }
+
+    private static void checkFileName(@NonNull String fileName) {
+        if (fileName.isEmpty() || fileName.contains("..") || fileName.contains("/") || fileName.contains("\\")) {
+            throw new IllegalStateException("the file name should not contain .. or / to prevent directory traversal, file is:"
+                    + fileName);
+        }
+        if (!fileName.equals(PACK_CONTENTS_FILE_NAME) && !fileName.endsWith(".webp") && !fileName.endsWith(".png")) {
+            throw new IllegalStateException("the archive should only have webp and png images, file is: " + fileName);
+        }
+    }
+
+    /**
+     * Moves the staged packs into place and, unless every pack has its own manifest, writes the
+     * contents file once for all of them, folding in any pending journal records.
+     * <p>
+     * Every existing pack directory is renamed out of the way before any staged directory is moved
+     * in, and the renamed directories are only deleted once the contents file was written. If any
+     * step fails, every directory is moved back to where it was. The commit record is written before
+     * the first directory is moved and deleted once the import is committed or rolled back.
+     */
+    private void commit(@NonNull List<StagedStickerPack> stagedStickerPacks) throws IOException {
+        // Holding the journal's lock keeps compaction from replacing the contents file after its stamp went
+        // into the commit record, so only this import's write can change the stamp.
+        final Object contentFileLock = journal != null ? journal.getLock() : commitLock;
+        synchronized (commitLock) {
+            synchronized (contentFileLock) {
+                final List<Swap> swaps = new ArrayList<>(stagedStickerPacks.size());
+                for (StagedStickerPack stagedStickerPack : stagedStickerPacks) {
+                    final File target = new File(contentDirectory, stagedStickerPack.stickerPack.identifier);
+                    swaps.add(new Swap(stagedStickerPack.directory, target, target.exists() ? new File(contentDirectory,
+                            REPLACED_DIRECTORY_PREFIX + target.getName() + "-" + UUID.randomUUID()) : null));
+                }
+                writeCommitRecord(swaps, journal != null ? ContentFileStamp.of(journal.getContentFile()) : null);
+                try {
+                    for (Swap swap : swaps) {
+                        swap.moveTargetAway();
+                    }
+                    if (onTargetsMovedAway != null) {
+                        onTargetsMovedAway.run();
+                    }
+                    for (Swap swap : swaps) {
+                        swap.moveStagedIn();
+                    }
+                    if (journal != null) {
+                        final List<StickerPack> stickerPacks = new ArrayList<>(stagedStickerPacks.size());
+                        for (StagedStickerPack stagedStickerPack : stagedStickerPacks) {
+                            stickerPacks.add(stagedStickerPack.stickerPack);
+                        }
+                        journal.compact(stickerPacks);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    for (int i = swaps.size() - 1; i >= 0; i--) {
+                        swaps.get(i).rollBack();
+                    }
+                    deleteCommitRecord();
+                    throw e;
+                }
+                deleteCommitRecord();
+                for (Swap swap : swaps) {
+                    if (swap.replaced != null) {
+                        deleteRecursively(swap.replaced);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the directories the commit is going to move, and the stamp of the contents file it is going to replace.
+     */
+    private void writeCommitRecord(@NonNull final List<Swap> swaps, @Nullable final ContentFileStamp contentsStamp)
+            throws IOException {
+        ContentFileWriter.replace(new File(contentDirectory, COMMIT_RECORD_FILE_NAME), new ContentFileWriter.Body() {
+            @Override
+            public void write(@NonNull JsonWriter writer) throws IOException {
+                writer.beginObject();
+                if (contentsStamp != null) {
+                    writer.name("contents");
+                    contentsStamp.write(writer);
+                }
+                writer.name("swaps").beginArray();
+                for (Swap swap : swaps) {
+                    writer.beginObject();
+                    writer.name("staged").value(swap.staged.getName());
+                    writer.name("target").value(swap.target.getName());
+                    if (swap.replaced != null) {
+                        writer.name("replaced").value(swap.replaced.getName());
+                    }
+                    writer.endObject();
+                }
+                writer.endArray();
+                writer.endObject();
+            }
+        });
+    }
+
+    /**
+     * Reads the swaps of a commit record.
+     *
+     * @param contentsStamp receives the stamp of the contents file the commit was going to replace, if there was one.
+     */
+    @NonNull
+    private List<Swap> readCommitRecord(@NonNull File commitRecordFile, @NonNull ContentFileStamp[] contentsStamp)
+            throws IOException {
+        final List<Swap> swaps = new ArrayList<>();
+        try (JsonReader reader = new JsonReader(new InputStreamReader(new FileInputStream(commitRecordFile), "UTF-8"))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                final String key = reader.nextName();
+                if ("contents".equals(key)) {
+                    contentsStamp[0] = ContentFileStamp.read(reader);
+                } else if ("swaps".equals(key)) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        swaps.add(readSwap(reader));
+                    }
+                    reader.endArray();
+                } else {
+                    throw new IllegalStateException("unknown field in commit record: " + key);
+                }
+            }
+            reader.endObject();
+        }
+        return swaps;
+    }
+
+    @NonNull
+    private Swap readSwap(@NonNull JsonReader reader) throws IOException {
+        String staged = null;
+        String target = null;
+        String replaced = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String key = reader.nextName();
+            if ("staged".equals(key)) {
+                staged = reader.nextString();
+            } else if ("target".equals(key)) {
+                target = reader.nextString();
+            } else if ("replaced".equals(key)) {
+                replaced = reader.nextString();
+            } else {
+                throw new IllegalStateException("unknown field in commit record: " + key);
+            }
+        }
+        reader.endObject();
+        if (staged == null || target == null) {
+            throw new IllegalStateException("commit record is missing a directory");
+        }
+        return new Swap(new File(contentDirectory, staged), new File(contentDirectory, target),
+                replaced != null ? new File(contentDirectory, replaced) : null);
+    }
+
+    private void deleteCommitRecord() {
+        final File commitRecordFile = new File(contentDirectory, COMMIT_RECORD_FILE_NAME);
+        if (commitRecordFile.exists() && !commitRecordFile.delete()) {
+            Log.e(TAG, "Could not delete " + commitRecordFile);
+        }
+    }
+
+    /**
+     * Swaps a staged directory in for a pack's directory, and back out if the import fails.
+     */
+    private static final class Swap {
+        final File staged;
+        final File target;
+        // Where the previous directory of the pack is moved to, null if there was none.
+        @Nullable
+        final File replaced;
+        boolean movedAway;
+        boolean movedIn;
+
+        Swap(File staged, File target, @Nullable File replaced) {
+            this.staged = staged;
+            this.target = target;
+            this.replaced = replaced;
+        }
+
+        void moveTargetAway() throws IOException {
+            if (replaced == null) {
+                return;
+            }
+            if (!target.renameTo(replaced)) {
+                throw new IOException("could not move " + target + " out of the way");
+            }
+            movedAway = true;
+        }
+
+        void moveStagedIn() throws IOException {
+            if (!staged.renameTo(target)) {
+                throw new IOException("could not move sticker pack " + target.getName() + " into place");
+            }
+            movedIn = true;
+        }
+
+        /**
+         * Moves the staged directory back to staging, where it is deleted, and restores the previous directory.
+         */
+        void rollBack() {
+            if (movedIn && !target.renameTo(staged)) {
+                Log.e(TAG, "Could not move " + target + " back to staging");
+                deleteRecursively(target);
+            }
+            movedIn = false;
+            if (movedAway) {
+                if (target.exists() || !replaced.renameTo(target)) {
+                    Log.e(TAG, "Could not restore " + target + " from " + replaced);
+                } else {
+                    movedAway = false;
+                }
+            }
+        }
+    }
+
+    private static void deleteRecursively(@NonNull File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    private static final class StagedStickerPack {
+        final File directory;
+        final StickerPack stickerPack;
+
+        StagedStickerPack(File directory, StickerPack stickerPack) {
+            this.directory = directory;
+            this.stickerPack = stickerPack;
+        }
+    }
+}
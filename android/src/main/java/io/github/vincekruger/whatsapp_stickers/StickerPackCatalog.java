@@ -0,0 +1,122 @@
+package io.github.vincekruger.whatsapp_stickers;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The sticker packs served by the provider, looked up by identifier.
+ */
+abstract class StickerPackCatalog {
+    private final ConcurrentHashMap<String, StickerPackCursorRows.JoinedEmojis> joinedEmojis = new ConcurrentHashMap<>();
+    private volatile StickerEmojiIndex emojiIndex;
+    // The index of the catalog this one replaced, until this catalog builds its own on top of it.
+    private volatile StickerEmojiIndex previousEmojiIndex;
+
+    /**
+     * Returns every sticker pack, in the order of the contents file.
+     */
+    @NonNull
+    abstract List<StickerPack> getStickerPacks();
+
+    int getStickerPackCount() {
+        return getStickerPacks().size();
+    }
+
+    /**
+     * Returns up to {@code limit} packs starting at {@code offset}, in the order of {@link #getStickerPacks()}.
+     */
+    @NonNull
+    List<StickerPack> getStickerPacks(int offset, int limit) {
+        final List<StickerPack> stickerPacks = getStickerPacks();
+        if (offset >= stickerPacks.size()) {
+            return Collections.emptyList();
+        }
+        return stickerPacks.subList(offset, (int) Math.min(stickerPacks.size(), (long) offset + limit));
+    }
+
+    /**
+     * Like {@link #getStickerPacks(int, int)}, but the packs only need the fields of the metadata
+     * cursor, not their stickers or file sizes.
+     */
+    @NonNull
+    List<StickerPack> getStickerPackMetadata(int offset, int limit) {
+        return getStickerPacks(offset, limit);
+    }
+
+    /**
+     * Returns every sticker pack for the emoji index, in the order of {@link #getStickerPacks()}. The
+     * index only reads the identifier, image data version and stickers of each pack once, so the
+     * packs do not need the sizes of their files.
+     */
+    @NonNull
+    List<StickerPack> getStickerPacksToIndex() {
+        return getStickerPacks();
+    }
+
+    /**
+     * Returns the store links of the contents file, which every pack shares.
+     */
+    @NonNull
+    ContentFileParser.StoreLinks getStoreLinks() {
+        final List<StickerPack> first = getStickerPacks(0, 1);
+        return first.isEmpty() ? ContentFileParser.StoreLinks.NONE
+                : new ContentFileParser.StoreLinks(first.get(0).androidPlayStoreLink, first.get(0).iosAppStoreLink);
+    }
+
+    /**
+     * Returns the sticker pack with the given identifier, or null if there is none.
+     */
+    @Nullable
+    abstract StickerPack getStickerPack(@Nullable String identifier);
+
+    /**
+     * Returns the emojis of every sticker of a pack of this catalog, joined the way the cursors serve
+     * them. They are joined once per pack and image data version, and live as long as the catalog.
+     */
+    @NonNull
+    String[] getJoinedEmojis(@NonNull String identifier, @Nullable String imageDataVersion,
+                             @NonNull List<Sticker> stickers) {
+        StickerPackCursorRows.JoinedEmojis joined = joinedEmojis.get(identifier);
+        if (joined == null || !joined.isFor(imageDataVersion, stickers)) {
+            joined = StickerPackCursorRows.JoinedEmojis.of(imageDataVersion, stickers);
+            joinedEmojis.put(identifier, joined);
+        }
+        return joined.emojis;
+    }
+
+    /**
+     * Returns the emoji index of every pack, built on first use. If this catalog replaced one that had
+     * an index, only the packs that changed are indexed.
+     */
+    @NonNull
+    StickerEmojiIndex getEmojiIndex() {
+        StickerEmojiIndex index = emojiIndex;
+        if (index == null) {
+            index = StickerEmojiIndex.build(getStickerPacksToIndex(), previousEmojiIndex);
+            emojiIndex = index;
+            previousEmojiIndex = null;
+        }
+        return index;
+    }
+
+    /**
+     * Lets this catalog build its emoji index on top of the index of the catalog it replaces.
+     */
+    void inheritEmojiIndex(@NonNull StickerPackCatalog previous) {
+        final StickerEmojiIndex index = previous.emojiIndex;
+        previousEmojiIndex = index != null ? index : previous.previousEmojiIndex;
+    }
+
+    /**
+     * Releases whatever the catalog can rebuild on demand.
+     */
+    void trimMemory() {
+        joinedEmojis.clear();
+        emojiIndex = null;
+        previousEmojiIndex = null;
+    }
+}
@@ -0,0 +1,123 @@
+package io.github.vincekruger.whatsapp_stickers;
+
+import android.database.AbstractWindowedCursor;
+import android.database.CursorWindow;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Cursor that writes rows into its window straight from the catalog, only for the range being read.
+ * Nothing is copied up front, so a large pack or catalog costs memory in proportion to the rows read.
+ * <p>
+ * Across processes the provider's binder fills its own window through {@link #fillWindow(int, CursorWindow)},
+ * in process the cursor fills a window of its own when it moves outside of it.
+ */
+final class StickerPackCursor extends AbstractWindowedCursor {
+    private static final String WINDOW_NAME = "StickerPackCursor";
+
+    /**
+     * The rows of a cursor, written into a window one at a time.
+     */
+    interface Rows {
+        int getCount();
+
+        /**
+         * Writes every column of the row at {@code position}.
+         *
+         * @return false if the window is full.
+         */
+        boolean put(@NonNull Row row, int position);
+    }
+
+    /**
+     * The columns of the row being written, the part of {@link CursorWindow} that {@link Rows} use.
+     * Every method returns false if the window is full.
+     */
+    interface Row {
+        boolean putString(@Nullable String value, int column);
+
+        boolean putLong(long value, int column);
+    }
+
+    /**
+     * Writes into the last row allocated in a window.
+     */
+    private static final class WindowRow implements Row {
+        private final CursorWindow window;
+        private int position;
+
+        WindowRow(CursorWindow window) {
+            this.window = window;
+        }
+
+        @Override
+        public boolean putString(@Nullable String value, int column) {
+            return value != null ? window.putString(value, position, column) : window.putNull(position, column);
+        }
+
+        @Override
+        public boolean putLong(long value, int column) {
+            return window.putLong(value, position, column);
+        }
+    }
+
+    private final String[] columns;
+    private final Rows rows;
+    private final int count;
+    // How many rows the last window held, to start the next window a little before the requested row.
+    private int windowRows;
+
+    StickerPackCursor(@NonNull String[] columns, @NonNull Rows rows) {
+        this.columns = columns;
+        this.rows = rows;
+        this.count = rows.getCount();
+    }
+
+    @Override
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return columns;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        if (mWindow == null) {
+            setWindow(new CursorWindow(WINDOW_NAME));
+        } else if (newPosition >= mWindow.getStartPosition()
+                && newPosition < mWindow.getStartPosition() + mWindow.getNumRows()) {
+            return true;
+        }
+        // Like SQLiteCursor, keep a third of the window before the row for readers moving backwards.
+        fillWindow(Math.max(0, newPosition - windowRows / 3), mWindow);
+        if (newPosition >= mWindow.getStartPosition() + mWindow.getNumRows()) {
+            fillWindow(newPosition, mWindow);
+        }
+        return true;
+    }
+
+    @Override
+    public void fillWindow(int position, CursorWindow window) {
+        window.clear();
+        window.setStartPosition(position);
+        window.setNumColumns(columns.length);
+        final WindowRow row = new WindowRow(window);
+        int next = position;
+        while (next < count && window.allocRow()) {
+            row.position = next;
+            if (!rows.put(row, next)) {
+                window.freeLastRow();
+                break;
+            }
+            next++;
+        }
+        if (next == position && position < count) {
+            throw new IllegalStateException("row " + position + " does not fit into a cursor window");
+        }
+        windowRows = next - position;
+    }
+}
@@ -0,0 +1,161 @@
+package io.github.vincekruger.whatsapp_stickers;
+
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The rows of the provider's cursors, written into a {@link StickerPackCursor}'s window as they are
+ * read. The column order matches {@link StickerContentProvider#STICKER_PACK_INFO_COLUMNS},
+ * {@link StickerContentProvider#STICKER_COLUMNS} and {@link StickerContentProvider#STICKER_SEARCH_COLUMNS}.
+ */
+final class StickerPackCursorRows {
+    // Packs of the catalog are fetched in pages, so a lazy catalog only materializes the packs being read.
+    private static final int METADATA_PAGE_SIZE = 32;
+
+    private StickerPackCursorRows() {
+    }
+
+    /**
+     * Metadata rows of every pack of the catalog.
+     */
+    @NonNull
+    static StickerPackCursor.Rows metadataRows(@NonNull final StickerPackCatalog catalog) {
+        return new StickerPackCursor.Rows() {
+            private List<StickerPack> page = Collections.emptyList();
+            private int pageStart;
+
+            @Override
+            public int getCount() {
+                return catalog.getStickerPackCount();
+            }
+
+            @Override
+            public boolean put(@NonNull StickerPackCursor.Row row, int position) {
+                if (position < pageStart || position >= pageStart + page.size()) {
+                    page = catalog.getStickerPackMetadata(position, METADATA_PAGE_SIZE);
+                    pageStart = position;
+                }
+                return putMetadataRow(row, page.get(position - pageStart));
+            }
+        };
+    }
+
+    /**
+     * Metadata rows of the given packs.
+     */
+    @NonNull
+    static StickerPackCursor.Rows metadataRows(@NonNull final List<StickerPack> stickerPacks) {
+        return new StickerPackCursor.Rows() {
+            @Override
+            public int getCount() {
+                return stickerPacks.size();
+            }
+
+            @Override
+            public boolean put(@NonNull StickerPackCursor.Row row, int position) {
+                return putMetadataRow(row, stickerPacks.get(position));
+            }
+        };
+    }
+
+    /**
+     * Rows of the stickers of a pack of the catalog, or no rows without a pack.
+     */
+    @NonNull
+    static StickerPackCursor.Rows stickerRows(@NonNull StickerPackCatalog catalog, @Nullable StickerPack stickerPack) {
+        final List<Sticker> stickers = stickerPack != null ? stickerPack.getStickers() : Collections.<Sticker>emptyList();
+        final String[] emojis = stickerPack != null
+                ? catalog.getJoinedEmojis(stickerPack.identifier, stickerPack.imageDataVersion, stickers) : new String[0];
+        return new StickerPackCursor.Rows() {
+            @Override
+            public int getCount() {
+                return stickers.size();
+            }
+
+            @Override
+            public boolean put(@NonNull StickerPackCursor.Row row, int position) {
+                return row.putString(stickers.get(position).imageFileName, 0)
+                        && row.putString(emojis[position], 1);
+            }
+        };
+    }
+
+    /**
+     * Rows of stickers found in the emoji index of the catalog, in their ranked order. The stickers
+     * are looked up in the catalog row by row.
+     */
+    @NonNull
+    static StickerPackCursor.Rows searchRows(@NonNull final StickerPackCatalog catalog,
+                                             @NonNull final List<StickerEmojiIndex.Match> matches) {
+        return new StickerPackCursor.Rows() {
+            @Override
+            public int getCount() {
+                return matches.size();
+            }
+
+            @Override
+            public boolean put(@NonNull StickerPackCursor.Row row, int position) {
+                final StickerEmojiIndex.Match match = matches.get(position);
+                final StickerPack stickerPack = Objects.requireNonNull(catalog.getStickerPack(match.getIdentifier()));
+                final List<Sticker> stickers = stickerPack.getStickers();
+                final String[] emojis = catalog.getJoinedEmojis(stickerPack.identifier, stickerPack.imageDataVersion,
+                        stickers);
+                return row.putString(match.getIdentifier(), 0)
+                        && row.putString(stickers.get(match.getStickerIndex()).imageFileName, 1)
+                        && row.putString(emojis[match.getStickerIndex()], 2);
+            }
+        };
+    }
+
+    private static boolean putMetadataRow(@NonNull StickerPackCursor.Row row, @NonNull StickerPack stickerPack) {
+        return row.putString(stickerPack.identifier, 0)
+                && row.putString(stickerPack.name, 1)
+                && row.putString(stickerPack.publisher, 2)
+                && row.putString(stickerPack.trayImageFile, 3)
+                && row.putString(stickerPack.androidPlayStoreLink, 4)
+                && row.putString(stickerPack.iosAppStoreLink, 5)
+                && row.putString(stickerPack.publisherEmail, 6)
+                && row.putString(stickerPack.publisherWebsite, 7)
+                && row.putString(stickerPack.privacyPolicyWebsite, 8)
+                && row.putString(stickerPack.licenseAgreementWebsite, 9)
+                && row.putString(stickerPack.imageDataVersion, 10)
+                && row.putLong(stickerPack.avoidCache ? 1 : 0, 11)
+                && row.putLong(stickerPack.animatedStickerPack ? 1 : 0, 12);
+    }
+
+    /**
+     * The emojis of every sticker of a pack, joined with commas the way the cursors serve them.
+     */
+    static final class JoinedEmojis {
+        final String imageDataVersion;
+        final String[] emojis;
+
+        private JoinedEmojis(String imageDataVersion, String[] emojis) {
+            this.imageDataVersion = imageDataVersion;
+            this.emojis = emojis;
+        }
+
+        @NonNull
+        static JoinedEmojis of(@Nullable String imageDataVersion, @NonNull List<Sticker> stickers) {
+            final String[] emojis = new String[stickers.size()];
+            for (int i = 0; i < emojis.length; i++) {
+                emojis[i] = TextUtils.join(",", stickers.get(i).emojis);
+            }
+            return new JoinedEmojis(imageDataVersion, emojis);
+        }
+
+        /**
+         * Whether these were joined for the same version of the pack.
+         */
+        boolean isFor(@Nullable String imageDataVersion, @NonNull List<Sticker> stickers) {
+            return emojis.length == stickers.size() && (this.imageDataVersion == null
+                    ? imageDataVersion == null : this.imageDataVersion.equals(imageDataVersion));
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package io.github.vincekruger.whatsapp_stickers;
+
+import android.content.ContentValues;
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static io.github.vincekruger.whatsapp_stickers.StickerContentProvider.ANIMATED_STICKER_PACK;
+import static io.github.vincekruger.whatsapp_stickers.StickerContentProvider.AVOID_CACHE;
+import static io.github.vincekruger.whatsapp_stickers.StickerContentProvider.IMAGE_DATA_VERSION;
+import static io.github.vincekruger.whatsapp_stickers.StickerContentProvider.LICENSE_AGREEMENT_WEBSITE;
+import static io.github.vincekruger.whatsapp_stickers.StickerContentProvider.PRIVACY_POLICY_WEBSITE;
+import static io.github.vincekruger.whatsapp_stickers.StickerContentProvider.PUBLISHER_EMAIL;
+import static io.github.vincekruger.whatsapp_stickers.StickerContentProvider.PUBLISHER_WEBSITE;
+import static io.github.vincekruger.whatsapp_stickers.StickerContentProvider.STICKER_FILE_EMOJI_IN_QUERY;
+import static io.github.vincekruger.whatsapp_stickers.StickerContentProvider.STICKER_FILE_NAME_IN_QUERY;
+import static io.github.vincekruger.whatsapp_stickers.StickerContentProvider.STICKER_PACK_ICON_IN_QUERY;
+import static io.github.vincekruger.whatsapp_stickers.StickerContentProvider.STICKER_PACK_IDENTIFIER_IN_QUERY;
+import static io.github.vincekruger.whatsapp_stickers.StickerContentProvider.STICKER_PACK_NAME_IN_QUERY;
+import static io.github.vincekruger.whatsapp_stickers.StickerContentProvider.STICKER_PACK_PUBLISHER_IN_QUERY;
+
+/**
+ * Collects the pack and sticker changes of one provider write, or one batch of them, on top of
+ * the current catalog. Rows use the same column names as the provider's cursors, with the
+ * emojis of a sticker joined by commas.
+ * <p>
+ * Packs only have to be valid once every change is applied, so a batch can insert a pack and
+ * then its stickers. A pack without stickers is not valid, so a new pack can not be written
+ * before its first sticker.
+ */
+final class StickerPackEditor {
+    private final StickerPackCatalog catalog;
+    // Changed packs by identifier, a null draft means the pack is removed.
+    private final Map<String, Draft> drafts = new LinkedHashMap<>();
+
+    StickerPackEditor(@NonNull StickerPackCatalog catalog) {
+        this.catalog = catalog;
+    }
+
+    boolean isEmpty() {
+        return drafts.isEmpty();
+    }
+
+    /**
+     * Adds a pack, or replaces the metadata of an existing one while keeping its stickers.
+     *
+     * @return the identifier of the pack.
+     */
+    @NonNull
+    String insertStickerPack(@NonNull ContentValues values) {
+        final String identifier = values.getAsString(STICKER_PACK_IDENTIFIER_IN_QUERY);
+        if (TextUtils.isEmpty(identifier)) {
+            throw new IllegalArgumentException(STICKER_PACK_IDENTIFIER_IN_QUERY + " is required");
+        }
+        Draft draft = getDraft(identifier);
+        if (draft == null) {
+            draft = new Draft(identifier);
+            drafts.put(identifier, draft);
+        }
+        draft.update(values);
+        return identifier;
+    }
+
+    int updateStickerPack(@NonNull String identifier, @NonNull ContentValues values) {
+        if (values.containsKey(STICKER_PACK_IDENTIFIER_IN_QUERY)
+                && !identifier.equals(values.getAsString(STICKER_PACK_IDENTIFIER_IN_QUERY))) {
+            throw new IllegalArgumentException("the identifier of a sticker pack can not be changed");
+        }
+        final Draft draft = getDraft(identifier);
+        if (draft == null) {
+            return 0;
+        }
+        draft.update(values);
+        return 1;
+    }
+
+    int deleteStickerPack(@NonNull String identifier) {
+        if (getDraft(identifier) == null) {
+            return 0;
+        }
+        drafts.put(identifier, null);
+        return 1;
+    }
+
+    /**
+     * Adds a sticker to a pack, replacing a sticker with the same file name.
+     *
+     * @return the file name of the sticker.
+     */
+    @NonNull
+    String insertSticker(@NonNull String identifier, @NonNull ContentValues values) {
+        final Draft draft = requireDraft(identifier);
+        final String fileName = values.getAsString(STICKER_FILE_NAME_IN_QUERY);
+        if (TextUtils.isEmpty(fileName)) {
+            throw new IllegalArgumentException(STICKER_FILE_NAME_IN_QUERY + " is required");
+        }
+        final Sticker sticker = new Sticker(fileName, parseEmojis(values.getAsString(STICKER_FILE_EMOJI_IN_QUERY)));
+        for (int i = 0; i < draft.stickers.size(); i++) {
+            if (draft.stickers.get(i).imageFileName.equals(fileName)) {
+                draft.stickers.set(i, sticker);
+                return fileName;
+            }
+        }
+        draft.stickers.add(sticker);
+        return fileName;
+    }
+
+    /**
+     * Changes the emojis of the stickers of a pack.
+     *
+     * @param fileName the sticker to change, or null for every sticker of the pack.
+     */
+    int updateStickers(@NonNull String identifier, @NonNull ContentValues values, @Nullable String fileName) {
+        if (values.containsKey(STICKER_FILE_NAME_IN_QUERY)
+                && !TextUtils.equals(fileName, values.getAsString(STICKER_FILE_NAME_IN_QUERY))) {
+            throw new IllegalArgumentException("the file name of a sticker can not be changed");
+        }
+        final Draft draft = getDraft(identifier);
+        if (draft == null || !values.containsKey(STICKER_FILE_EMOJI_IN_QUERY)) {
+            return 0;
+        }
+        final List<String> emojis = parseEmojis(values.getAsString(STICKER_FILE_EMOJI_IN_QUERY));
+        int count = 0;
+        for (int i = 0; i < draft.stickers.size(); i++) {
+            final Sticker sticker = draft.stickers.get(i);
+            if (fileName == null || sticker.imageFileName.equals(fileName)) {
+                draft.stickers.set(i, new Sticker(sticker.imageFileName, new ArrayList<>(emojis)));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param fileName the sticker to remove, or null for every sticker of the pack.
+     */
+    int deleteStickers(@NonNull String identifier, @Nullable String fileName) {
+        final Draft draft = getDraft(identifier);
+        if (draft == null) {
+            return 0;
+        }
+        int count = 0;
+        final Iterator<Sticker> stickers = draft.stickers.iterator();
+        while (stickers.hasNext()) {
+            final Sticker sticker = stickers.next();
+            if (fileName == null || sticker.imageFileName.equals(fileName)) {
+                stickers.remove();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Builds and checks every changed pack.
+     *
+     * @return the changed packs by identifier, with null for removed packs.
+     * @throws IllegalStateException if a changed pack breaks the sticker pack rules.
+     */
+    @NonNull
+    Map<String, StickerPack> build() {
+        final Map<String, StickerPack> stickerPacks = new LinkedHashMap<>();
+        for (Map.Entry<String, Draft> entry : drafts.entrySet()) {
+            stickerPacks.put(entry.getKey(), entry.getValue() != null ? entry.getValue().build() : null);
+        }
+        return stickerPacks;
+    }
+
+    /**
+     * Returns the pending draft of a pack, starting one from the catalog if needed, or null if
+     * the pack does not exist.
+     */
+    @Nullable
+    private Draft getDraft(@NonNull String identifier) {
+        if (drafts.containsKey(identifier)) {
+            return drafts.get(identifier);
+        }
+        final StickerPack stickerPack = catalog.getStickerPack(identifier);
+        if (stickerPack == null) {
+            return null;
+        }
+        final Draft draft = new Draft(stickerPack);
+        drafts.put(identifier, draft);
+        return draft;
+    }
+
+    @NonNull
+    private Draft requireDraft(@NonNull String identifier) {
+        final Draft draft = getDraft(identifier);
+        if (draft == null) {
+            throw new IllegalArgumentException("there is no sticker pack with identifier " + identifier);
+        }
+        return draft;
+    }
+
+    @NonNull
+    private static List<String> parseEmojis(@Nullable String emojis) {
+        if (TextUtils.isEmpty(emojis)) {
+            return new ArrayList<>(ContentFileParser.LIMIT_EMOJI_COUNT);
+        }
+        return new ArrayList<>(Arrays.asList(emojis.split(",")));
+    }
+
+    /**
+     * Mutable copy of a pack while it is being edited.
+     */
+    private final class Draft {
+        final String identifier;
+        String name;
+        String publisher;
+        String trayImageFile;
+        String publisherEmail;
+        String publisherWebsite;
+        String privacyPolicyWebsite;
+        String licenseAgreementWebsite;
+        String imageDataVersion;
+        boolean avoidCache;
+        boolean animatedStickerPack;
+        String androidPlayStoreLink;
+        String iosAppStoreLink;
+        final List<Sticker> stickers;
+
+        Draft(@NonNull String identifier) {
+            this.identifier = identifier;
+            this.stickers = new ArrayList<>();
+            // The store links belong to the whole contents file, not to a single pack.
+            final ContentFileParser.StoreLinks storeLinks = catalog.getStoreLinks();
+            androidPlayStoreLink = storeLinks.androidPlayStoreLink;
+            iosAppStoreLink = storeLinks.iosAppStoreLink;
+        }
+
+        Draft(@NonNull StickerPack stickerPack) {
+            identifier = stickerPack.identifier;
+            name = stickerPack.name;
+            publisher = stickerPack.publisher;
+            trayImageFile = stickerPack.trayImageFile;
+            publisherEmail = stickerPack.publisherEmail;
+            publisherWebsite = stickerPack.publisherWebsite;
+            privacyPolicyWebsite = stickerPack.privacyPolicyWebsite;
+            licenseAgreementWebsite = stickerPack.licenseAgreementWebsite;
+            imageDataVersion = stickerPack.imageDataVersion;
+            avoidCache = stickerPack.avoidCache;
+            animatedStickerPack = stickerPack.animatedStickerPack;
+            androidPlayStoreLink = stickerPack.androidPlayStoreLink;
+            iosAppStoreLink = stickerPack.iosAppStoreLink;
+            stickers = new ArrayList<>(stickerPack.getStickers());
+        }
+
+        void update(@NonNull ContentValues values) {
+            name = getString(values, STICKER_PACK_NAME_IN_QUERY, name);
+            publisher = getString(values, STICKER_PACK_PUBLISHER_IN_QUERY, publisher);
+            trayImageFile = getString(values, STICKER_PACK_ICON_IN_QUERY, trayImageFile);
+            publisherEmail = getString(values, PUBLISHER_EMAIL, publisherEmail);
+            publisherWebsite = getString(values, PUBLISHER_WEBSITE, publisherWebsite);
+            privacyPolicyWebsite = getString(values, PRIVACY_POLICY_WEBSITE, privacyPolicyWebsite);
+            licenseAgreementWebsite = getString(values, LICENSE_AGREEMENT_WEBSITE, licenseAgreementWebsite);
+            imageDataVersion = getString(values, IMAGE_DATA_VERSION, imageDataVersion);
+            avoidCache = getBoolean(values, AVOID_CACHE, avoidCache);
+            animatedStickerPack = getBoolean(values, ANIMATED_STICKER_PACK, animatedStickerPack);
+        }
+
+        @NonNull
+        StickerPack build() {
+            final StickerPack stickerPack = new StickerPack(identifier, name, publisher, trayImageFile, publisherEmail,
+                    publisherWebsite, privacyPolicyWebsite, licenseAgreementWebsite, imageDataVersion, avoidCache,
+                    animatedStickerPack);
+            ContentFileParser.checkStickerPack(stickerPack, stickers);
+            stickerPack.setStickers(Collections.unmodifiableList(new ArrayList<>(stickers)));
+            stickerPack.setAndroidPlayStoreLink(androidPlayStoreLink);
+            stickerPack.setIosAppStoreLink(iosAppStoreLink);
+            return stickerPack;
+        }
+    }
+
+    private static String getString(@NonNull ContentValues values, @NonNull String key, String current) {
+        return values.containsKey(key) ? values.getAsString(key) : current;
+    }
+
+    private static boolean getBoolean(@NonNull ContentValues values, @NonNull String key, boolean current) {
+        final Boolean value = values.getAsBoolean(key);
+        return value != null ? value : current;
+    }
+}
@@ -0,0 +1,145 @@
+package io.github.vincekruger.whatsapp_stickers;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Turns catalog packs into the maps and lists the method channel codec carries, so the app reads
+ * the packs the provider already parsed instead of decoding the contents file again. The keys are
+ * the keys of the contents file, plus the measured file sizes.
+ */
+final class StickerPackExporter {
+    static final String IDENTIFIER = "identifier";
+    static final String NAME = "name";
+    static final String PUBLISHER = "publisher";
+    static final String TRAY_IMAGE_FILE = "tray_image_file";
+    static final String PUBLISHER_EMAIL = "publisher_email";
+    static final String PUBLISHER_WEBSITE = "publisher_website";
+    static final String PRIVACY_POLICY_WEBSITE = "privacy_policy_website";
+    static final String LICENSE_AGREEMENT_WEBSITE = "license_agreement_website";
+    static final String IMAGE_DATA_VERSION = "image_data_version";
+    static final String AVOID_CACHE = "avoid_cache";
+    static final String ANIMATED_STICKER_PACK = "animated_sticker_pack";
+    static final String ANDROID_PLAY_STORE_LINK = "android_play_store_link";
+    static final String IOS_APP_STORE_LINK = "ios_app_store_link";
+    static final String STICKERS = "stickers";
+    static final String TOTAL_SIZE = "total_size";
+    static final String TRAY_IMAGE_SIZE = "tray_image_size";
+
+    private static final Set<String> FIELDS = new HashSet<>(Arrays.asList(IDENTIFIER, NAME, PUBLISHER,
+            TRAY_IMAGE_FILE, PUBLISHER_EMAIL, PUBLISHER_WEBSITE, PRIVACY_POLICY_WEBSITE, LICENSE_AGREEMENT_WEBSITE,
+            IMAGE_DATA_VERSION, AVOID_CACHE, ANIMATED_STICKER_PACK, ANDROID_PLAY_STORE_LINK, IOS_APP_STORE_LINK,
+            STICKERS, TOTAL_SIZE, TRAY_IMAGE_SIZE));
+
+    private StickerPackExporter() {
+    }
+
+    /**
+     * @param fields the keys to export, null for all of them.
+     */
+    @NonNull
+    static ArrayList<HashMap<String, Object>> export(@NonNull List<StickerPack> stickerPacks,
+                                                     @Nullable List<String> fields) {
+        final Set<String> selected = fields != null ? new HashSet<>(fields) : FIELDS;
+        for (String field : selected) {
+            if (!FIELDS.contains(field)) {
+                throw new IllegalArgumentException("unknown sticker pack field: " + field);
+            }
+        }
+        final ArrayList<HashMap<String, Object>> exported = new ArrayList<>(stickerPacks.size());
+        for (StickerPack stickerPack : stickerPacks) {
+            exported.add(export(stickerPack, selected));
+        }
+        return exported;
+    }
+
+    @NonNull
+    private static HashMap<String, Object> export(@NonNull StickerPack stickerPack, @NonNull Set<String> fields) {
+        final HashMap<String, Object> map = new HashMap<>(fields.size() * 2);
+        for (String field : fields) {
+            map.put(field, getField(stickerPack, field));
+        }
+        return map;
+    }
+
+    @Nullable
+    private static Object getField(@NonNull StickerPack stickerPack, @NonNull String field) {
+        switch (field) {
+            case IDENTIFIER:
+                return stickerPack.identifier;
+            case NAME:
+                return stickerPack.name;
+            case PUBLISHER:
+                return stickerPack.publisher;
+            case TRAY_IMAGE_FILE:
+                return stickerPack.trayImageFile;
+            case PUBLISHER_EMAIL:
+                return stickerPack.publisherEmail;
+            case PUBLISHER_WEBSITE:
+                return stickerPack.publisherWebsite;
+            case PRIVACY_POLICY_WEBSITE:
+                return stickerPack.privacyPolicyWebsite;
+            case LICENSE_AGREEMENT_WEBSITE:
+                return stickerPack.licenseAgreementWebsite;
+            case IMAGE_DATA_VERSION:
+                return stickerPack.imageDataVersion;
+            case AVOID_CACHE:
+                return stickerPack.avoidCache;
+            case ANIMATED_STICKER_PACK:
+                return stickerPack.animatedStickerPack;
+            case ANDROID_PLAY_STORE_LINK:
+                return stickerPack.androidPlayStoreLink;
+            case IOS_APP_STORE_LINK:
+                return stickerPack.iosAppStoreLink;
+            case TOTAL_SIZE:
+                return stickerPack.getTotalSize();
+            case TRAY_IMAGE_SIZE:
+                return stickerPack.getTrayImageSize();
+            default:
+                return exportStickers(stickerPack.getStickers());
+        }
+    }
+
+    @NonNull
+    private static ArrayList<HashMap<String, Object>> exportStickers(@NonNull List<Sticker> stickers) {
+        final ArrayList<HashMap<String, Object>> exported = new ArrayList<>(stickers.size());
+        for (Sticker sticker : stickers) {
+            exported.add(exportSticker(sticker));
+        }
+        return exported;
+    }
+
+    /**
+     * Exports stickers found in the emoji index of the catalog, in their ranked order, with the
+     * identifier of their pack.
+     */
+    @NonNull
+    static ArrayList<HashMap<String, Object>> exportMatches(@NonNull StickerPackCatalog catalog,
+                                                            @NonNull List<StickerEmojiIndex.Match> matches) {
+        final ArrayList<HashMap<String, Object>> exported = new ArrayList<>(matches.size());
+        for (StickerEmojiIndex.Match match : matches) {
+            final StickerPack stickerPack = Objects.requireNonNull(catalog.getStickerPack(match.getIdentifier()));
+            final HashMap<String, Object> map = exportSticker(stickerPack.getStickers().get(match.getStickerIndex()));
+            map.put(IDENTIFIER, match.getIdentifier());
+            exported.add(map);
+        }
+        return exported;
+    }
+
+    @NonNull
+    private static HashMap<String, Object> exportSticker(@NonNull Sticker sticker) {
+        final HashMap<String, Object> map = new HashMap<>(8);
+        map.put("image_file", sticker.imageFileName);
+        map.put("emojis", new ArrayList<>(sticker.emojis));
+        map.put("size", sticker.size);
+        return map;
+    }
+}
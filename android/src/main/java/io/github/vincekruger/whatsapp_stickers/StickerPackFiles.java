@@ -0,0 +1,129 @@
+package io.github.vincekruger.whatsapp_stickers;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Access to the sticker and tray image files of the sticker packs, either in the flutter assets
+ * or in the non-asset content directory.
+ */
+final class StickerPackFiles {
+    private static final String TAG = "StickerPackFiles";
+
+    private static final int MAX_IO_THREADS = 4;
+    private static ExecutorService ioExecutor;
+
+    private final String contentPath;
+    private final AssetManager assetManager;
+    @Nullable
+    private final StickerBlobStore blobStore;
+
+    /**
+     * @param assetManager the asset manager for bundled packs, or null when the packs live in {@code contentPath}
+     *                     on disk.
+     * @param blobStore    the store of the files on disk, or null when they are kept in the pack directories.
+     */
+    StickerPackFiles(@NonNull String contentPath, AssetManager assetManager, @Nullable StickerBlobStore blobStore) {
+        this.contentPath = contentPath;
+        this.assetManager = assetManager;
+        this.blobStore = blobStore;
+    }
+
+    @NonNull
+    File getFile(@NonNull String identifier, @NonNull String fileName) {
+        return blobStore != null ? blobStore.resolve(identifier, fileName) : new File(contentPath + identifier, fileName);
+    }
+
+    @NonNull
+    InputStream open(@NonNull String identifier, @NonNull String fileName) throws IOException {
+        return assetManager != null ? assetManager.open(contentPath + identifier + "/" + fileName)
+                : new FileInputStream(getFile(identifier, fileName));
+    }
+
+    /**
+     * Returns the length of a file in bytes, or 0 if it can not be determined.
+     */
+    long getLength(@NonNull String identifier, @NonNull String fileName) {
+        if (assetManager == null) {
+            return getFile(identifier, fileName).length();
+        }
+        try (AssetFileDescriptor fd = assetManager.openFd(contentPath + identifier + "/" + fileName)) {
+            return Math.max(0, fd.getLength());
+        } catch (IOException e) {
+            // Compressed assets can not be opened as a file descriptor.
+            return 0;
+        }
+    }
+
+    /**
+     * Sets the file sizes of the stickers and tray image of a pack.
+     */
+    void measure(@NonNull StickerPack stickerPack) {
+        final List<Sticker> stickers = stickerPack.getStickers();
+        for (int i = 0; i < stickers.size(); i++) {
+            stickerPack.setStickerSize(i, getLength(stickerPack.identifier, stickers.get(i).imageFileName));
+        }
+        stickerPack.setTrayImageSize(getLength(stickerPack.identifier, stickerPack.trayImageFile));
+        stickerPack.updateTotalSize();
+    }
+
+    /**
+     * Sets the file sizes of every pack, measuring the packs in parallel.
+     */
+    void measure(@NonNull List<StickerPack> stickerPacks) {
+        if (stickerPacks.size() < 2) {
+            for (StickerPack stickerPack : stickerPacks) {
+                measure(stickerPack);
+            }
+            return;
+        }
+        final List<Callable<Void>> tasks = new ArrayList<>(stickerPacks.size());
+        for (final StickerPack stickerPack : stickerPacks) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    measure(stickerPack);
+                    return null;
+                }
+            });
+        }
+        try {
+            for (Future<Void> future : getIoExecutor().invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.w(TAG, "Could not measure the sticker files", e.getCause());
+        }
+    }
+
+    /**
+     * Shared pool for blocking file work on sticker files. The threads are daemons, so the pool
+     * never keeps the process alive.
+     */
+    @NonNull
+    static synchronized ExecutorService getIoExecutor() {
+        if (ioExecutor == null) {
+            final int threads = Math.max(2, Math.min(MAX_IO_THREADS, Runtime.getRuntime().availableProcessors()));
+            ioExecutor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("sticker-io"));
+        }
+        return ioExecutor;
+    }
+}
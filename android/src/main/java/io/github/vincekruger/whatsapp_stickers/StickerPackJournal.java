@@ -0,0 +1,270 @@
+package io.github.vincekruger.whatsapp_stickers;
+
+import android.util.JsonReader;
+import android.util.JsonWriter;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only log of sticker pack changes next to the contents file, so updating one pack only
+ * writes that pack instead of the whole contents file.
+ * <p>
+ * The first line is {@code {"contents": <stamp>}}, the {@link ContentFileStamp} of the contents
+ * file the records were written against. Every record after it is one line of JSON, either
+ * {@code {"upsert": <sticker pack>}} or {@code {"remove": "<identifier>"}}. Readers apply the
+ * records on top of the contents file. Compaction folds the records into a new contents file,
+ * written to a temp file and renamed into place, and then deletes the journal.
+ * <p>
+ * Records only apply to the contents file of their stamp. Once the contents file was replaced,
+ * by compaction or by an app writing it directly, a journal that is left over is discarded.
+ */
+final class StickerPackJournal {
+    private static final String TAG = "StickerPackJournal";
+
+    static final String FILE_SUFFIX = ".journal";
+
+    /**
+     * Compaction rewrites the whole contents file, so only do it once the journal has grown enough to
+     * make reading it noticeable.
+     */
+    private static final long COMPACTION_THRESHOLD_BYTES = 256 * 1024;
+
+    private static final String CONTENTS = "contents";
+    private static final String UPSERT = "upsert";
+    private static final String REMOVE = "remove";
+
+    private final File contentFile;
+    private final File journalFile;
+    // Guards both files, so a reader never sees a journal that was already folded into a contents file it did not read.
+    private final Object lock = new Object();
+
+    StickerPackJournal(@NonNull File contentFile) {
+        this.contentFile = contentFile;
+        this.journalFile = new File(contentFile.getPath() + FILE_SUFFIX);
+    }
+
+    @NonNull
+    File getFile() {
+        return journalFile;
+    }
+
+    @NonNull
+    File getContentFile() {
+        return contentFile;
+    }
+
+    /**
+     * The lock held while the contents file is replaced. Holding it keeps compaction from replacing the contents file.
+     */
+    @NonNull
+    Object getLock() {
+        return lock;
+    }
+
+    boolean hasRecords() {
+        return journalFile.length() > 0;
+    }
+
+    boolean needsCompaction() {
+        return journalFile.length() >= COMPACTION_THRESHOLD_BYTES;
+    }
+
+    /**
+     * Reads the contents file with every record applied. The contents file does not have to exist.
+     */
+    @NonNull
+    ContentFileParser.Contents read() throws IOException {
+        synchronized (lock) {
+            final ContentFileParser.Contents contents = readContents();
+            final List<StickerPack> stickerPacks = replay(contents.stickerPacks);
+            for (StickerPack stickerPack : stickerPacks) {
+                stickerPack.setAndroidPlayStoreLink(contents.storeLinks.androidPlayStoreLink);
+                stickerPack.setIosAppStoreLink(contents.storeLinks.iosAppStoreLink);
+            }
+            return new ContentFileParser.Contents(contents.storeLinks, stickerPacks);
+        }
+    }
+
+    /**
+     * Appends the changes in one write. A journal of another contents file is replaced by a new one.
+     *
+     * @param changes the changed packs by identifier, with null for removed packs.
+     */
+    void write(@NonNull Map<String, StickerPack> changes) throws IOException {
+        final StringBuilder records = new StringBuilder();
+        for (Map.Entry<String, StickerPack> change : changes.entrySet()) {
+            final StringWriter record = new StringWriter();
+            try (JsonWriter writer = new JsonWriter(record)) {
+                writer.beginObject();
+                if (change.getValue() != null) {
+                    writer.name(UPSERT);
+                    ContentFileWriter.writeStickerPack(writer, change.getValue());
+                } else {
+                    writer.name(REMOVE).value(change.getKey());
+                }
+                writer.endObject();
+            }
+            // Records start on a new line, so a record cut short by a crash never swallows the next one.
+            records.append('\n').append(record);
+        }
+        synchronized (lock) {
+            if (isWrittenAgainstContentFile()) {
+                writeJournal(records.toString(), true);
+            } else {
+                final StringWriter header = new StringWriter();
+                try (JsonWriter writer = new JsonWriter(header)) {
+                    writer.beginObject();
+                    writer.name(CONTENTS);
+                    ContentFileStamp.of(contentFile).write(writer);
+                    writer.endObject();
+                }
+                writeJournal(header.append(records).toString(), false);
+            }
+        }
+    }
+
+    /**
+     * Writes a new contents file holding every record, plus the given packs, and empties the journal.
+     */
+    void compact(@NonNull List<StickerPack> upserts) throws IOException {
+        synchronized (lock) {
+            final ContentFileParser.Contents contents = readContents();
+            final List<StickerPack> stickerPacks = replay(contents.stickerPacks);
+            for (StickerPack stickerPack : upserts) {
+                upsert(stickerPacks, stickerPack);
+            }
+            ContentFileWriter.write(contentFile, contents.storeLinks, stickerPacks);
+            if (journalFile.exists() && !journalFile.delete()) {
+                // The records are already in the contents file, and no longer match its stamp.
+                Log.w(TAG, "Could not delete " + journalFile);
+            }
+        }
+    }
+
+    void compact() throws IOException {
+        compact(Collections.<StickerPack>emptyList());
+    }
+
+    // Called with lock held.
+    private void writeJournal(@NonNull String text, boolean append) throws IOException {
+        try (FileOutputStream outputStream = new FileOutputStream(journalFile, append)) {
+            outputStream.write(text.getBytes("UTF-8"));
+            outputStream.getFD().sync();
+        }
+    }
+
+    /**
+     * Whether the journal has a header with the stamp of the current contents file.
+     */
+    private boolean isWrittenAgainstContentFile() throws IOException {
+        if (!journalFile.isFile()) {
+            return false;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), "UTF-8"))) {
+            return isHeaderOfContentFile(reader.readLine());
+        }
+    }
+
+    private boolean isHeaderOfContentFile(@Nullable String line) {
+        if (line == null) {
+            return false;
+        }
+        try (JsonReader reader = new JsonReader(new StringReader(line))) {
+            reader.beginObject();
+            return CONTENTS.equals(reader.nextName()) && ContentFileStamp.read(reader).equals(ContentFileStamp.of(contentFile));
+        } catch (IOException | IllegalStateException e) {
+            return false;
+        }
+    }
+
+    @NonNull
+    private ContentFileParser.Contents readContents() throws IOException {
+        if (!contentFile.isFile()) {
+            return new ContentFileParser.Contents(ContentFileParser.StoreLinks.NONE, new ArrayList<StickerPack>());
+        }
+        try (InputStream contentsInputStream = new FileInputStream(contentFile)) {
+            return ContentFileParser.parseContents(contentsInputStream);
+        }
+    }
+
+    /**
+     * Applies the records to a copy of the packs. Records that can not be read, like one cut short
+     * by a crash, are skipped. A journal written against another contents file is deleted instead.
+     */
+    @NonNull
+    private List<StickerPack> replay(@NonNull List<StickerPack> stickerPacks) throws IOException {
+        final List<StickerPack> result = new ArrayList<>(stickerPacks);
+        if (!journalFile.isFile()) {
+            return result;
+        }
+        final boolean discard;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), "UTF-8"))) {
+            discard = !isHeaderOfContentFile(reader.readLine());
+            String line;
+            while (!discard && (line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                try {
+                    applyRecord(result, line);
+                } catch (IOException | IllegalStateException e) {
+                    Log.w(TAG, "Skipping a broken record in " + journalFile + ": " + e.getMessage());
+                }
+            }
+        }
+        if (discard) {
+            Log.w(TAG, "Discarding " + journalFile + ", the contents file was replaced after it was written");
+            if (!journalFile.delete()) {
+                Log.w(TAG, "Could not delete " + journalFile);
+            }
+        }
+        return result;
+    }
+
+    private static void applyRecord(@NonNull List<StickerPack> stickerPacks, @NonNull String record) throws IOException {
+        try (JsonReader reader = new JsonReader(new StringReader(record))) {
+            reader.beginObject();
+            final String operation = reader.nextName();
+            if (UPSERT.equals(operation)) {
+                upsert(stickerPacks, ContentFileParser.readStickerPack(reader));
+            } else if (REMOVE.equals(operation)) {
+                final String identifier = reader.nextString();
+                for (int i = 0; i < stickerPacks.size(); i++) {
+                    if (stickerPacks.get(i).identifier.equals(identifier)) {
+                        stickerPacks.remove(i);
+                        break;
+                    }
+                }
+            } else {
+                throw new IllegalStateException("unknown journal record: " + operation);
+            }
+            reader.endObject();
+        }
+    }
+
+    private static void upsert(@NonNull List<StickerPack> stickerPacks, @NonNull StickerPack stickerPack) {
+        for (int i = 0; i < stickerPacks.size(); i++) {
+            if (stickerPacks.get(i).identifier.equals(stickerPack.identifier)) {
+                stickerPacks.set(i, stickerPack);
+                return;
+            }
+        }
+        stickerPacks.add(stickerPack);
+    }
+}
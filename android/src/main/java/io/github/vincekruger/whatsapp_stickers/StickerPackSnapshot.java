@@ -0,0 +1,317 @@
+package io.github.vincekruger.whatsapp_stickers;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary copy of the sticker packs contents file.
+ * <p>
+ * Layout, all values big endian:
+ * <pre>
+ * header        magic, version, source stamp, counts and the store link string indexes
+ * string index  int offset into the string data for every string
+ * packs         fixed width records of string indexes, flags and the range of stickers
+ * stickers      fixed width records of the file name string index and the range of emojis
+ * emojis        int string index for every emoji of every sticker
+ * string data   int byte length followed by the UTF-8 bytes, for every string
+ * </pre>
+ * Strings are de-duplicated, and a string index of {@link #NO_STRING} stands for null.
+ */
+final class StickerPackSnapshot {
+    static final String FILE_SUFFIX = ".snapshot";
+
+    private static final int MAGIC = 0x57535053; // WSPS
+    private static final int VERSION = 1;
+    private static final int NO_STRING = -1;
+
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8 + 4 + 4 + 4 + 4 + 4 + 4;
+    private static final int PACK_STRING_FIELDS = 9;
+    private static final int PACK_RECORD_SIZE = (PACK_STRING_FIELDS + 3) * 4;
+    private static final int STICKER_RECORD_SIZE = 3 * 4;
+
+    private static final int FLAG_AVOID_CACHE = 1;
+    private static final int FLAG_ANIMATED_STICKER_PACK = 1 << 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer buffer;
+    private final int packCount;
+    private final int packsOffset;
+    private final int stickersOffset;
+    private final int emojisOffset;
+    private final String androidPlayStoreLink;
+    private final String iosAppStoreLink;
+
+    private StickerPackSnapshot(ByteBuffer buffer) {
+        this.buffer = buffer;
+        final int stringCount = buffer.getInt(32);
+        final int stickerCount = buffer.getInt(40);
+        packCount = buffer.getInt(36);
+        packsOffset = HEADER_SIZE + stringCount * 4;
+        stickersOffset = packsOffset + packCount * PACK_RECORD_SIZE;
+        emojisOffset = stickersOffset + stickerCount * STICKER_RECORD_SIZE;
+        // A snapshot cut short, e.g. by a full disk, is rejected here rather than failing a later read.
+        long end = emojisOffset + (long) buffer.getInt(44) * 4;
+        if (stringCount > 0) {
+            final int lastString = buffer.getInt(HEADER_SIZE + (stringCount - 1) * 4);
+            end = lastString + 4L + buffer.getInt(lastString);
+        }
+        if (end != buffer.limit()) {
+            throw new IllegalArgumentException("snapshot has " + buffer.limit() + " bytes, expected " + end);
+        }
+        androidPlayStoreLink = string(buffer.getInt(48), null);
+        iosAppStoreLink = string(buffer.getInt(52), null);
+    }
+
+    /**
+     * Maps the snapshot if it exists and was written for the given version of the contents file.
+     * The mapping stays valid after the snapshot file is replaced.
+     *
+     * @return the snapshot, or null when there is no usable snapshot.
+     */
+    @Nullable
+    static StickerPackSnapshot open(@NonNull File snapshotFile, @NonNull ContentFileStamp sourceStamp) throws IOException {
+        if (!snapshotFile.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(snapshotFile, "r");
+             FileChannel channel = file.getChannel()) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                return null;
+            }
+            if (buffer.getLong(8) != sourceStamp.lastModified || buffer.getLong(16) != sourceStamp.length
+                    || buffer.getLong(24) != sourceStamp.inode) {
+                return null;
+            }
+            return new StickerPackSnapshot(buffer);
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("sticker pack snapshot is corrupt", e);
+        }
+    }
+
+    /**
+     * Writes the snapshot for the given version of the contents file. The snapshot is written to
+     * a temporary file first and renamed, so readers never see a partial snapshot.
+     */
+    static void write(@NonNull File snapshotFile, @NonNull ContentFileStamp sourceStamp,
+                      @NonNull List<StickerPack> stickerPacks) throws IOException {
+        final Writer writer = new Writer(stickerPacks);
+        final File tempFile = new File(snapshotFile.getPath() + ".tmp");
+        try (FileOutputStream fileOutputStream = new FileOutputStream(tempFile)) {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOutputStream));
+            writer.write(out, sourceStamp);
+            out.flush();
+            fileOutputStream.getFD().sync();
+        }
+        if (!tempFile.renameTo(snapshotFile)) {
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+            throw new IOException("could not rename sticker pack snapshot to " + snapshotFile);
+        }
+    }
+
+    int getStickerPackCount() {
+        return packCount;
+    }
+
+    /**
+     * Returns the store links of the contents file, which are kept in the header.
+     */
+    @NonNull
+    ContentFileParser.StoreLinks getStoreLinks() {
+        return new ContentFileParser.StoreLinks(androidPlayStoreLink, iosAppStoreLink);
+    }
+
+    @NonNull
+    String readIdentifier(int packIndex) {
+        return string(buffer.getInt(packsOffset + packIndex * PACK_RECORD_SIZE), null);
+    }
+
+    /**
+     * Materializes every sticker pack. Strings shared between packs, like emojis, are decoded once.
+     */
+    @NonNull
+    List<StickerPack> readStickerPacks() {
+        final String[] strings = new String[buffer.getInt(32)];
+        final List<StickerPack> stickerPacks = new ArrayList<>(packCount);
+        for (int i = 0; i < packCount; i++) {
+            stickerPacks.add(readStickerPack(i, strings, true));
+        }
+        return stickerPacks;
+    }
+
+    /**
+     * Materializes a single sticker pack without touching the records of the other packs.
+     */
+    @NonNull
+    StickerPack readStickerPack(int packIndex) {
+        return readStickerPack(packIndex, null, true);
+    }
+
+    /**
+     * Materializes the fields of a pack without its stickers, for the metadata cursor.
+     */
+    @NonNull
+    StickerPack readStickerPackMetadata(int packIndex) {
+        return readStickerPack(packIndex, null, false);
+    }
+
+    private StickerPack readStickerPack(int packIndex, String[] strings, boolean withStickers) {
+        final int record = packsOffset + packIndex * PACK_RECORD_SIZE;
+        final int flags = buffer.getInt(record + PACK_STRING_FIELDS * 4);
+        final int firstSticker = buffer.getInt(record + PACK_STRING_FIELDS * 4 + 4);
+        final int stickerCount = buffer.getInt(record + PACK_STRING_FIELDS * 4 + 8);
+        final StickerPack stickerPack = new StickerPack(string(buffer.getInt(record), strings),
+                string(buffer.getInt(record + 4), strings), string(buffer.getInt(record + 8), strings),
+                string(buffer.getInt(record + 12), strings), string(buffer.getInt(record + 16), strings),
+                string(buffer.getInt(record + 20), strings), string(buffer.getInt(record + 24), strings),
+                string(buffer.getInt(record + 28), strings), string(buffer.getInt(record + 32), strings),
+                (flags & FLAG_AVOID_CACHE) != 0, (flags & FLAG_ANIMATED_STICKER_PACK) != 0);
+
+        final List<Sticker> stickers = new ArrayList<>(withStickers ? stickerCount : 0);
+        for (int i = firstSticker; withStickers && i < firstSticker + stickerCount; i++) {
+            final int stickerRecord = stickersOffset + i * STICKER_RECORD_SIZE;
+            final int firstEmoji = buffer.getInt(stickerRecord + 4);
+            final int emojiCount = buffer.getInt(stickerRecord + 8);
+            final List<String> emojis = new ArrayList<>(emojiCount);
+            for (int j = firstEmoji; j < firstEmoji + emojiCount; j++) {
+                emojis.add(string(buffer.getInt(emojisOffset + j * 4), strings));
+            }
+            stickers.add(new Sticker(string(buffer.getInt(stickerRecord), strings), emojis));
+        }
+        stickerPack.setStickers(stickers);
+        stickerPack.setAndroidPlayStoreLink(androidPlayStoreLink);
+        stickerPack.setIosAppStoreLink(iosAppStoreLink);
+        return stickerPack;
+    }
+
+    private String string(int index, String[] strings) {
+        if (index == NO_STRING) {
+            return null;
+        }
+        String value = strings == null ? null : strings[index];
+        if (value == null) {
+            final int offset = buffer.getInt(HEADER_SIZE + index * 4);
+            final byte[] bytes = new byte[buffer.getInt(offset)];
+            // Work on a duplicate, the position of the shared buffer is not thread safe.
+            final ByteBuffer stringData = buffer.duplicate();
+            stringData.position(offset + 4);
+            stringData.get(bytes);
+            value = new String(bytes, UTF_8);
+            if (strings != null) {
+                strings[index] = value;
+            }
+        }
+        return value;
+    }
+
+    private static final class Writer {
+        private final List<StickerPack> stickerPacks;
+        private final Map<String, Integer> stringIndexes = new HashMap<>();
+        private final List<byte[]> strings = new ArrayList<>();
+        private int stickerCount;
+        private int emojiCount;
+
+        Writer(List<StickerPack> stickerPacks) {
+            this.stickerPacks = stickerPacks;
+            for (StickerPack stickerPack : stickerPacks) {
+                stickerCount += stickerPack.getStickers().size();
+                for (Sticker sticker : stickerPack.getStickers()) {
+                    emojiCount += sticker.emojis.size();
+                }
+            }
+        }
+
+        void write(DataOutputStream out, ContentFileStamp sourceStamp) throws IOException {
+            final StickerPack first = stickerPacks.isEmpty() ? null : stickerPacks.get(0);
+            final int androidPlayStoreLink = index(first == null ? null : first.androidPlayStoreLink);
+            final int iosAppStoreLink = index(first == null ? null : first.iosAppStoreLink);
+
+            final ByteBuffer packs = ByteBuffer.allocate(stickerPacks.size() * PACK_RECORD_SIZE);
+            final ByteBuffer stickers = ByteBuffer.allocate(stickerCount * STICKER_RECORD_SIZE);
+            final ByteBuffer emojis = ByteBuffer.allocate(emojiCount * 4);
+            int nextSticker = 0;
+            int nextEmoji = 0;
+            for (StickerPack stickerPack : stickerPacks) {
+                packs.putInt(index(stickerPack.identifier));
+                packs.putInt(index(stickerPack.name));
+                packs.putInt(index(stickerPack.publisher));
+                packs.putInt(index(stickerPack.trayImageFile));
+                packs.putInt(index(stickerPack.publisherEmail));
+                packs.putInt(index(stickerPack.publisherWebsite));
+                packs.putInt(index(stickerPack.privacyPolicyWebsite));
+                packs.putInt(index(stickerPack.licenseAgreementWebsite));
+                packs.putInt(index(stickerPack.imageDataVersion));
+                packs.putInt((stickerPack.avoidCache ? FLAG_AVOID_CACHE : 0)
+                        | (stickerPack.animatedStickerPack ? FLAG_ANIMATED_STICKER_PACK : 0));
+                packs.putInt(nextSticker);
+                packs.putInt(stickerPack.getStickers().size());
+                for (Sticker sticker : stickerPack.getStickers()) {
+                    stickers.putInt(index(sticker.imageFileName));
+                    stickers.putInt(nextEmoji);
+                    stickers.putInt(sticker.emojis.size());
+                    for (String emoji : sticker.emojis) {
+                        emojis.putInt(index(emoji));
+                        nextEmoji++;
+                    }
+                    nextSticker++;
+                }
+            }
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(sourceStamp.lastModified);
+            out.writeLong(sourceStamp.length);
+            out.writeLong(sourceStamp.inode);
+            out.writeInt(strings.size());
+            out.writeInt(stickerPacks.size());
+            out.writeInt(stickerCount);
+            out.writeInt(emojiCount);
+            out.writeInt(androidPlayStoreLink);
+            out.writeInt(iosAppStoreLink);
+
+            int stringOffset = HEADER_SIZE + strings.size() * 4 + packs.capacity() + stickers.capacity()
+                    + emojis.capacity();
+            for (byte[] string : strings) {
+                out.writeInt(stringOffset);
+                stringOffset += 4 + string.length;
+            }
+            out.write(packs.array());
+            out.write(stickers.array());
+            out.write(emojis.array());
+            for (byte[] string : strings) {
+                out.writeInt(string.length);
+                out.write(string);
+            }
+        }
+
+        private int index(String value) {
+            if (value == null) {
+                return NO_STRING;
+            }
+            Integer index = stringIndexes.get(value);
+            if (index == null) {
+                index = strings.size();
+                stringIndexes.put(value, index);
+                strings.add(value.getBytes(UTF_8));
+            }
+            return index;
+        }
+    }
+}
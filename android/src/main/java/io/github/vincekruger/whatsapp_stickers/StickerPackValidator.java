@@ -0,0 +1,327 @@
+package io.github.vincekruger.whatsapp_stickers;
+
+import androidx.annotation.NonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Checks a sticker pack against the rules WhatsApp applies when a pack is added, so problems can be
+ * reported before the ENABLE_STICKER_PACK round trip. The image files are checked in parallel and
+ * the reports are cached per identifier and image data version.
+ */
+final class StickerPackValidator {
+    private static final int STICKER_COUNT_MIN = 3;
+    private static final int STICKER_COUNT_MAX = 30;
+    private static final int EMOJI_COUNT_MIN = 1;
+    private static final int CHAR_COUNT_MAX = 128;
+    private static final long STATIC_STICKER_FILE_SIZE_MAX = 100 * 1024;
+    private static final long ANIMATED_STICKER_FILE_SIZE_MAX = 500 * 1024;
+    private static final long TRAY_IMAGE_FILE_SIZE_MAX = 50 * 1024;
+    private static final int STICKER_DIMENSION = 512;
+    private static final int TRAY_IMAGE_DIMENSION_MIN = 24;
+    private static final int TRAY_IMAGE_DIMENSION_MAX = 512;
+    private static final int FRAME_DURATION_MIN_MS = 8;
+    private static final int TOTAL_DURATION_MAX_MS = 10000;
+
+    // Files this large are broken anyway, don't read them into memory.
+    private static final long READ_LIMIT = 2 * ANIMATED_STICKER_FILE_SIZE_MAX;
+
+    private final StickerPackFiles stickerPackFiles;
+    private final Map<String, Report> reports = new ConcurrentHashMap<>();
+
+    StickerPackValidator(@NonNull StickerPackFiles stickerPackFiles) {
+        this.stickerPackFiles = stickerPackFiles;
+    }
+
+    @NonNull
+    Report validate(@NonNull final StickerPack stickerPack) {
+        final String key = stickerPack.identifier + "/" + stickerPack.imageDataVersion;
+        Report report = reports.get(key);
+        if (report == null) {
+            report = new Report(stickerPack.identifier, stickerPack.imageDataVersion, check(stickerPack));
+            reports.put(key, report);
+        }
+        return report;
+    }
+
+    void clear() {
+        reports.clear();
+    }
+
+    @NonNull
+    private List<String> check(@NonNull final StickerPack stickerPack) {
+        final List<String> errors = new ArrayList<>();
+        checkLength(errors, "identifier", stickerPack.identifier);
+        checkLength(errors, "name", stickerPack.name);
+        checkLength(errors, "publisher", stickerPack.publisher);
+
+        final List<Sticker> stickers = stickerPack.getStickers();
+        if (stickers.size() < STICKER_COUNT_MIN || stickers.size() > STICKER_COUNT_MAX) {
+            errors.add("sticker pack should have between " + STICKER_COUNT_MIN + " and " + STICKER_COUNT_MAX
+                    + " stickers, it has " + stickers.size());
+        }
+        for (Sticker sticker : stickers) {
+            if (sticker.emojis.size() < EMOJI_COUNT_MIN || sticker.emojis.size() > ContentFileParser.LIMIT_EMOJI_COUNT) {
+                errors.add(sticker.imageFileName + ": sticker should have between " + EMOJI_COUNT_MIN + " and "
+                        + ContentFileParser.LIMIT_EMOJI_COUNT + " emojis, it has " + sticker.emojis.size());
+            }
+        }
+
+        final List<Callable<List<String>>> tasks = new ArrayList<>(stickers.size() + 1);
+        tasks.add(new Callable<List<String>>() {
+            @Override
+            public List<String> call() {
+                return checkTrayImage(stickerPack);
+            }
+        });
+        for (final Sticker sticker : stickers) {
+            tasks.add(new Callable<List<String>>() {
+                @Override
+                public List<String> call() {
+                    return checkSticker(stickerPack, sticker);
+                }
+            });
+        }
+        try {
+            for (Future<List<String>> future : StickerPackFiles.getIoExecutor().invokeAll(tasks)) {
+                errors.addAll(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            errors.add("validation was interrupted");
+        } catch (ExecutionException e) {
+            errors.add("validation failed: " + e.getCause());
+        }
+        return errors;
+    }
+
+    private static void checkLength(List<String> errors, String field, String value) {
+        if (value != null && value.length() > CHAR_COUNT_MAX) {
+            errors.add(field + " should not be longer than " + CHAR_COUNT_MAX + " characters");
+        }
+    }
+
+    @NonNull
+    private List<String> checkTrayImage(StickerPack stickerPack) {
+        final String fileName = stickerPack.trayImageFile;
+        final List<String> errors = new ArrayList<>();
+        if (!fileName.endsWith(".png") && !fileName.endsWith(".webp")) {
+            errors.add(fileName + ": tray image should be a png or webp file");
+            return errors;
+        }
+        final ImageInfo info = readImageInfo(errors, stickerPack.identifier, fileName, TRAY_IMAGE_FILE_SIZE_MAX);
+        if (info == null) {
+            return errors;
+        }
+        if (info.width < TRAY_IMAGE_DIMENSION_MIN || info.width > TRAY_IMAGE_DIMENSION_MAX
+                || info.height < TRAY_IMAGE_DIMENSION_MIN || info.height > TRAY_IMAGE_DIMENSION_MAX) {
+            errors.add(fileName + ": tray image should be between " + TRAY_IMAGE_DIMENSION_MIN + " and "
+                    + TRAY_IMAGE_DIMENSION_MAX + " pixels wide and high, it is " + info.width + "x" + info.height);
+        }
+        return errors;
+    }
+
+    @NonNull
+    private List<String> checkSticker(StickerPack stickerPack, Sticker sticker) {
+        final String fileName = sticker.imageFileName;
+        final List<String> errors = new ArrayList<>();
+        final long sizeMax = stickerPack.animatedStickerPack ? ANIMATED_STICKER_FILE_SIZE_MAX : STATIC_STICKER_FILE_SIZE_MAX;
+        final ImageInfo info = readImageInfo(errors, stickerPack.identifier, fileName, sizeMax);
+        if (info == null) {
+            return errors;
+        }
+        if (!info.webp) {
+            errors.add(fileName + ": sticker should be a webp file");
+            return errors;
+        }
+        if (info.width != STICKER_DIMENSION || info.height != STICKER_DIMENSION) {
+            errors.add(fileName + ": sticker should be " + STICKER_DIMENSION + "x" + STICKER_DIMENSION
+                    + ", it is " + info.width + "x" + info.height);
+        }
+        if (stickerPack.animatedStickerPack != info.animated) {
+            errors.add(fileName + (stickerPack.animatedStickerPack
+                    ? ": animated sticker pack contains a static sticker"
+                    : ": static sticker pack contains an animated sticker"));
+        }
+        if (info.animated && info.totalDuration > 0) {
+            if (info.frameDurationMin < FRAME_DURATION_MIN_MS) {
+                errors.add(fileName + ": animated sticker frames should last at least " + FRAME_DURATION_MIN_MS
+                        + "ms, the shortest lasts " + info.frameDurationMin + "ms");
+            }
+            if (info.totalDuration > TOTAL_DURATION_MAX_MS) {
+                errors.add(fileName + ": animated sticker should not last longer than " + TOTAL_DURATION_MAX_MS
+                        + "ms, it lasts " + info.totalDuration + "ms");
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * Reads the file and its image header, adding an error and returning null when the file can not be used.
+     */
+    private ImageInfo readImageInfo(List<String> errors, String identifier, String fileName, long sizeMax) {
+        final long size = stickerPackFiles.getLength(identifier, fileName);
+        if (size > sizeMax) {
+            errors.add(fileName + ": file should be at most " + sizeMax / 1024 + "KB, it is " + size / 1024 + "KB");
+            if (size > READ_LIMIT) {
+                return null;
+            }
+        }
+        final byte[] data;
+        try (InputStream inputStream = stickerPackFiles.open(identifier, fileName)) {
+            data = readFully(inputStream);
+        } catch (IOException e) {
+            errors.add(fileName + ": file can not be read: " + e.getMessage());
+            return null;
+        }
+        // The length of compressed assets is only known once they are read.
+        if (size <= sizeMax && data.length > sizeMax) {
+            errors.add(fileName + ": file should be at most " + sizeMax / 1024 + "KB, it is " + data.length / 1024 + "KB");
+        }
+        final ImageInfo info = ImageInfo.parse(data);
+        if (info == null) {
+            errors.add(fileName + ": file is not a valid png or webp image");
+        }
+        return info;
+    }
+
+    private static byte[] readFully(InputStream inputStream) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[16 * 1024];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+            if (out.size() > READ_LIMIT) {
+                throw new IOException("file is larger than " + READ_LIMIT / 1024 + "KB");
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Validation result of one version of a sticker pack.
+     */
+    static final class Report {
+        final String identifier;
+        final String imageDataVersion;
+        final List<String> errors;
+
+        Report(String identifier, String imageDataVersion, List<String> errors) {
+            this.identifier = identifier;
+            this.imageDataVersion = imageDataVersion;
+            this.errors = Collections.unmodifiableList(errors);
+        }
+
+        boolean isValid() {
+            return errors.isEmpty();
+        }
+
+        @NonNull
+        HashMap<String, Object> toMap() {
+            final HashMap<String, Object> map = new HashMap<>();
+            map.put("identifier", identifier);
+            map.put("imageDataVersion", imageDataVersion);
+            map.put("valid", isValid());
+            map.put("errors", new ArrayList<>(errors));
+            return map;
+        }
+    }
+
+    /**
+     * What the validator needs to know from a png or webp header.
+     */
+    static final class ImageInfo {
+        boolean webp;
+        boolean animated;
+        int width;
+        int height;
+        int frameDurationMin = Integer.MAX_VALUE;
+        int totalDuration;
+
+        static ImageInfo parse(byte[] data) {
+            if (data.length >= 24 && (data[0] & 0xff) == 0x89 && data[1] == 'P' && data[2] == 'N' && data[3] == 'G') {
+                final ImageInfo info = new ImageInfo();
+                info.width = readInt32BigEndian(data, 16);
+                info.height = readInt32BigEndian(data, 20);
+                return info;
+            }
+            if (data.length >= 12 && isFourCc(data, 0, "RIFF") && isFourCc(data, 8, "WEBP")) {
+                return parseWebp(data);
+            }
+            return null;
+        }
+
+        private static ImageInfo parseWebp(byte[] data) {
+            final ImageInfo info = new ImageInfo();
+            info.webp = true;
+            boolean hasSize = false;
+            int offset = 12;
+            while (offset + 8 <= data.length) {
+                final int chunkSize = readInt32LittleEndian(data, offset + 4);
+                final int payload = offset + 8;
+                if (chunkSize < 0 || chunkSize > data.length - payload) {
+                    return null;
+                }
+                if (isFourCc(data, offset, "VP8X") && chunkSize >= 10) {
+                    info.animated = (data[payload] & 0x02) != 0;
+                    info.width = readInt24LittleEndian(data, payload + 4) + 1;
+                    info.height = readInt24LittleEndian(data, payload + 7) + 1;
+                    hasSize = true;
+                } else if (isFourCc(data, offset, "VP8 ") && chunkSize >= 10 && !hasSize) {
+                    info.width = readInt16LittleEndian(data, payload + 6) & 0x3fff;
+                    info.height = readInt16LittleEndian(data, payload + 8) & 0x3fff;
+                    hasSize = true;
+                } else if (isFourCc(data, offset, "VP8L") && chunkSize >= 5 && !hasSize) {
+                    final int bits = readInt32LittleEndian(data, payload + 1);
+                    info.width = (bits & 0x3fff) + 1;
+                    info.height = ((bits >> 14) & 0x3fff) + 1;
+                    hasSize = true;
+                } else if (isFourCc(data, offset, "ANMF") && chunkSize >= 16) {
+                    final int duration = readInt24LittleEndian(data, payload + 12);
+                    info.frameDurationMin = Math.min(info.frameDurationMin, duration);
+                    info.totalDuration += duration;
+                }
+                // Chunks are padded to an even size.
+                offset = payload + chunkSize + (chunkSize & 1);
+            }
+            return hasSize ? info : null;
+        }
+
+        private static boolean isFourCc(byte[] data, int offset, String fourCc) {
+            for (int i = 0; i < 4; i++) {
+                if (data[offset + i] != fourCc.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int readInt16LittleEndian(byte[] data, int offset) {
+            return (data[offset] & 0xff) | (data[offset + 1] & 0xff) << 8;
+        }
+
+        private static int readInt24LittleEndian(byte[] data, int offset) {
+            return readInt16LittleEndian(data, offset) | (data[offset + 2] & 0xff) << 16;
+        }
+
+        private static int readInt32LittleEndian(byte[] data, int offset) {
+            return readInt24LittleEndian(data, offset) | (data[offset + 3] & 0xff) << 24;
+        }
+
+        private static int readInt32BigEndian(byte[] data, int offset) {
+            return (data[offset] & 0xff) << 24 | (data[offset + 1] & 0xff) << 16 | (data[offset + 2] & 0xff) << 8
+                    | (data[offset + 3] & 0xff);
+        }
+    }
+}
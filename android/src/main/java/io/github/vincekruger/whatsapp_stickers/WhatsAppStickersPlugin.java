@@ -1,121 +1,406 @@
 package io.github.vincekruger.whatsapp_stickers;
 
 import android.annotation.TargetApi;
+import android.app.Activity;
 import android.content.ActivityNotFoundException;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.net.Uri;
 import androidx.annotation.NonNull;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
+import io.flutter.embedding.engine.plugins.FlutterPlugin;
+import io.flutter.embedding.engine.plugins.activity.ActivityAware;
+import io.flutter.embedding.engine.plugins.activity.ActivityPluginBinding;
+import io.flutter.plugin.common.BinaryMessenger;
 import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel;
 import io.flutter.plugin.common.MethodChannel.MethodCallHandler;
 import io.flutter.plugin.common.MethodChannel.Result;
-import io.flutter.plugin.common.PluginRegistry.NewIntentListener;
 import io.flutter.plugin.common.PluginRegistry.Registrar;
 import static io.github.vincekruger.whatsapp_stickers.StickerPackActivity.ADD_PACK;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * WhatsAppStickersPlugin
  */
-public class WhatsAppStickersPlugin extends BroadcastReceiver implements MethodCallHandler {
+public class WhatsAppStickersPlugin extends BroadcastReceiver
+        implements FlutterPlugin, ActivityAware, MethodCallHandler {
     private final String TAG = "WhatsAppStickersPlugin";
-    private final Registrar registrar;
-    private final MethodChannel channel;
+    private static final String CHANNEL_NAME = "io.github.vincekruger/whatsapp_stickers";
 
+    /**
+     * Most method calls that block on binder or disk at once; everything else runs on the main thread.
+     */
+    private static final int MAX_BACKGROUND_CALLS = 4;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private Context context;
+    private MethodChannel channel;
+    private ExecutorService backgroundExecutor;
+    private StickerPackActivity stickerPackActivity;
+    private Activity activity;
+    private ActivityPluginBinding activityBinding;
+
+    /**
+     * Registration for apps that still use the v1 embedding.
+     */
     public static void registerWith(Registrar registrar) {
-        final MethodChannel channel = new MethodChannel(registrar.messenger(),
-                "io.github.vincekruger/whatsapp_stickers");
-        final WhatsAppStickersPlugin plugin = new WhatsAppStickersPlugin(registrar, channel);
-        channel.setMethodCallHandler(plugin);
+        final WhatsAppStickersPlugin plugin = new WhatsAppStickersPlugin();
+        plugin.onAttachedToEngine(registrar.context(), registrar.messenger());
+        plugin.activity = registrar.activity();
+        // The registrar has no way to remove listeners again, so it keeps this one for good.
+        registrar.addActivityResultListener(plugin.stickerPackActivity);
     }
 
-    private WhatsAppStickersPlugin(Registrar registrar, MethodChannel channel) {
-        this.registrar = registrar;
-        this.channel = channel;
+    @Override
+    public void onAttachedToEngine(@NonNull FlutterPluginBinding binding) {
+        onAttachedToEngine(binding.getApplicationContext(), binding.getBinaryMessenger());
+    }
+
+    private void onAttachedToEngine(Context context, BinaryMessenger messenger) {
+        this.context = context;
+        channel = new MethodChannel(messenger, CHANNEL_NAME);
+        channel.setMethodCallHandler(this);
+        backgroundExecutor = Executors.newFixedThreadPool(MAX_BACKGROUND_CALLS, new DaemonThreadFactory("whatsapp-stickers"));
 
         IntentFilter intentFilter = new IntentFilter();
         intentFilter.addAction(StickerPackActivity.ACTION_STICKER_PACK_RESULT);
         intentFilter.addAction(StickerPackActivity.ACTION_STICKER_PACK_ERROR);
-        LocalBroadcastManager manager = LocalBroadcastManager.getInstance(registrar.context());
+        LocalBroadcastManager manager = LocalBroadcastManager.getInstance(context);
         manager.registerReceiver(this, intentFilter);
+
+        // One listener for every add request, the identifier is set before each request.
+        stickerPackActivity = new StickerPackActivity(context);
+
+        WhitelistCheck.registerPackageReceiver(context);
+    }
+
+    @Override
+    public void onDetachedFromEngine(@NonNull FlutterPluginBinding binding) {
+        channel.setMethodCallHandler(null);
+        LocalBroadcastManager.getInstance(context).unregisterReceiver(this);
+        backgroundExecutor.shutdown();
+        channel = null;
+        context = null;
+    }
+
+    @Override
+    public void onAttachedToActivity(@NonNull ActivityPluginBinding binding) {
+        activityBinding = binding;
+        activity = binding.getActivity();
+        binding.addActivityResultListener(stickerPackActivity);
+    }
+
+    @Override
+    public void onDetachedFromActivityForConfigChanges() {
+        onDetachedFromActivity();
+    }
+
+    @Override
+    public void onReattachedToActivityForConfigChanges(@NonNull ActivityPluginBinding binding) {
+        onAttachedToActivity(binding);
+    }
+
+    @Override
+    public void onDetachedFromActivity() {
+        if (activityBinding != null) {
+            activityBinding.removeActivityResultListener(stickerPackActivity);
+            activityBinding = null;
+        }
+        activity = null;
     }
 
     @TargetApi(Build.VERSION_CODES.GINGERBREAD)
     @Override
-    public void onMethodCall(MethodCall call, Result result) {
+    public void onMethodCall(final MethodCall call, final Result result) {
         switch (call.method) {
             case "getPlatformVersion":
                 result.success("Android " + android.os.Build.VERSION.RELEASE);
                 break;
             case "isWhatsAppInstalled": {
-                result.success(WhitelistCheck.isWhatsAppInstalled(registrar.context()));
+                runInBackground(result, new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        return WhitelistCheck.isWhatsAppInstalled(context);
+                    }
+                });
                 break;
             }
             case "isWhatsAppConsumerAppInstalled": {
-                result.success(WhitelistCheck.isWhatsAppConsumerAppInstalled(registrar.context().getPackageManager()));
+                runInBackground(result, new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        return WhitelistCheck.isWhatsAppConsumerAppInstalled(context.getPackageManager());
+                    }
+                });
                 break;
             }
             case "isWhatsAppSmbAppInstalled": {
-                result.success(WhitelistCheck.isWhatsAppSmbAppInstalled(registrar.context().getPackageManager()));
+                runInBackground(result, new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        return WhitelistCheck.isWhatsAppSmbAppInstalled(context.getPackageManager());
+                    }
+                });
                 break;
             }
             case "launchWhatsApp": {
-                Intent launchIntent = registrar.context().getPackageManager()
+                if (activity == null) {
+                    result.error("no_activity", "WhatsApp can only be launched from an activity", null);
+                    break;
+                }
+                Intent launchIntent = context.getPackageManager()
                         .getLaunchIntentForPackage(WhitelistCheck.CONSUMER_WHATSAPP_PACKAGE_NAME);
-                registrar.activity().startActivity(launchIntent);
+                activity.startActivity(launchIntent);
                 result.success(true);
                 break;
             }
             case "isStickerPackInstalled": {
-                String stickerPackIdentifier = call.argument("identifier");
-                final boolean installed = WhitelistCheck.isWhitelisted(registrar.context(), stickerPackIdentifier);
-                result.success(installed);
+                final String stickerPackIdentifier = call.argument("identifier");
+                runInBackground(result, new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        return WhitelistCheck.isWhitelisted(context, stickerPackIdentifier);
+                    }
+                });
+                break;
+            }
+            case "isStickerPacksInstalled": {
+                List<String> stickerPackIdentifiers = call.argument("identifiers");
+                WhitelistCheck.isWhitelisted(context, stickerPackIdentifiers, new WhitelistCheck.Callback() {
+                    @Override
+                    public void onResult(@NonNull Map<String, Boolean> installed) {
+                        result.success(installed);
+                    }
+                });
                 break;
             }
             case "addStickerPack": {
-                StickerPackActivity stickerPackActivity = new StickerPackActivity(registrar.context());
-                registrar.addActivityResultListener(stickerPackActivity);
-
                 String whatsAppPackage = call.argument("package");
                 String stickerPackIdentifier = call.argument("identifier");
                 String stickerPackName = call.argument("name");
+                stickerPackActivity.setStickerPackIdentifier(stickerPackIdentifier);
 
                 Intent intent = StickerPackActivity.createIntentToAddStickerPack(
-                        getContentProviderAuthority(registrar.context()), stickerPackIdentifier, stickerPackName);
+                        getContentProviderAuthority(context), stickerPackIdentifier, stickerPackName);
                 intent.setPackage(
                         whatsAppPackage.isEmpty() ? WhitelistCheck.CONSUMER_WHATSAPP_PACKAGE_NAME : whatsAppPackage);
 
+                if (activity == null) {
+                    result.error("no_activity", "Sticker packs can only be added from an activity", null);
+                    break;
+                }
                 try {
-                    registrar.activity().startActivityForResult(intent, ADD_PACK);
+                    activity.startActivityForResult(intent, ADD_PACK);
                 } catch (ActivityNotFoundException e) {
                     String errorMessage = "Sticker pack not added. If you'd like to add it, make sure you update to the latest version of WhatsApp.";
                     result.error(errorMessage, "failed", e);
                 }
                 break;
             }
-            case "updatedStickerPackContentsFile":
-                String packageName = registrar.context().getPackageName();
-                String stickerPackIdentifier = call.argument("identifier");
-                Uri uri = Uri.parse("content://" + packageName + ".stickercontentprovider/metadata/" + stickerPackIdentifier);
-                registrar.context().getContentResolver().notifyChange(uri, null);
+            case "getStickerPackSizes": {
+                runInBackground(result, new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        Bundle sizes = context.getContentResolver().call(getContentProviderUri(context),
+                                StickerContentProvider.METHOD_GET_STICKER_PACK_SIZES, call.<String>argument("identifier"), null);
+                        return sizes != null ? sizes.getSerializable(StickerContentProvider.EXTRA_STICKER_PACK_SIZES)
+                                : new HashMap<String, Long>();
+                    }
+                });
+                break;
+            }
+            case "getStickerPacks": {
+                runInBackground(result, new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        List<String> fields = call.argument("fields");
+                        Integer offset = call.argument("offset");
+                        Integer limit = call.argument("limit");
+                        Bundle extras = new Bundle();
+                        extras.putStringArrayList(StickerContentProvider.EXTRA_FIELDS,
+                                fields != null ? new ArrayList<>(fields) : null);
+                        extras.putInt(StickerContentProvider.EXTRA_OFFSET, offset != null ? offset : 0);
+                        extras.putInt(StickerContentProvider.EXTRA_LIMIT, limit != null ? limit : 0);
+                        Bundle page = context.getContentResolver().call(getContentProviderUri(context),
+                                StickerContentProvider.METHOD_GET_STICKER_PACKS, null, extras);
+                        Map<String, Object> stickerPacks = new HashMap<>();
+                        if (page != null) {
+                            stickerPacks.put("stickerPacks", page.getSerializable(StickerContentProvider.EXTRA_STICKER_PACKS));
+                            stickerPacks.put("total", page.getInt(StickerContentProvider.EXTRA_STICKER_PACK_COUNT));
+                        }
+                        return stickerPacks;
+                    }
+                });
+                break;
+            }
+            case "findStickersByEmoji": {
+                runInBackground(result, new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        List<String> emojis = call.argument("emojis");
+                        Integer limit = call.argument("limit");
+                        Bundle extras = new Bundle();
+                        extras.putStringArrayList(StickerContentProvider.EXTRA_EMOJIS,
+                                emojis != null ? new ArrayList<>(emojis) : new ArrayList<String>());
+                        extras.putInt(StickerContentProvider.EXTRA_LIMIT, limit != null ? limit : 0);
+                        Bundle stickers = context.getContentResolver().call(getContentProviderUri(context),
+                                StickerContentProvider.METHOD_FIND_STICKERS_BY_EMOJI, null, extras);
+                        return stickers != null ? stickers.getSerializable(StickerContentProvider.EXTRA_STICKERS)
+                                : new ArrayList<Object>();
+                    }
+                });
                 break;
+            }
+            case "getProviderStats": {
+                runInBackground(result, new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        Bundle stats = context.getContentResolver().call(getContentProviderUri(context),
+                                StickerContentProvider.METHOD_GET_PROVIDER_STATS, null, null);
+                        return stats != null ? stats.getSerializable(StickerContentProvider.EXTRA_PROVIDER_STATS) : null;
+                    }
+                });
+                break;
+            }
+            case "validateStickerPack": {
+                runInBackground(result, new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        Bundle report = context.getContentResolver().call(getContentProviderUri(context),
+                                StickerContentProvider.METHOD_VALIDATE_STICKER_PACK, call.<String>argument("identifier"), null);
+                        return report != null ? report.getSerializable(StickerContentProvider.EXTRA_VALIDATION_REPORT) : null;
+                    }
+                });
+                break;
+            }
+            case "importStickerPackArchives": {
+                runInBackground(result, new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        List<String> paths = call.argument("paths");
+                        List<byte[]> archives = call.argument("archives");
+                        Bundle extras = new Bundle();
+                        extras.putStringArrayList(StickerContentProvider.EXTRA_ARCHIVE_PATHS,
+                                paths != null ? new ArrayList<>(paths) : null);
+                        extras.putSerializable(StickerContentProvider.EXTRA_ARCHIVE_BYTES,
+                                archives != null ? new ArrayList<>(archives) : null);
+                        Bundle imported = context.getContentResolver().call(getContentProviderUri(context),
+                                StickerContentProvider.METHOD_IMPORT_STICKER_PACK_ARCHIVES, null, extras);
+                        return imported != null ? imported.getStringArrayList(StickerContentProvider.EXTRA_IMPORTED_STICKER_PACKS)
+                                : new ArrayList<String>();
+                    }
+                });
+                break;
+            }
+            case "createStickersFromImages": {
+                runInBackground(result, new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        List<String> imagePaths = call.argument("imagePaths");
+                        Bundle extras = new Bundle();
+                        extras.putStringArrayList(StickerContentProvider.EXTRA_IMAGE_PATHS,
+                                imagePaths != null ? new ArrayList<>(imagePaths) : null);
+                        extras.putString(StickerContentProvider.EXTRA_TRAY_IMAGE_PATH, call.<String>argument("trayImagePath"));
+                        Bundle created = context.getContentResolver().call(getContentProviderUri(context),
+                                StickerContentProvider.METHOD_CREATE_STICKERS_FROM_IMAGES, call.<String>argument("identifier"),
+                                extras);
+                        Map<String, Object> files = new HashMap<>();
+                        if (created != null) {
+                            files.put("stickers", created.getStringArrayList(StickerContentProvider.EXTRA_STICKER_FILE_NAMES));
+                            files.put("trayImageFile", created.getString(StickerContentProvider.EXTRA_TRAY_IMAGE_FILE_NAME));
+                        }
+                        return files;
+                    }
+                });
+                break;
+            }
+            case "upsertStickerPack":
+            case "removeStickerPack": {
+                final String method = call.method.equals("upsertStickerPack")
+                        ? StickerContentProvider.METHOD_UPSERT_STICKER_PACK : StickerContentProvider.METHOD_REMOVE_STICKER_PACK;
+                final String argument = call.method.equals("upsertStickerPack")
+                        ? call.<String>argument("stickerPack") : call.<String>argument("identifier");
+                runInBackground(result, new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        context.getContentResolver().call(getContentProviderUri(context), method, argument, null);
+                        return null;
+                    }
+                });
+                break;
+            }
+            case "updatedStickerPackContentsFile": {
+                runInBackground(result, new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        String packageName = context.getPackageName();
+                        String stickerPackIdentifier = call.argument("identifier");
+                        Uri uri = Uri.parse("content://" + packageName + ".stickercontentprovider/metadata/" + stickerPackIdentifier);
+                        context.getContentResolver().call(getContentProviderUri(context),
+                                StickerContentProvider.METHOD_INVALIDATE, stickerPackIdentifier, null);
+                        context.getContentResolver().notifyChange(uri, null);
+                        return null;
+                    }
+                });
+                break;
+            }
             default:
                 result.notImplemented();
                 break;
         }
     }
 
+    /**
+     * Runs a call that blocks on binder or disk off the main thread, and reports its result back on
+     * the main thread as the channel requires.
+     */
+    private void runInBackground(final Result result, final Callable<Object> task) {
+        backgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final Object value = task.call();
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            result.success(value);
+                        }
+                    });
+                } catch (final Exception e) {
+                    Log.e(TAG, "Method call failed", e);
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            result.error("failed", e.getMessage(), null);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
     static String getContentProviderAuthority(Context context) {
         return context.getPackageName() + ".stickercontentprovider";
     }
 
+    static Uri getContentProviderUri(Context context) {
+        return Uri.parse("content://" + getContentProviderAuthority(context));
+    }
+
     // BroadcastReceiver implementation.
     @Override
     public void onReceive(Context context, Intent intent) {
@@ -8,16 +8,31 @@
 
 package io.github.vincekruger.whatsapp_stickers;
 
+import android.content.BroadcastReceiver;
 import android.content.ContentResolver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 
 import androidx.annotation.NonNull;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
 @SuppressWarnings("FieldCanBeLocal")
 class WhitelistCheck {
     private static final String AUTHORITY_QUERY_PARAM = "authority";
@@ -31,6 +46,117 @@ class WhitelistCheck {
 
     private static String TAG = "WhitelistCheck";
 
+    /**
+     * Backstop for changes nobody tells us about, like the user removing a pack inside WhatsApp.
+     */
+    private static final long WHITELIST_CACHE_TTL_MILLIS = 30 * 1000;
+
+    /**
+     * Results of the WhatsApp provider queries, keyed by "package/identifier". Invalidated for a
+     * package when it is installed, updated or removed, and for a pack when it was added.
+     * <p>
+     * Invalidating replaces an entry with a new invalidated one instead of removing it, and a query
+     * only stores its result in place of the entry it started from. A query that was in flight
+     * while its entry was invalidated drops its result, which may be from before the change.
+     */
+    private static final ConcurrentMap<String, CachedResult> whitelistCache = new ConcurrentHashMap<>();
+    /**
+     * Whether a WhatsApp package is installed and enabled, keyed by package name. Only used while the
+     * package receiver is registered, as it is what clears the entries.
+     */
+    private static final Map<String, Boolean> installedCache = new ConcurrentHashMap<>();
+    private static volatile boolean packageReceiverRegistered;
+
+    /**
+     * Most provider queries in flight at once for {@link #isWhitelisted(Context, List, Callback)}.
+     */
+    private static final int MAX_CONCURRENT_QUERIES = 4;
+    private static ExecutorService queryExecutor;
+
+    interface Callback {
+        /**
+         * Called on the main thread with the result for every identifier.
+         */
+        void onResult(@NonNull Map<String, Boolean> whitelisted);
+    }
+
+    private static final class CachedResult {
+        final boolean whitelisted;
+        final long time;
+        final boolean invalidated;
+
+        CachedResult(boolean whitelisted, long time, boolean invalidated) {
+            this.whitelisted = whitelisted;
+            this.time = time;
+            this.invalidated = invalidated;
+        }
+
+        /**
+         * A new entry without a result, every call returns a different one.
+         */
+        static CachedResult invalidated() {
+            return new CachedResult(false, 0, true);
+        }
+
+        boolean isValid(long now) {
+            return !invalidated && now - time < WHITELIST_CACHE_TTL_MILLIS;
+        }
+    }
+
+    /**
+     * Clears the cached state of WhatsApp packages that are installed, updated, removed, enabled or disabled.
+     */
+    private static final BroadcastReceiver packageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final Uri data = intent.getData();
+            final String packageName = data != null ? data.getSchemeSpecificPart() : null;
+            if (CONSUMER_WHATSAPP_PACKAGE_NAME.equals(packageName) || SMB_WHATSAPP_PACKAGE_NAME.equals(packageName)) {
+                invalidatePackage(packageName);
+            }
+        }
+    };
+
+    /**
+     * Starts listening for WhatsApp being installed, updated or removed, so cached results do not
+     * outlive the WhatsApp install they came from.
+     */
+    static synchronized void registerPackageReceiver(@NonNull Context context) {
+        if (packageReceiverRegistered) {
+            return;
+        }
+        final IntentFilter intentFilter = new IntentFilter();
+        intentFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        intentFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        intentFilter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        intentFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        intentFilter.addDataScheme("package");
+        context.getApplicationContext().registerReceiver(packageReceiver, intentFilter);
+        packageReceiverRegistered = true;
+    }
+
+    /**
+     * Forgets the cached results of a sticker pack, e.g. after it was added to WhatsApp.
+     */
+    static void invalidateStickerPack(@NonNull String identifier) {
+        whitelistCache.put(cacheKey(CONSUMER_WHATSAPP_PACKAGE_NAME, identifier), CachedResult.invalidated());
+        whitelistCache.put(cacheKey(SMB_WHATSAPP_PACKAGE_NAME, identifier), CachedResult.invalidated());
+    }
+
+    private static void invalidatePackage(@NonNull String packageName) {
+        installedCache.remove(packageName);
+        final String prefix = packageName + "/";
+        for (String key : whitelistCache.keySet()) {
+            if (key.startsWith(prefix)) {
+                whitelistCache.put(key, CachedResult.invalidated());
+            }
+        }
+    }
+
+    private static String cacheKey(String whatsappPackageName, String identifier) {
+        return whatsappPackageName + "/" + identifier;
+    }
+
     static boolean isWhitelisted(@NonNull Context context, @NonNull String identifier) {
         try {
             if (!isWhatsAppConsumerAppInstalled(context.getPackageManager()) && !isWhatsAppSmbAppInstalled(context.getPackageManager())) {
@@ -46,6 +172,49 @@ class WhitelistCheck {
         }
     }
 
+    /**
+     * Checks a list of sticker packs at once. The WhatsApp providers are queried for several packs
+     * in parallel and the callback gets every result together.
+     */
+    static void isWhitelisted(@NonNull final Context context, @NonNull final List<String> identifiers,
+                              @NonNull final Callback callback) {
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        final Map<String, Boolean> results = new ConcurrentHashMap<>();
+        if (identifiers.isEmpty()) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onResult(new HashMap<String, Boolean>());
+                }
+            });
+            return;
+        }
+        final AtomicInteger remaining = new AtomicInteger(identifiers.size());
+        for (final String identifier : identifiers) {
+            getQueryExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    results.put(identifier, isWhitelisted(context, identifier));
+                    if (remaining.decrementAndGet() == 0) {
+                        mainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                callback.onResult(new HashMap<>(results));
+                            }
+                        });
+                    }
+                }
+            });
+        }
+    }
+
+    private static synchronized ExecutorService getQueryExecutor() {
+        if (queryExecutor == null) {
+            queryExecutor = Executors.newFixedThreadPool(MAX_CONCURRENT_QUERIES, new DaemonThreadFactory("whitelist-check"));
+        }
+        return queryExecutor;
+    }
+
     static boolean isWhatsAppInstalled(@NonNull Context context) {
         try {
             return (isWhatsAppConsumerAppInstalled(context.getPackageManager()) || isWhatsAppSmbAppInstalled(context.getPackageManager()));
@@ -55,6 +224,26 @@ class WhitelistCheck {
     }
 
     private static boolean isWhitelistedFromProvider(@NonNull Context context, @NonNull String identifier, String whatsappPackageName) {
+        final String key = cacheKey(whatsappPackageName, identifier);
+        final long now = SystemClock.elapsedRealtime();
+        CachedResult cached = whitelistCache.get(key);
+        if (cached != null && cached.isValid(now)) {
+            return cached.whitelisted;
+        }
+        if (cached == null) {
+            // Gives the query an entry to start from, so invalidating the pack meanwhile is noticed.
+            final CachedResult placeholder = CachedResult.invalidated();
+            cached = whitelistCache.putIfAbsent(key, placeholder);
+            if (cached == null) {
+                cached = placeholder;
+            }
+        }
+        final boolean whitelisted = queryWhitelistedFromProvider(context, identifier, whatsappPackageName);
+        whitelistCache.replace(key, cached, new CachedResult(whitelisted, now, false));
+        return whitelisted;
+    }
+
+    private static boolean queryWhitelistedFromProvider(@NonNull Context context, @NonNull String identifier, String whatsappPackageName) {
         final PackageManager packageManager = context.getPackageManager();
 
         if (isPackageInstalled(whatsappPackageName, packageManager)) {
@@ -87,6 +276,18 @@ class WhitelistCheck {
     }
 
     private static boolean isPackageInstalled(String packageName, PackageManager packageManager) {
+        if (!packageReceiverRegistered) {
+            return queryPackageInstalled(packageName, packageManager);
+        }
+        Boolean installed = installedCache.get(packageName);
+        if (installed == null) {
+            installed = queryPackageInstalled(packageName, packageManager);
+            installedCache.put(packageName, installed);
+        }
+        return installed;
+    }
+
+    private static boolean queryPackageInstalled(String packageName, PackageManager packageManager) {
         try {
             final ApplicationInfo applicationInfo = packageManager.getApplicationInfo(packageName, 0);
 
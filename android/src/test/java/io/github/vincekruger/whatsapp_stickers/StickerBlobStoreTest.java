@@ -0,0 +1,194 @@
+package io.github.vincekruger.whatsapp_stickers;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class StickerBlobStoreTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final Object importCommitLock = new Object();
+    private File contentDirectory;
+    private StickerBlobStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        contentDirectory = folder.newFolder("sticker_packs");
+        store = new StickerBlobStore(contentDirectory, importCommitLock);
+    }
+
+    @Test
+    public void storesSharedFilesOnce() throws IOException {
+        writeFile("a", "01.webp", "shared");
+        writeFile("a", "tray.png", "tray");
+        writeFile("b", "01.webp", "shared");
+        writeFile("b", "02.webp", "only b");
+        writeFile("b", "tray.png", "tray");
+
+        store.ingest(stickerPack("a", "01.webp"));
+        store.ingest(stickerPack("b", "01.webp", "02.webp"));
+
+        assertEquals(3, blobs().size());
+        assertFalse(new File(new File(contentDirectory, "a"), "01.webp").exists());
+        assertEquals(store.resolve("a", "01.webp"), store.resolve("b", "01.webp"));
+        assertEquals("shared", read(store.resolve("a", "01.webp")));
+        assertEquals("only b", read(store.resolve("b", "02.webp")));
+        assertEquals("tray", read(store.resolve("b", "tray.png")));
+    }
+
+    @Test
+    public void servesFilesWrittenAfterIngestFromThePackDirectory() throws IOException {
+        writeFile("a", "01.webp", "first");
+        writeFile("a", "tray.png", "tray");
+        store.ingest(stickerPack("a", "01.webp"));
+
+        final File replaced = writeFile("a", "01.webp", "second");
+
+        assertEquals(replaced, store.resolve("a", "01.webp"));
+        store.ingest(stickerPack("a", "01.webp"));
+        assertEquals("second", read(store.resolve("a", "01.webp")));
+        assertEquals(2, blobs().size());
+    }
+
+    @Test
+    public void leavesFilesThePackDoesNotListInItsDirectory() throws IOException {
+        writeFile("a", "01.webp", "listed");
+        writeFile("a", "tray.png", "tray");
+        final File unlisted = writeFile("a", "02.webp", "not listed yet");
+
+        store.ingest(stickerPack("a", "01.webp"));
+
+        assertTrue(unlisted.exists());
+        assertEquals(unlisted, store.resolve("a", "02.webp"));
+    }
+
+    @Test
+    public void releasesBlobsOfFilesThePackNoLongerLists() throws IOException {
+        writeFile("a", "01.webp", "kept");
+        writeFile("a", "02.webp", "removed");
+        writeFile("a", "tray.png", "tray");
+        store.ingest(stickerPack("a", "01.webp", "02.webp"));
+        final File removed = store.resolve("a", "02.webp");
+
+        store.ingest(stickerPack("a", "01.webp"));
+
+        assertFalse(removed.exists());
+        assertEquals("kept", read(store.resolve("a", "01.webp")));
+        assertEquals(2, blobs().size());
+        // The mapping on disk forgot the file too, so the blob is not referenced again after a restart.
+        assertFalse(read(new File(new File(contentDirectory, "a"), StickerBlobStore.MAPPING_FILE_NAME)).contains("02.webp"));
+    }
+
+    @Test
+    public void keepsBlobsAnotherPackStillLists() throws IOException {
+        writeFile("a", "01.webp", "shared");
+        writeFile("a", "tray.png", "tray");
+        writeFile("b", "01.webp", "shared");
+        writeFile("b", "tray.png", "tray");
+        store.ingest(stickerPack("a", "01.webp"));
+        store.ingest(stickerPack("b", "01.webp"));
+
+        writeFile("a", "02.webp", "new");
+        store.ingest(stickerPack("a", "02.webp"));
+
+        assertEquals("shared", read(store.resolve("b", "01.webp")));
+    }
+
+    @Test
+    public void deletesUnreferencedBlobsWhenLoaded() throws IOException {
+        writeFile("a", "01.webp", "referenced");
+        writeFile("a", "tray.png", "tray");
+        store.ingest(stickerPack("a", "01.webp"));
+        final File orphan = new File(new File(contentDirectory, StickerBlobStore.BLOB_DIRECTORY_NAME), "0123abcd");
+        Files.write(orphan.toPath(), "orphan".getBytes(UTF_8));
+
+        final StickerBlobStore restarted = new StickerBlobStore(contentDirectory, importCommitLock);
+
+        assertEquals("referenced", read(restarted.resolve("a", "01.webp")));
+        assertFalse(orphan.exists());
+        assertEquals(2, blobs().size());
+    }
+
+    @Test
+    public void waitsForAnImportCommitBeforeLoading() throws Exception {
+        writeFile("a", "01.webp", "sticker");
+        writeFile("a", "tray.png", "tray");
+        store.ingest(stickerPack("a", "01.webp"));
+        final StickerBlobStore restarted = new StickerBlobStore(contentDirectory, importCommitLock);
+        final File[] resolved = new File[1];
+        final Thread query = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                resolved[0] = restarted.resolve("a", "01.webp");
+            }
+        });
+
+        synchronized (importCommitLock) {
+            // An import moved the pack out of the way, and is going to roll back.
+            final File directory = new File(contentDirectory, "a");
+            final File replaced = new File(contentDirectory, ".replaced-a-" + UUID.randomUUID());
+            assertTrue(directory.renameTo(replaced));
+            query.start();
+            query.join(200);
+            assertTrue(query.isAlive());
+            assertTrue(replaced.renameTo(directory));
+        }
+        query.join();
+
+        assertEquals("sticker", read(resolved[0]));
+        assertEquals(2, blobs().size());
+    }
+
+    private List<String> blobs() {
+        final String[] names = new File(contentDirectory, StickerBlobStore.BLOB_DIRECTORY_NAME).list();
+        final List<String> blobs = new ArrayList<>(Arrays.asList(Objects.requireNonNull(names)));
+        Collections.sort(blobs);
+        return blobs;
+    }
+
+    private File writeFile(String identifier, String fileName, String contents) throws IOException {
+        final File directory = new File(contentDirectory, identifier);
+        //noinspection ResultOfMethodCallIgnored
+        directory.mkdirs();
+        final File file = new File(directory, fileName);
+        Files.write(file.toPath(), contents.getBytes(UTF_8));
+        return file;
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), UTF_8);
+    }
+
+    private static StickerPack stickerPack(String identifier, String... stickerFileNames) {
+        final StickerPack stickerPack = new StickerPack(identifier, "Pack " + identifier, "Publisher", "tray.png",
+                null, null, null, null, "1", false, false);
+        final List<Sticker> stickers = new ArrayList<>(stickerFileNames.length);
+        for (String fileName : stickerFileNames) {
+            stickers.add(new Sticker(fileName, Collections.<String>emptyList()));
+        }
+        stickerPack.setStickers(stickers);
+        return stickerPack;
+    }
+}
@@ -0,0 +1,153 @@
+package io.github.vincekruger.whatsapp_stickers;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.content.pm.ApplicationInfo;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Process;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowBinder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import io.flutter.util.PathUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class StickerContentProviderTest {
+    private String authority;
+    private StickerContentProvider provider;
+
+    @Before
+    public void setUp() throws IOException {
+        final String packageName = RuntimeEnvironment.application.getPackageName();
+        final ApplicationInfo applicationInfo = shadowOf(RuntimeEnvironment.application.getPackageManager())
+                .getInternalMutablePackageInfo(packageName).applicationInfo;
+        applicationInfo.metaData = new Bundle();
+        applicationInfo.metaData.putBoolean("NonAssetContentProvider", true);
+
+        // The contents file an app writes before it has any packs.
+        final File contentFile = new File(PathUtils.getDataDirectory(RuntimeEnvironment.application) + "/"
+                + StickerContentProvider.CONTENT_PATH + StickerContentProvider.CONTENT_FILE_NAME);
+        assertTrue(contentFile.getParentFile().mkdirs());
+        Files.write(contentFile.toPath(), "{\"sticker_packs\": []}".getBytes(Charset.forName("UTF-8")));
+
+        authority = WhatsAppStickersPlugin.getContentProviderAuthority(RuntimeEnvironment.application);
+        provider = Robolectric.buildContentProvider(StickerContentProvider.class).create(authority).get();
+    }
+
+    @After
+    public void tearDown() {
+        ShadowBinder.setCallingUid(Process.myUid());
+    }
+
+    @Test
+    public void addsANewPackWithItsStickersInABatch() throws Exception {
+        assertEquals(0, stickerPackCount());
+
+        final ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(uri("metadata")).withValues(packValues("cats")).build());
+        operations.add(ContentProviderOperation.newInsert(uri("stickers/cats"))
+                .withValues(stickerValues("01.webp")).build());
+        operations.add(ContentProviderOperation.newInsert(uri("stickers/cats"))
+                .withValues(stickerValues("02.webp")).build());
+        provider.applyBatch(operations);
+
+        assertEquals(1, stickerPackCount());
+        assertEquals(Arrays.asList("01.webp", "02.webp"), stickerFileNames("cats"));
+    }
+
+    @Test
+    public void rejectsInsertingANewPackOnItsOwn() {
+        try {
+            provider.insert(uri("metadata"), packValues("cats"));
+            fail("a new pack without stickers should be rejected");
+        } catch (IllegalArgumentException expected) {
+            assertEquals("sticker list is empty", expected.getMessage());
+        }
+
+        assertEquals(0, stickerPackCount());
+    }
+
+    @Test
+    public void rejectsWritesFromOtherApps() throws Exception {
+        ShadowBinder.setCallingUid(Process.myUid() + 1);
+
+        try {
+            provider.insert(uri("metadata"), packValues("cats"));
+            fail("only the app itself may write");
+        } catch (SecurityException expected) {
+            assertTrue(expected.getMessage().contains(String.valueOf(Process.myUid() + 1)));
+        }
+        try {
+            provider.applyBatch(new ArrayList<ContentProviderOperation>());
+            fail("only the app itself may write");
+        } catch (SecurityException expected) {
+            assertTrue(expected.getMessage().contains(String.valueOf(Process.myUid() + 1)));
+        }
+    }
+
+    private int stickerPackCount() {
+        final Bundle page = provider.call(StickerContentProvider.METHOD_GET_STICKER_PACKS, null, new Bundle());
+        return page.getInt(StickerContentProvider.EXTRA_STICKER_PACK_COUNT);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<String> stickerFileNames(String identifier) {
+        final Bundle page = provider.call(StickerContentProvider.METHOD_GET_STICKER_PACKS, null, new Bundle());
+        final List<HashMap<String, Object>> stickerPacks =
+                (List<HashMap<String, Object>>) page.getSerializable(StickerContentProvider.EXTRA_STICKER_PACKS);
+        for (HashMap<String, Object> stickerPack : stickerPacks) {
+            if (identifier.equals(stickerPack.get(StickerPackExporter.IDENTIFIER))) {
+                final List<HashMap<String, Object>> stickers =
+                        (List<HashMap<String, Object>>) stickerPack.get(StickerPackExporter.STICKERS);
+                final List<String> fileNames = new ArrayList<>();
+                for (HashMap<String, Object> sticker : stickers) {
+                    fileNames.add((String) sticker.get("image_file"));
+                }
+                return fileNames;
+            }
+        }
+        throw new AssertionError("there is no pack " + identifier);
+    }
+
+    private Uri uri(String path) {
+        return Uri.parse("content://" + authority + "/" + path);
+    }
+
+    private static ContentValues packValues(String identifier) {
+        final ContentValues values = new ContentValues();
+        values.put(StickerContentProvider.STICKER_PACK_IDENTIFIER_IN_QUERY, identifier);
+        values.put(StickerContentProvider.STICKER_PACK_NAME_IN_QUERY, "Pack " + identifier);
+        values.put(StickerContentProvider.STICKER_PACK_PUBLISHER_IN_QUERY, "Publisher");
+        values.put(StickerContentProvider.STICKER_PACK_ICON_IN_QUERY, "tray.png");
+        values.put(StickerContentProvider.IMAGE_DATA_VERSION, "1");
+        return values;
+    }
+
+    private static ContentValues stickerValues(String fileName) {
+        final ContentValues values = new ContentValues();
+        values.put(StickerContentProvider.STICKER_FILE_NAME_IN_QUERY, fileName);
+        values.put(StickerContentProvider.STICKER_FILE_EMOJI_IN_QUERY, "\uD83D\uDE02");
+        return values;
+    }
+}
@@ -0,0 +1,146 @@
+package io.github.vincekruger.whatsapp_stickers;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class StickerEmojiIndexTest {
+    private static final String GRINNING = "\uD83D\uDE00";
+    private static final String JOY = "\uD83D\uDE02";
+    private static final String HEART = "\u2764";
+    private static final String HEART_EMOJI = "\u2764\uFE0F";
+    private static final String ROCKET = "\uD83D\uDE80";
+
+    @Test
+    public void ranksByMatchedEmojisThenPositionThenCatalogOrder() {
+        final StickerPackCatalog catalog = catalog(
+                stickerPack("first", "1",
+                        sticker("a.webp", GRINNING),
+                        sticker("b.webp", JOY, GRINNING)),
+                stickerPack("second", "1",
+                        sticker("a.webp", HEART_EMOJI, GRINNING),
+                        sticker("b.webp", GRINNING, JOY),
+                        sticker("c.webp", ROCKET)));
+        final StickerEmojiIndex index = catalog.getEmojiIndex();
+
+        final List<StickerEmojiIndex.Match> matches = index.find(Arrays.asList(GRINNING, JOY), 0);
+
+        assertEquals(Arrays.asList("first/b.webp", "second/b.webp", "first/a.webp", "second/a.webp"),
+                names(catalog, matches));
+        assertEquals(Arrays.asList("first/b.webp", "second/b.webp"),
+                names(catalog, index.find(Arrays.asList(GRINNING, JOY), 2)));
+    }
+
+    @Test
+    public void countsAnEmojiOnceForASticker() {
+        final StickerPackCatalog catalog = catalog(stickerPack("first", "1",
+                sticker("a.webp", JOY, JOY),
+                sticker("b.webp", JOY, GRINNING)));
+
+        assertEquals(Arrays.asList("first/b.webp", "first/a.webp"),
+                names(catalog, catalog.getEmojiIndex().find(Arrays.asList(JOY, GRINNING), 0)));
+    }
+
+    @Test
+    public void matchesEmojisWithAndWithoutVariationSelector() {
+        final StickerPackCatalog catalog = catalog(
+                stickerPack("first", "1", sticker("a.webp", HEART_EMOJI)),
+                stickerPack("second", "1", sticker("a.webp", HEART)));
+        final StickerEmojiIndex index = catalog.getEmojiIndex();
+
+        assertEquals(Arrays.asList("first/a.webp", "second/a.webp"),
+                names(catalog, index.find(Collections.singletonList(HEART), 0)));
+        assertEquals(Arrays.asList("first/a.webp", "second/a.webp"),
+                names(catalog, index.find(Collections.singletonList(HEART_EMOJI), 0)));
+        assertEquals(HEART_EMOJI, sticker(catalog, index.find(Collections.singletonList(HEART), 0).get(0)).emojis.get(0));
+    }
+
+    @Test
+    public void findsNothingForUnknownEmojis() {
+        final StickerEmojiIndex index = catalog(stickerPack("first", "1", sticker("a.webp", JOY))).getEmojiIndex();
+        final String unknown = "\uD83E\uDD84-not-on-any-sticker";
+
+        assertTrue(index.find(Collections.singletonList(unknown), 0).isEmpty());
+        assertEquals(-1, EmojiTable.find(unknown));
+    }
+
+    @Test
+    public void rebuildOnlyIndexesChangedPacks() {
+        final StickerPackCatalog baseCatalog = catalog(
+                stickerPack("first", "1", sticker("a.webp", JOY)),
+                stickerPack("second", "1", sticker("a.webp", JOY), sticker("b.webp", ROCKET)),
+                stickerPack("third", "1", sticker("a.webp", ROCKET)));
+        final StickerEmojiIndex base = baseCatalog.getEmojiIndex();
+
+        // A catalog that reads packs again hands out new objects, even for packs that did not change.
+        final StickerPackCatalog catalog = catalog(
+                stickerPack("first", "1", sticker("a.webp", JOY)),
+                stickerPack("second", "2", sticker("a.webp", GRINNING)));
+        catalog.inheritEmojiIndex(baseCatalog);
+        final StickerEmojiIndex rebuilt = catalog.getEmojiIndex();
+
+        assertEquals(Collections.singletonList("first/a.webp"),
+                names(catalog, rebuilt.find(Collections.singletonList(JOY), 0)));
+        assertEquals(Collections.singletonList("second/a.webp"),
+                names(catalog, rebuilt.find(Collections.singletonList(GRINNING), 0)));
+        assertTrue(rebuilt.find(Collections.singletonList(ROCKET), 0).isEmpty());
+        assertEquals(1, rebuilt.getIndexedPackCount());
+
+        // The base index is not changed by indexes built on top of it.
+        assertEquals(Arrays.asList("first/a.webp", "second/a.webp"),
+                names(baseCatalog, base.find(Collections.singletonList(JOY), 0)));
+        assertEquals(Arrays.asList("second/b.webp", "third/a.webp"),
+                names(baseCatalog, base.find(Collections.singletonList(ROCKET), 0)));
+    }
+
+    @Test
+    public void rebuildIndexesPacksWhoseStickersChangedWithoutNewVersion() {
+        final StickerPackCatalog baseCatalog = catalog(stickerPack("first", "1", sticker("a.webp", JOY)));
+        final StickerEmojiIndex base = baseCatalog.getEmojiIndex();
+
+        final StickerPackCatalog catalog = catalog(stickerPack("first", "1", sticker("a.webp", GRINNING)));
+        catalog.inheritEmojiIndex(baseCatalog);
+        final StickerEmojiIndex rebuilt = catalog.getEmojiIndex();
+
+        assertTrue(rebuilt.find(Collections.singletonList(JOY), 0).isEmpty());
+        assertEquals(Collections.singletonList("first/a.webp"),
+                names(catalog, rebuilt.find(Collections.singletonList(GRINNING), 0)));
+        assertEquals(1, base.find(Collections.singletonList(JOY), 0).size());
+    }
+
+    private static List<String> names(StickerPackCatalog catalog, List<StickerEmojiIndex.Match> matches) {
+        final List<String> names = new ArrayList<>(matches.size());
+        for (StickerEmojiIndex.Match match : matches) {
+            names.add(match.getIdentifier() + "/" + sticker(catalog, match).imageFileName);
+        }
+        return names;
+    }
+
+    private static Sticker sticker(StickerPackCatalog catalog, StickerEmojiIndex.Match match) {
+        final StickerPack stickerPack = catalog.getStickerPack(match.getIdentifier());
+        assertNotNull(stickerPack);
+        return stickerPack.getStickers().get(match.getStickerIndex());
+    }
+
+    private static StickerPackCatalog catalog(StickerPack... stickerPacks) {
+        return new ResidentStickerPackCatalog(Arrays.asList(stickerPacks));
+    }
+
+    private static Sticker sticker(String imageFileName, String... emojis) {
+        return new Sticker(imageFileName, Arrays.asList(emojis));
+    }
+
+    private static StickerPack stickerPack(String identifier, String imageDataVersion, Sticker... stickers) {
+        final StickerPack stickerPack = new StickerPack(identifier, "Pack " + identifier, "Publisher", "tray.png",
+                null, null, null, null, imageDataVersion, false, false);
+        stickerPack.setStickers(Arrays.asList(stickers));
+        return stickerPack;
+    }
+}
@@ -0,0 +1,85 @@
+package io.github.vincekruger.whatsapp_stickers;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+public class StickerFileCacheTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File packDirectory;
+    private StickerFileCache cache;
+    private final StickerPack stickerPack = stickerPack("1");
+
+    @Before
+    public void setUp() throws IOException {
+        final File contentDirectory = folder.newFolder("sticker_packs");
+        packDirectory = new File(contentDirectory, "cats");
+        final StickerPackFiles files = new StickerPackFiles(contentDirectory.getPath() + "/", null, null);
+        cache = new StickerFileCache(files, 8 * 1024);
+    }
+
+    @Test
+    public void servesTheBytesReadOnAMissAndCachesThem() throws IOException {
+        final long size = write("01.webp", "sticker");
+
+        assertNull(cache.get(stickerPack, "01.webp"));
+        assertEquals("sticker", new String(cache.load(stickerPack, "01.webp", size), UTF_8));
+
+        // Served from memory, even though the file is gone.
+        Files.delete(new File(packDirectory, "01.webp").toPath());
+        assertEquals("sticker", new String(cache.get(stickerPack, "01.webp"), UTF_8));
+    }
+
+    @Test
+    public void forgetsTheBytesWhenClearedOrThePackChanges() throws IOException {
+        final long size = write("01.webp", "sticker");
+        cache.load(stickerPack, "01.webp", size);
+
+        assertNull(cache.get(stickerPack("2"), "01.webp"));
+        cache.clear();
+        assertNull(cache.get(stickerPack, "01.webp"));
+    }
+
+    @Test
+    public void leavesLargeFilesToBeStreamed() throws IOException {
+        final long size = write("01.webp", new String(new char[1025]).replace('\0', 'x'));
+
+        assertNull(cache.load(stickerPack, "01.webp", size));
+        // The size the catalog knows may be out of date, so the read stops at the limit as well.
+        assertNull(cache.load(stickerPack, "01.webp", 1));
+        assertNull(cache.get(stickerPack, "01.webp"));
+    }
+
+    private long write(String fileName, String contents) throws IOException {
+        //noinspection ResultOfMethodCallIgnored
+        packDirectory.mkdirs();
+        final File file = new File(packDirectory, fileName);
+        Files.write(file.toPath(), contents.getBytes(UTF_8));
+        return file.length();
+    }
+
+    private static StickerPack stickerPack(String imageDataVersion) {
+        final StickerPack stickerPack = new StickerPack("cats", "Pack cats", "Publisher", "tray.png",
+                null, null, null, null, imageDataVersion, false, false);
+        stickerPack.setStickers(Collections.singletonList(
+                new Sticker("01.webp", Collections.singletonList("\uD83D\uDE02"))));
+        return stickerPack;
+    }
+}
@@ -0,0 +1,114 @@
+package io.github.vincekruger.whatsapp_stickers;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+public class StickerImageTranscoderTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File contentDirectory;
+    private File packDirectory;
+    private StickerImageTranscoder transcoder;
+
+    @Before
+    public void setUp() throws IOException {
+        contentDirectory = folder.newFolder("sticker_packs");
+        packDirectory = new File(contentDirectory, "cats");
+        transcoder = new StickerImageTranscoder(contentDirectory);
+    }
+
+    @Test
+    public void convertsImagesIntoThePackDirectory() throws IOException {
+        final List<String> fileNames = transcoder.transcode("cats", Arrays.asList(
+                new StickerImageTranscoder.Conversion(image("01.png"), false),
+                new StickerImageTranscoder.Conversion(image("icon.jpg"), true)));
+
+        assertEquals(Arrays.asList("01.webp", "icon.png"), fileNames);
+        assertEquals(fileNames, files());
+    }
+
+    @Test
+    public void leavesTheDirectoryAsItWasWhenAFileCanNotBeMoved() throws IOException {
+        assertTrue(packDirectory.mkdirs());
+        write(new File(packDirectory, "01.webp"), "old 01");
+        write(new File(packDirectory, "03.webp"), "old 03");
+        // Keeps 03.webp from being moved out of the way.
+        final File blocker = new File(packDirectory, "03.webp.replaced");
+        assertTrue(blocker.mkdirs());
+        write(new File(blocker, "file"), "blocker");
+
+        try {
+            transcoder.transcode("cats", Arrays.asList(
+                    new StickerImageTranscoder.Conversion(image("01.png"), false),
+                    new StickerImageTranscoder.Conversion(image("02.png"), false),
+                    new StickerImageTranscoder.Conversion(image("03.png"), false)));
+            fail("03.webp should not have been replaced");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("03.webp"));
+        }
+
+        assertEquals(Arrays.asList("01.webp", "03.webp", "03.webp.replaced"), files());
+        assertEquals("old 01", read(new File(packDirectory, "01.webp")));
+        assertEquals("old 03", read(new File(packDirectory, "03.webp")));
+    }
+
+    @Test
+    public void rejectsTwoImagesForTheSameFile() throws IOException {
+        try {
+            transcoder.transcode("cats", Arrays.asList(
+                    new StickerImageTranscoder.Conversion(image("01.png"), false),
+                    new StickerImageTranscoder.Conversion(image("01.jpg"), false)));
+            fail("both images would be written to 01.webp");
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage().contains("01.webp"));
+        }
+        assertFalse(new File(packDirectory, "01.webp").exists());
+    }
+
+    private File image(String name) throws IOException {
+        final File file = new File(folder.getRoot(), name);
+        final BufferedImage image = new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB);
+        assertTrue(ImageIO.write(image, name.endsWith(".png") ? "png" : "jpg", file));
+        return file;
+    }
+
+    private List<String> files() {
+        final List<String> names = new ArrayList<>(Arrays.asList(Objects.requireNonNull(packDirectory.list())));
+        Collections.sort(names);
+        return names;
+    }
+
+    private static void write(File file, String contents) throws IOException {
+        Files.write(file.toPath(), contents.getBytes(UTF_8));
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), UTF_8);
+    }
+}
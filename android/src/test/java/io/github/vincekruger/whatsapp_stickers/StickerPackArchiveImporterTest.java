@@ -0,0 +1,224 @@
+package io.github.vincekruger.whatsapp_stickers;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+public class StickerPackArchiveImporterTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File contentDirectory;
+    private StickerPackJournal journal;
+    private StickerPackArchiveImporter importer;
+
+    @Before
+    public void setUp() throws IOException {
+        contentDirectory = folder.newFolder("sticker_packs");
+        final File contentFile = new File(contentDirectory, "sticker_packs.json");
+        ContentFileWriter.write(contentFile, ContentFileParser.StoreLinks.NONE,
+                Collections.singletonList(stickerPack("a", "1")));
+        writeStickerPackDirectory("a", "old");
+        journal = new StickerPackJournal(contentFile);
+        importer = new StickerPackArchiveImporter(contentDirectory, journal, false);
+    }
+
+    @Test
+    public void replacesPacksAndTheContentsFile() throws IOException {
+        final List<String> imported = importer.importArchives(Arrays.asList(archive("a", "2", "new"), archive("b", "1", "new")));
+
+        assertEquals(Arrays.asList("a", "b"), imported);
+        assertEquals(Arrays.asList("a/2", "b/1"), versions());
+        assertEquals("new", readSticker("a"));
+        assertEquals("new", readSticker("b"));
+        assertEquals(Collections.<String>emptyList(), hiddenFiles());
+    }
+
+    @Test
+    public void leavesPacksAloneWhenAnArchiveIsBroken() throws IOException {
+        final byte[] withoutSticker = zip(Collections.singletonMap(StickerPackArchiveImporter.PACK_CONTENTS_FILE_NAME,
+                packContents("b", "1")));
+
+        try {
+            importer.importArchives(Arrays.asList(archive("a", "2", "new"), StickerPackArchiveImporter.Archive.of(withoutSticker)));
+            fail("an archive without its tray image should not be imported");
+        } catch (IllegalStateException expected) {
+            assertTrue(expected.getMessage().contains("tray.png"));
+        }
+
+        assertEquals(Collections.singletonList("a/1"), versions());
+        assertEquals("old", readSticker("a"));
+        assertFalse(new File(contentDirectory, "b").exists());
+        assertEquals(Collections.<String>emptyList(), hiddenFiles());
+    }
+
+    @Test
+    public void rollsBackWhenTheCommitFails() throws IOException {
+        importer.onTargetsMovedAway = new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("no space left");
+            }
+        };
+
+        try {
+            importer.importArchives(Arrays.asList(archive("a", "2", "new"), archive("b", "1", "new")));
+            fail("the commit should have failed");
+        } catch (IllegalStateException expected) {
+            assertEquals("no space left", expected.getMessage());
+        }
+
+        assertEquals(Collections.singletonList("a/1"), versions());
+        assertEquals("old", readSticker("a"));
+        assertFalse(new File(contentDirectory, "b").exists());
+        assertEquals(Collections.<String>emptyList(), hiddenFiles());
+    }
+
+    @Test
+    public void restoresPacksAfterACrashBetweenTheSwaps() throws IOException {
+        importer.onTargetsMovedAway = new Runnable() {
+            @Override
+            public void run() {
+                throw new Crash();
+            }
+        };
+        try {
+            importer.importArchives(Arrays.asList(archive("a", "2", "new"), archive("b", "1", "new")));
+            fail("the commit should have crashed");
+        } catch (Crash expected) {
+            // Nothing was rolled back, the previous directory of the pack is the only copy of it.
+            assertFalse(new File(contentDirectory, "a").exists());
+        }
+
+        // The next start of the process.
+        new StickerPackArchiveImporter(contentDirectory, new StickerPackJournal(journal.getContentFile()), false)
+                .deleteStaleDirectories();
+
+        assertEquals(Collections.singletonList("a/1"), versions());
+        assertEquals("old", readSticker("a"));
+        assertFalse(new File(contentDirectory, "b").exists());
+        assertEquals(Collections.<String>emptyList(), hiddenFiles());
+    }
+
+    @Test
+    public void restoresReplacedDirectoriesOfMissingPacks() throws IOException {
+        writeStickerPackDirectory("c", "old");
+        final File replacedC = new File(contentDirectory, ".replaced-c-" + UUID.randomUUID());
+        assertTrue(new File(contentDirectory, "c").renameTo(replacedC));
+        writeStickerPackDirectory(".replaced-a-" + UUID.randomUUID(), "older");
+        writeStickerPackDirectory(".import-" + UUID.randomUUID(), "staged");
+
+        importer.deleteStaleDirectories();
+
+        assertEquals("old", readSticker("a"));
+        assertEquals("old", readSticker("c"));
+        assertEquals(Collections.<String>emptyList(), hiddenFiles());
+    }
+
+    @Test
+    public void importsShardedPacksWithTheirManifest() throws IOException {
+        final StickerPackArchiveImporter shardedImporter = new StickerPackArchiveImporter(contentDirectory, null, true);
+
+        shardedImporter.importArchives(Collections.singletonList(archive("b", "1", "new")));
+
+        final File directory = new File(contentDirectory, "b");
+        assertTrue(new File(directory, ShardedStickerPackCatalog.SHARD_FILE_NAME).isFile());
+        assertFalse(new File(directory, StickerPackArchiveImporter.PACK_CONTENTS_FILE_NAME).exists());
+        assertEquals("new", readSticker("b"));
+        assertEquals(Collections.<String>emptyList(), hiddenFiles());
+    }
+
+    private static final class Crash extends Error {
+    }
+
+    private List<String> versions() throws IOException {
+        final List<String> versions = new ArrayList<>();
+        for (StickerPack stickerPack : new StickerPackJournal(journal.getContentFile()).read().stickerPacks) {
+            versions.add(stickerPack.identifier + "/" + stickerPack.imageDataVersion);
+        }
+        return versions;
+    }
+
+    private List<String> hiddenFiles() {
+        final List<String> names = new ArrayList<>();
+        for (String name : Objects.requireNonNull(contentDirectory.list())) {
+            if (name.startsWith(".")) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    private String readSticker(String identifier) throws IOException {
+        return new String(Files.readAllBytes(new File(new File(contentDirectory, identifier), "01.webp").toPath()), UTF_8);
+    }
+
+    private void writeStickerPackDirectory(String name, String stickerContents) throws IOException {
+        final File directory = new File(contentDirectory, name);
+        assertTrue(directory.mkdirs());
+        Files.write(new File(directory, "tray.png").toPath(), "tray".getBytes(UTF_8));
+        Files.write(new File(directory, "01.webp").toPath(), stickerContents.getBytes(UTF_8));
+    }
+
+    private StickerPackArchiveImporter.Archive archive(String identifier, String imageDataVersion, String stickerContents)
+            throws IOException {
+        final Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put(StickerPackArchiveImporter.PACK_CONTENTS_FILE_NAME, packContents(identifier, imageDataVersion));
+        entries.put("tray.png", "tray".getBytes(UTF_8));
+        entries.put("01.webp", stickerContents.getBytes(UTF_8));
+        return StickerPackArchiveImporter.Archive.of(zip(entries));
+    }
+
+    private byte[] packContents(String identifier, String imageDataVersion) throws IOException {
+        final File file = folder.newFile();
+        ContentFileWriter.writeStickerPack(file, stickerPack(identifier, imageDataVersion));
+        return Files.readAllBytes(file.toPath());
+    }
+
+    private static byte[] zip(Map<String, byte[]> entries) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zipOutputStream = new ZipOutputStream(bytes)) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                zipOutputStream.putNextEntry(new ZipEntry(entry.getKey()));
+                zipOutputStream.write(entry.getValue());
+                zipOutputStream.closeEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static StickerPack stickerPack(String identifier, String imageDataVersion) {
+        final StickerPack stickerPack = new StickerPack(identifier, "Pack " + identifier, "Publisher", "tray.png",
+                null, null, null, null, imageDataVersion, false, false);
+        stickerPack.setStickers(Collections.singletonList(
+                new Sticker("01.webp", Collections.singletonList("\uD83D\uDE02"))));
+        return stickerPack;
+    }
+}
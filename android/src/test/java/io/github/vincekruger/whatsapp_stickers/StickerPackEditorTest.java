@@ -0,0 +1,167 @@
+package io.github.vincekruger.whatsapp_stickers;
+
+import android.content.ContentValues;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+public class StickerPackEditorTest {
+    private static final String JOY = "\uD83D\uDE02";
+    private static final String GRINNING = "\uD83D\uDE00";
+
+    private final StickerPackCatalog catalog = new ResidentStickerPackCatalog(Collections.singletonList(
+            stickerPack("cats", "01.webp", "02.webp")));
+
+    @Test
+    public void insertsANewPackWithItsStickers() {
+        final StickerPackEditor editor = new StickerPackEditor(catalog);
+
+        assertEquals("dogs", editor.insertStickerPack(packValues("dogs")));
+        assertEquals("01.webp", editor.insertSticker("dogs", stickerValues("01.webp", JOY + "," + GRINNING)));
+        final Map<String, StickerPack> changes = editor.build();
+
+        assertEquals(Collections.singleton("dogs"), changes.keySet());
+        final StickerPack dogs = changes.get("dogs");
+        assertEquals("Pack dogs", dogs.name);
+        assertEquals("https://play.google.com/store/apps/details?id=example", dogs.androidPlayStoreLink);
+        assertEquals(Arrays.asList(JOY, GRINNING), dogs.getStickers().get(0).emojis);
+    }
+
+    @Test
+    public void rejectsANewPackWithoutStickers() {
+        final StickerPackEditor editor = new StickerPackEditor(catalog);
+        editor.insertStickerPack(packValues("dogs"));
+
+        try {
+            editor.build();
+            fail("a pack without stickers should not be valid");
+        } catch (IllegalStateException expected) {
+            assertEquals("sticker list is empty", expected.getMessage());
+        }
+    }
+
+    @Test
+    public void keepsTheStickersWhenThePackChanges() {
+        final StickerPackEditor editor = new StickerPackEditor(catalog);
+        final ContentValues values = new ContentValues();
+        values.put(StickerContentProvider.STICKER_PACK_NAME_IN_QUERY, "Kittens");
+
+        assertEquals(1, editor.updateStickerPack("cats", values));
+        final StickerPack cats = editor.build().get("cats");
+
+        assertEquals("Kittens", cats.name);
+        assertEquals(Arrays.asList("01.webp", "02.webp"), fileNames(cats));
+    }
+
+    @Test
+    public void replacesAndRemovesSingleStickers() {
+        final StickerPackEditor editor = new StickerPackEditor(catalog);
+
+        editor.insertSticker("cats", stickerValues("02.webp", GRINNING));
+        assertEquals(1, editor.deleteStickers("cats", "01.webp"));
+        final StickerPack cats = editor.build().get("cats");
+
+        assertEquals(Collections.singletonList("02.webp"), fileNames(cats));
+        assertEquals(Collections.singletonList(GRINNING), cats.getStickers().get(0).emojis);
+    }
+
+    @Test
+    public void rejectsRemovingEveryStickerUnlessThePackIsRemoved() {
+        final StickerPackEditor editor = new StickerPackEditor(catalog);
+        assertEquals(2, editor.deleteStickers("cats", null));
+
+        try {
+            editor.build();
+            fail("a pack without stickers should not be valid");
+        } catch (IllegalStateException expected) {
+            assertEquals("sticker list is empty", expected.getMessage());
+        }
+
+        assertEquals(1, editor.deleteStickerPack("cats"));
+        final Map<String, StickerPack> changes = editor.build();
+        assertTrue(changes.containsKey("cats"));
+        assertNull(changes.get("cats"));
+    }
+
+    @Test
+    public void leavesTheEmojisOfRejectedPacksOutOfTheEmojiTable() {
+        final StickerPackEditor editor = new StickerPackEditor(catalog);
+        final String emoji = "\uD83E\uDD84-only-on-a-rejected-sticker";
+        editor.insertSticker("cats", stickerValues("03.png", emoji));
+
+        try {
+            editor.build();
+            fail("stickers have to be webp files");
+        } catch (IllegalStateException expected) {
+            assertTrue(expected.getMessage().contains("03.png"));
+        }
+
+        assertEquals(-1, EmojiTable.find(emoji));
+    }
+
+    @Test
+    public void leavesPacksThatDoNotExistAlone() {
+        final StickerPackEditor editor = new StickerPackEditor(catalog);
+
+        assertEquals(0, editor.updateStickerPack("dogs", packValues("dogs")));
+        assertEquals(0, editor.deleteStickerPack("dogs"));
+        assertEquals(0, editor.deleteStickers("dogs", null));
+        assertTrue(editor.isEmpty());
+        try {
+            editor.insertSticker("dogs", stickerValues("01.webp", JOY));
+            fail("a sticker needs an existing pack");
+        } catch (IllegalArgumentException expected) {
+            assertFalse(expected.getMessage().isEmpty());
+        }
+    }
+
+    private static ContentValues packValues(String identifier) {
+        final ContentValues values = new ContentValues();
+        values.put(StickerContentProvider.STICKER_PACK_IDENTIFIER_IN_QUERY, identifier);
+        values.put(StickerContentProvider.STICKER_PACK_NAME_IN_QUERY, "Pack " + identifier);
+        values.put(StickerContentProvider.STICKER_PACK_PUBLISHER_IN_QUERY, "Publisher");
+        values.put(StickerContentProvider.STICKER_PACK_ICON_IN_QUERY, "tray.png");
+        values.put(StickerContentProvider.IMAGE_DATA_VERSION, "1");
+        return values;
+    }
+
+    private static ContentValues stickerValues(String fileName, String emojis) {
+        final ContentValues values = new ContentValues();
+        values.put(StickerContentProvider.STICKER_FILE_NAME_IN_QUERY, fileName);
+        values.put(StickerContentProvider.STICKER_FILE_EMOJI_IN_QUERY, emojis);
+        return values;
+    }
+
+    private static List<String> fileNames(StickerPack stickerPack) {
+        final String[] fileNames = new String[stickerPack.getStickerCount()];
+        for (int i = 0; i < fileNames.length; i++) {
+            fileNames[i] = stickerPack.getStickers().get(i).imageFileName;
+        }
+        return Arrays.asList(fileNames);
+    }
+
+    private static StickerPack stickerPack(String identifier, String... stickerFileNames) {
+        final StickerPack stickerPack = new StickerPack(identifier, "Pack " + identifier, "Publisher", "tray.png",
+                null, null, null, null, "1", false, false);
+        final Sticker[] stickers = new Sticker[stickerFileNames.length];
+        for (int i = 0; i < stickers.length; i++) {
+            stickers[i] = new Sticker(stickerFileNames[i], Collections.singletonList(JOY));
+        }
+        stickerPack.setStickers(Arrays.asList(stickers));
+        stickerPack.setAndroidPlayStoreLink("https://play.google.com/store/apps/details?id=example");
+        return stickerPack;
+    }
+}
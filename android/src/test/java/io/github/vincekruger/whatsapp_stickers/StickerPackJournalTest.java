@@ -0,0 +1,158 @@
+package io.github.vincekruger.whatsapp_stickers;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class StickerPackJournalTest {
+    private static final ContentFileParser.StoreLinks STORE_LINKS =
+            new ContentFileParser.StoreLinks("https://play.google.com/store/apps/details?id=example", null);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File contentFile;
+    private StickerPackJournal journal;
+
+    @Before
+    public void setUp() throws IOException {
+        contentFile = new File(folder.getRoot(), "contents.json");
+        ContentFileWriter.write(contentFile, STORE_LINKS, Arrays.asList(stickerPack("a", "1"), stickerPack("b", "1")));
+        journal = new StickerPackJournal(contentFile);
+    }
+
+    @Test
+    public void appliesRecordsInOrder() throws IOException {
+        journal.write(Collections.singletonMap("a", stickerPack("a", "2")));
+        journal.write(Collections.singletonMap("c", stickerPack("c", "1")));
+        journal.write(Collections.<String, StickerPack>singletonMap("b", null));
+        final Map<String, StickerPack> batch = new LinkedHashMap<>();
+        batch.put("c", null);
+        batch.put("b", stickerPack("b", "3"));
+        journal.write(batch);
+
+        final ContentFileParser.Contents contents = journal.read();
+
+        assertEquals(Arrays.asList("a/2", "b/3"), versions(contents.stickerPacks));
+        for (StickerPack stickerPack : contents.stickerPacks) {
+            assertEquals(STORE_LINKS.androidPlayStoreLink, stickerPack.androidPlayStoreLink);
+        }
+    }
+
+    @Test
+    public void upsertKeepsThePositionOfThePack() throws IOException {
+        journal.write(Collections.singletonMap("a", stickerPack("a", "2")));
+
+        assertEquals(Arrays.asList("a/2", "b/1"), versions(journal.read().stickerPacks));
+    }
+
+    @Test
+    public void skipsTornLastRecord() throws IOException {
+        journal.write(Collections.singletonMap("a", stickerPack("a", "2")));
+        // A crash in the middle of an append leaves the last record without its end.
+        try (FileOutputStream outputStream = new FileOutputStream(journal.getFile(), true)) {
+            outputStream.write("\n{\"upsert\": {\"identifier\": \"c\", \"na".getBytes(Charset.forName("UTF-8")));
+        }
+
+        assertEquals(Arrays.asList("a/2", "b/1"), versions(journal.read().stickerPacks));
+
+        journal.write(Collections.singletonMap("c", stickerPack("c", "1")));
+        assertEquals(Arrays.asList("a/2", "b/1", "c/1"), versions(journal.read().stickerPacks));
+    }
+
+    @Test
+    public void compactionFoldsRecordsIntoTheContentsFile() throws IOException {
+        journal.write(Collections.singletonMap("a", stickerPack("a", "2")));
+        journal.write(Collections.<String, StickerPack>singletonMap("b", null));
+        assertTrue(journal.hasRecords());
+
+        journal.compact(Collections.singletonList(stickerPack("d", "1")));
+
+        assertFalse(journal.hasRecords());
+        assertEquals(Arrays.asList("a/2", "d/1"), versions(readContentFile().stickerPacks));
+        assertEquals(STORE_LINKS.androidPlayStoreLink, readContentFile().storeLinks.androidPlayStoreLink);
+
+        journal.write(Collections.singletonMap("e", stickerPack("e", "1")));
+        assertEquals(Arrays.asList("a/2", "d/1", "e/1"), versions(journal.read().stickerPacks));
+    }
+
+    @Test
+    public void ignoresOldJournalOverCompactedContents() throws IOException {
+        journal.write(Collections.singletonMap("a", stickerPack("a", "2")));
+        journal.write(Collections.<String, StickerPack>singletonMap("b", null));
+        journal.write(Collections.singletonMap("c", stickerPack("c", "1")));
+        final byte[] records = Files.readAllBytes(journal.getFile().toPath());
+        final List<String> expected = versions(journal.read().stickerPacks);
+
+        journal.compact();
+        // The journal is deleted after the new contents file is in place, a crash in between leaves both.
+        Files.write(journal.getFile().toPath(), records);
+
+        assertEquals(expected, versions(journal.read().stickerPacks));
+        assertEquals(expected, versions(readContentFile().stickerPacks));
+        assertFalse(journal.getFile().exists());
+    }
+
+    @Test
+    public void discardsRecordsOfAReplacedContentsFile() throws IOException {
+        journal.write(Collections.singletonMap("c", stickerPack("c", "1")));
+        journal.write(Collections.<String, StickerPack>singletonMap("b", null));
+
+        // An app that still writes the contents file itself, and then tells the provider about it.
+        ContentFileWriter.write(contentFile, STORE_LINKS, Arrays.asList(stickerPack("b", "2"), stickerPack("d", "1")));
+
+        assertEquals(Arrays.asList("b/2", "d/1"), versions(journal.read().stickerPacks));
+        assertFalse(journal.hasRecords());
+
+        ContentFileWriter.write(contentFile, STORE_LINKS, Collections.singletonList(stickerPack("b", "3")));
+        journal.write(Collections.singletonMap("e", stickerPack("e", "1")));
+        ContentFileWriter.write(contentFile, STORE_LINKS, Collections.singletonList(stickerPack("b", "4")));
+        journal.write(Collections.singletonMap("f", stickerPack("f", "1")));
+
+        assertEquals(Arrays.asList("b/4", "f/1"), versions(journal.read().stickerPacks));
+    }
+
+    private ContentFileParser.Contents readContentFile() throws IOException {
+        try (InputStream inputStream = new FileInputStream(contentFile)) {
+            return ContentFileParser.parseContents(inputStream);
+        }
+    }
+
+    private static List<String> versions(List<StickerPack> stickerPacks) {
+        final List<String> versions = new ArrayList<>(stickerPacks.size());
+        for (StickerPack stickerPack : stickerPacks) {
+            versions.add(stickerPack.identifier + "/" + stickerPack.imageDataVersion);
+        }
+        return versions;
+    }
+
+    private static StickerPack stickerPack(String identifier, String imageDataVersion) {
+        final StickerPack stickerPack = new StickerPack(identifier, "Pack " + identifier, "Publisher", "tray.png",
+                null, null, null, null, imageDataVersion, false, false);
+        stickerPack.setStickers(Collections.singletonList(
+                new Sticker("01.webp", Collections.singletonList("\uD83D\uDE02"))));
+        return stickerPack;
+    }
+}
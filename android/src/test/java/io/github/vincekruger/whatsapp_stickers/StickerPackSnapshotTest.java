@@ -0,0 +1,180 @@
+package io.github.vincekruger.whatsapp_stickers;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+public class StickerPackSnapshotTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File contentFile;
+    private File snapshotFile;
+
+    @Before
+    public void setUp() throws IOException {
+        contentFile = folder.newFile("contents.json");
+        Files.write(contentFile.toPath(), "{}".getBytes(Charset.forName("UTF-8")));
+        snapshotFile = new File(folder.getRoot(), "contents.json" + StickerPackSnapshot.FILE_SUFFIX);
+    }
+
+    @Test
+    public void readsBackWhatWasWritten() throws IOException {
+        final ContentFileStamp stamp = ContentFileStamp.of(contentFile);
+        final List<StickerPack> written = Arrays.asList(
+                stickerPack("first", "1", false, Arrays.asList(
+                        new Sticker("01.webp", Arrays.asList("\uD83D\uDE02", "\u2764\uFE0F")),
+                        new Sticker("02.webp", Collections.<String>emptyList()))),
+                stickerPack("second", "7", true, Collections.singletonList(
+                        new Sticker("01.webp", Collections.singletonList("\uD83D\uDE02")))));
+
+        StickerPackSnapshot.write(snapshotFile, stamp, written);
+        final StickerPackSnapshot snapshot = StickerPackSnapshot.open(snapshotFile, stamp);
+
+        assertNotNull(snapshot);
+        assertEquals(2, snapshot.getStickerPackCount());
+        assertEquals("second", snapshot.readIdentifier(1));
+        assertEquals("https://play.google.com/store/apps/details?id=example", snapshot.getStoreLinks().androidPlayStoreLink);
+        assertNull(snapshot.getStoreLinks().iosAppStoreLink);
+        final List<StickerPack> read = snapshot.readStickerPacks();
+        assertEquals(2, read.size());
+        for (int i = 0; i < written.size(); i++) {
+            assertSamePack(written.get(i), read.get(i));
+            assertSamePack(written.get(i), snapshot.readStickerPack(i));
+        }
+    }
+
+    @Test
+    public void readsMetadataWithoutStickers() throws IOException {
+        final ContentFileStamp stamp = ContentFileStamp.of(contentFile);
+        StickerPackSnapshot.write(snapshotFile, stamp, Collections.singletonList(stickerPack("first", "1", true,
+                Collections.singletonList(new Sticker("01.webp", Collections.singletonList("\uD83D\uDE02"))))));
+
+        final StickerPack stickerPack = StickerPackSnapshot.open(snapshotFile, stamp).readStickerPackMetadata(0);
+
+        assertEquals("first", stickerPack.identifier);
+        assertEquals("1", stickerPack.imageDataVersion);
+        assertTrue(stickerPack.avoidCache);
+        assertEquals(0, stickerPack.getStickerCount());
+    }
+
+    @Test
+    public void ignoresSnapshotOfAnotherContentsFile() throws IOException {
+        StickerPackSnapshot.write(snapshotFile, ContentFileStamp.of(contentFile), Collections.singletonList(
+                stickerPack("first", "1", false, Collections.singletonList(
+                        new Sticker("01.webp", Collections.<String>emptyList())))));
+        Files.write(contentFile.toPath(), "{\"sticker_packs\": []}".getBytes(Charset.forName("UTF-8")));
+
+        assertNull(StickerPackSnapshot.open(snapshotFile, ContentFileStamp.of(contentFile)));
+    }
+
+    @Test
+    public void ignoresMissingSnapshotAndForeignFiles() throws IOException {
+        final ContentFileStamp stamp = ContentFileStamp.of(contentFile);
+        assertNull(StickerPackSnapshot.open(snapshotFile, stamp));
+
+        Files.write(snapshotFile.toPath(), "not a snapshot, but longer than its header".getBytes(Charset.forName("UTF-8")));
+        assertNull(StickerPackSnapshot.open(snapshotFile, stamp));
+    }
+
+    @Test
+    public void rejectsTruncatedSnapshot() throws IOException {
+        final ContentFileStamp stamp = ContentFileStamp.of(contentFile);
+        StickerPackSnapshot.write(snapshotFile, stamp, Collections.singletonList(stickerPack("first", "1", false,
+                Arrays.asList(new Sticker("01.webp", Collections.singletonList("\uD83D\uDE02")),
+                        new Sticker("02.webp", Collections.singletonList("\uD83D\uDE00"))))));
+        final long length = snapshotFile.length();
+
+        for (long truncated : new long[]{length - 1, length / 2, 64}) {
+            try (RandomAccessFile file = new RandomAccessFile(snapshotFile, "rw")) {
+                file.setLength(truncated);
+            }
+            try {
+                StickerPackSnapshot.open(snapshotFile, stamp);
+                fail("a snapshot cut to " + truncated + " of " + length + " bytes should not open");
+            } catch (IOException expected) {
+                assertFalse(expected.getMessage().isEmpty());
+            }
+        }
+    }
+
+    @Test
+    public void lazyCatalogIndexesEmojisWithoutMeasuringFiles() throws IOException {
+        final ContentFileStamp stamp = ContentFileStamp.of(contentFile);
+        StickerPackSnapshot.write(snapshotFile, stamp, Arrays.asList(
+                stickerPack("first", "1", false, Collections.singletonList(
+                        new Sticker("01.webp", Collections.singletonList("\uD83D\uDE00")))),
+                stickerPack("second", "1", false, Arrays.asList(
+                        new Sticker("01.webp", Collections.singletonList("\uD83D\uDE00")),
+                        new Sticker("02.webp", Collections.singletonList("\uD83D\uDE02"))))));
+        final File packDirectory = folder.newFolder("second");
+        final File sticker = new File(packDirectory, "02.webp");
+        Files.write(sticker.toPath(), new byte[3]);
+        final LazyStickerPackCatalog catalog = new LazyStickerPackCatalog(
+                StickerPackSnapshot.open(snapshotFile, stamp),
+                new StickerPackFiles(folder.getRoot().getPath() + "/", null, null), 1);
+
+        final List<StickerEmojiIndex.Match> matches = catalog.getEmojiIndex().find(
+                Collections.singletonList("\uD83D\uDE02"), 0);
+        // Sizes are kept from the first measurement, so this one only shows if indexing measured nothing.
+        Files.write(sticker.toPath(), new byte[5]);
+
+        assertEquals(1, matches.size());
+        assertEquals("second", matches.get(0).getIdentifier());
+        final StickerPack stickerPack = catalog.getStickerPack("second");
+        assertNotNull(stickerPack);
+        final Sticker found = stickerPack.getStickers().get(matches.get(0).getStickerIndex());
+        assertEquals("02.webp", found.imageFileName);
+        assertEquals(5, found.size);
+    }
+
+    private static StickerPack stickerPack(String identifier, String imageDataVersion, boolean avoidCache,
+                                           List<Sticker> stickers) {
+        final StickerPack stickerPack = new StickerPack(identifier, "Pack " + identifier, "Publisher", "tray.png",
+                null, "https://example.com", null, null, imageDataVersion, avoidCache, !avoidCache);
+        stickerPack.setStickers(stickers);
+        stickerPack.setAndroidPlayStoreLink("https://play.google.com/store/apps/details?id=example");
+        return stickerPack;
+    }
+
+    private static void assertSamePack(StickerPack expected, StickerPack actual) {
+        assertEquals(expected.identifier, actual.identifier);
+        assertEquals(expected.name, actual.name);
+        assertEquals(expected.publisher, actual.publisher);
+        assertEquals(expected.trayImageFile, actual.trayImageFile);
+        assertEquals(expected.publisherEmail, actual.publisherEmail);
+        assertEquals(expected.publisherWebsite, actual.publisherWebsite);
+        assertEquals(expected.privacyPolicyWebsite, actual.privacyPolicyWebsite);
+        assertEquals(expected.licenseAgreementWebsite, actual.licenseAgreementWebsite);
+        assertEquals(expected.imageDataVersion, actual.imageDataVersion);
+        assertEquals(expected.avoidCache, actual.avoidCache);
+        assertEquals(expected.animatedStickerPack, actual.animatedStickerPack);
+        assertEquals(expected.androidPlayStoreLink, actual.androidPlayStoreLink);
+        assertEquals(expected.iosAppStoreLink, actual.iosAppStoreLink);
+        assertEquals(expected.getStickerCount(), actual.getStickerCount());
+        for (int i = 0; i < expected.getStickerCount(); i++) {
+            assertEquals(expected.getStickers().get(i).imageFileName, actual.getStickers().get(i).imageFileName);
+            assertEquals(expected.getStickers().get(i).emojis, actual.getStickers().get(i).emojis);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package io.github.vincekruger.whatsapp_stickers;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class StickerPackValidatorTest {
+    @Test
+    public void readsTheSizeOfAnAnimatedWebp() {
+        final StickerPackValidator.ImageInfo info = StickerPackValidator.ImageInfo.parse(webp(
+                chunk("VP8X", vp8x(512, 512)),
+                chunk("ANMF", anmf(40)),
+                chunk("ANMF", anmf(60))));
+
+        assertTrue(info.webp);
+        assertTrue(info.animated);
+        assertEquals(512, info.width);
+        assertEquals(512, info.height);
+        assertEquals(40, info.frameDurationMin);
+        assertEquals(100, info.totalDuration);
+    }
+
+    @Test
+    public void rejectsChunksThatRunPastTheEndOfTheFile() {
+        assertNull(StickerPackValidator.ImageInfo.parse(webp(
+                chunk("VP8X", vp8x(512, 512)),
+                chunkHeader("ANMF", 100))));
+    }
+
+    @Test
+    public void rejectsChunkSizesThatOverflowTheOffset() {
+        // Adding these sizes to the offset of their payload wraps around to a negative end.
+        assertNull(StickerPackValidator.ImageInfo.parse(webp(
+                chunk("VP8X", vp8x(512, 512)),
+                chunkHeader("ANMF", Integer.MAX_VALUE - 8))));
+        assertNull(StickerPackValidator.ImageInfo.parse(webp(chunkHeader("VP8X", Integer.MAX_VALUE))));
+    }
+
+    @Test
+    public void ignoresFilesThatAreNotImages() {
+        assertNull(StickerPackValidator.ImageInfo.parse(new byte[0]));
+        assertNull(StickerPackValidator.ImageInfo.parse("RIFF....WAVE".getBytes()));
+        assertFalse(StickerPackValidator.ImageInfo.parse(png(96, 96)).webp);
+    }
+
+    private static byte[] webp(byte[]... chunks) {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (byte[] chunk : chunks) {
+            body.write(chunk, 0, chunk.length);
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeFourCc(out, "RIFF");
+        writeInt32LittleEndian(out, 4 + body.size());
+        writeFourCc(out, "WEBP");
+        out.write(body.toByteArray(), 0, body.size());
+        return out.toByteArray();
+    }
+
+    private static byte[] chunk(String fourCc, byte[] payload) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] header = chunkHeader(fourCc, payload.length);
+        out.write(header, 0, header.length);
+        out.write(payload, 0, payload.length);
+        if ((payload.length & 1) != 0) {
+            out.write(0);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] chunkHeader(String fourCc, int size) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeFourCc(out, fourCc);
+        writeInt32LittleEndian(out, size);
+        return out.toByteArray();
+    }
+
+    private static byte[] vp8x(int width, int height) {
+        final byte[] payload = new byte[10];
+        payload[0] = 0x02;
+        writeInt24LittleEndian(payload, 4, width - 1);
+        writeInt24LittleEndian(payload, 7, height - 1);
+        return payload;
+    }
+
+    private static byte[] anmf(int duration) {
+        final byte[] payload = new byte[16];
+        writeInt24LittleEndian(payload, 12, duration);
+        return payload;
+    }
+
+    private static byte[] png(int width, int height) {
+        final byte[] data = new byte[24];
+        data[0] = (byte) 0x89;
+        data[1] = 'P';
+        data[2] = 'N';
+        data[3] = 'G';
+        data[19] = (byte) width;
+        data[23] = (byte) height;
+        return data;
+    }
+
+    private static void writeFourCc(ByteArrayOutputStream out, String fourCc) {
+        for (int i = 0; i < 4; i++) {
+            out.write(fourCc.charAt(i));
+        }
+    }
+
+    private static void writeInt32LittleEndian(ByteArrayOutputStream out, int value) {
+        for (int i = 0; i < 4; i++) {
+            out.write(value >>> (8 * i));
+        }
+    }
+
+    private static void writeInt24LittleEndian(byte[] data, int offset, int value) {
+        for (int i = 0; i < 3; i++) {
+            data[offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+}
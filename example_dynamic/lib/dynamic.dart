@@ -3,7 +3,6 @@ import 'dart:typed_data';
 import 'dart:convert';
 import 'dart:math';
 
-import 'package:archive/archive.dart';
 import 'package:flutter/material.dart';
 import 'package:flutter/services.dart';
 import 'package:path_provider/path_provider.dart';
@@ -64,10 +63,14 @@ class _DynamicContentState extends State<DynamicContent> {
       _stickerPacksConfigFile!.writeAsStringSync(contentsOfFile, flush: true);
     }
 
-    // Load sticker pack config
-    _stickerPacksConfig =
-        jsonDecode((await _stickerPacksConfigFile!.readAsString()));
-    _storedStickerPacks = _stickerPacksConfig!['sticker_packs'];
+    await loadStoredStickerPacks();
+  }
+
+  /// Loads the sticker packs the plugin already parsed
+  Future<void> loadStoredStickerPacks() async {
+    final stickerPacks =
+        await _waStickers.getStickerPacks(fields: ["identifier", "name"]);
+    _storedStickerPacks = stickerPacks['stickerPacks'];
   }
 
   void checkInstallationStatuses() async {
@@ -84,40 +87,12 @@ class _DynamicContentState extends State<DynamicContent> {
 
   void unpackArchive(String identifier) async {
     ByteData fileData = await rootBundle.load("sticker_packs/$identifier.zip");
-    final archive = ZipDecoder().decodeBytes(Uint8List.view(fileData.buffer));
-    Directory packageDirectory =
-        Directory("${_stickerPacksDirectory!.path}/$identifier")
-          ..create(recursive: true);
-
-    for (final file in archive) {
-      if (file.isFile) {
-        List<int> data = file.content;
-        File('${packageDirectory.path}/${file.name}')
-          ..createSync(recursive: true)
-          ..writeAsBytesSync(data);
-      } else
-        throw ("Invalid package!");
-    }
 
-    /// Read Package Contents
-    File packageContentsFile = File("${packageDirectory.path}/config.json");
-    Map<String, dynamic> packageContentsMap =
-        jsonDecode(await packageContentsFile.readAsString());
-
-    /// Add to global config
-    _storedStickerPacks!.removeWhere(
-        (item) => item['identifier'] == packageContentsMap['identifier']);
-    _storedStickerPacks!.add(packageContentsMap);
-
-    /// Update config file
-    _stickerPacksConfig!['sticker_packs'] = _storedStickerPacks;
-    JsonEncoder encoder = new JsonEncoder.withIndent('  ');
-    String contentsOfFile = encoder.convert(_stickerPacksConfig) + "\n";
-    _stickerPacksConfigFile!.deleteSync();
-    _stickerPacksConfigFile!.createSync(recursive: true);
-    _stickerPacksConfigFile!.writeAsStringSync(contentsOfFile, flush: true);
-
-    _waStickers.updatedStickerPacks(identifier);
+    /// Unpacks the archive and adds it to the global config in the background
+    await _waStickers
+        .importStickerPackArchives(archives: [Uint8List.view(fileData.buffer)]);
+
+    await loadStoredStickerPacks();
   }
 
   @override
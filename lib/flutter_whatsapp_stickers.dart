@@ -3,6 +3,8 @@
 // found in the LICENSE file.
 
 import 'dart:async';
+import 'dart:convert';
+import 'dart:typed_data';
 import 'package:flutter/cupertino.dart';
 import 'package:flutter/services.dart';
 
@@ -67,6 +69,166 @@ class WhatsAppStickers {
     return result;
   }
 
+  /// Check which sticker packs are installed on WhatsApp
+  ///
+  /// Answers every sticker pack in one call, keyed by identifier.
+  /// [stickerPackIdentifiers] The sticker pack identifiers
+  Future<Map<String, bool>> isStickerPacksInstalled(
+      List<String> stickerPackIdentifiers) async {
+    final Map<dynamic, dynamic> result = await _channel.invokeMethod(
+        "isStickerPacksInstalled", {"identifiers": stickerPackIdentifiers});
+    return result.cast<String, bool>();
+  }
+
+  /// Get the size in bytes of the sticker packs served to WhatsApp
+  ///
+  /// The size of a sticker pack includes its stickers and tray image.
+  /// [stickerPackIdentifier] Only get the size of this sticker pack
+  Future<Map<String, int>> getStickerPackSizes(
+      {String? stickerPackIdentifier}) async {
+    final Map<dynamic, dynamic> result = await _channel.invokeMethod(
+        "getStickerPackSizes", {"identifier": stickerPackIdentifier});
+    return result.cast<String, int>();
+  }
+
+  /// Check a sticker pack against the rules WhatsApp applies when adding it
+  ///
+  /// Returns the problems found, an empty list means the sticker pack is valid.
+  /// [stickerPackIdentifier] The sticker pack identifier
+  Future<List<String>> validateStickerPack(String stickerPackIdentifier) async {
+    final Map<dynamic, dynamic> result = await _channel.invokeMethod(
+        "validateStickerPack", {"identifier": stickerPackIdentifier});
+    return (result['errors'] as List<dynamic>).cast<String>();
+  }
+
+  /// Get the sticker packs the content provider serves
+  ///
+  /// Returns the packs already parsed on the native side, so the contents
+  /// file does not have to be read and decoded again. Every pack is a map
+  /// with the keys of the contents file plus `total_size` and
+  /// `tray_image_size`. The result holds the packs under `stickerPacks`, and
+  /// the number of all packs under `total`. A contents file without packs
+  /// yet gives an empty page.
+  /// [fields] Keys to return for every pack, all of them by default
+  /// [offset] Index of the first pack to return
+  /// [limit] Most packs to return, all of them by default
+  Future<Map<String, dynamic>> getStickerPacks(
+      {List<String>? fields, int offset = 0, int? limit}) async {
+    final Map<dynamic, dynamic> result = await _channel.invokeMethod(
+        "getStickerPacks",
+        {"fields": fields, "offset": offset, "limit": limit});
+    return {
+      "stickerPacks": (result['stickerPacks'] as List<dynamic>)
+          .map((stickerPack) => (stickerPack as Map).cast<String, dynamic>())
+          .toList(),
+      "total": result['total'] as int,
+    };
+  }
+
+  /// Find stickers of every sticker pack by emoji
+  ///
+  /// Stickers with more of the emojis come first, then stickers that list a
+  /// matching emoji earlier, then the order of the sticker packs. Every
+  /// sticker is a map with `identifier`, `image_file`, `emojis` and `size`.
+  /// [emojis] The emojis to look for
+  /// [limit] Most stickers to return, all of them by default
+  Future<List<Map<String, dynamic>>> findStickersByEmoji(List<String> emojis,
+      {int? limit}) async {
+    final List<dynamic> result = await _channel.invokeMethod(
+        "findStickersByEmoji", {"emojis": emojis, "limit": limit});
+    return result
+        .map((sticker) => (sticker as Map).cast<String, dynamic>())
+        .toList();
+  }
+
+  /// Get the content provider's counters and latency histograms
+  ///
+  /// Latencies are histograms of WhatsApp's metadata, single pack, stickers
+  /// and file requests, of emoji searches, and of manifest parses and
+  /// archive imports. Each has
+  /// a `count`, `totalMicros`, `maxMicros` and `buckets`, where bucket `i`
+  /// counts latencies below 2^i microseconds. `cacheHits`, `cacheMisses`,
+  /// `bytesServed` and `failedFileLookups` count file requests. The numbers
+  /// start at zero when the app process starts.
+  Future<Map<String, dynamic>> getProviderStats() async {
+    final Map<dynamic, dynamic> result =
+        await _channel.invokeMethod("getProviderStats");
+    return result.cast<String, dynamic>();
+  }
+
+  /// Import sticker packs from zip archives
+  ///
+  /// Every archive holds a `config.json` with the sticker pack and its image
+  /// files. The archives are unpacked natively and added to the sticker packs
+  /// in one step, either all of them or none. Needs `NonAssetContentProvider`.
+  /// Returns the identifiers of the imported sticker packs.
+  /// [paths] Paths of archive files
+  /// [archives] Contents of archive files
+  Future<List<String>> importStickerPackArchives(
+      {List<String> paths = const [],
+      List<Uint8List> archives = const []}) async {
+    final List<dynamic> result = await _channel.invokeMethod(
+        "importStickerPackArchives", {"paths": paths, "archives": archives});
+    return result.cast<String>();
+  }
+
+  /// Create a sticker from a PNG or JPEG image
+  ///
+  /// The image is fitted into 512x512 and saved as WebP under the size limit
+  /// in the directory of the sticker pack. Needs `NonAssetContentProvider`.
+  /// Returns the file name of the sticker, add it to the sticker pack to use it.
+  /// [stickerPackIdentifier] The sticker pack identifier
+  /// [imagePath] Path of the image
+  Future<String> createStickerFromImage(
+      String stickerPackIdentifier, String imagePath) async {
+    final files =
+        await createStickersFromImages(stickerPackIdentifier, [imagePath]);
+    return (files['stickers'] as List<String>).single;
+  }
+
+  /// Create stickers and a tray image from PNG or JPEG images
+  ///
+  /// The images are converted in parallel, like [createStickerFromImage],
+  /// and only saved if all of them could be converted. The tray image is
+  /// fitted into 96x96 and saved as PNG.
+  /// Returns the file names under `stickers` and `trayImageFile`.
+  /// [stickerPackIdentifier] The sticker pack identifier
+  /// [imagePaths] Paths of the sticker images
+  /// [trayImagePath] Path of the tray image
+  Future<Map<String, dynamic>> createStickersFromImages(
+      String stickerPackIdentifier, List<String> imagePaths,
+      {String? trayImagePath}) async {
+    final Map<dynamic, dynamic> result =
+        await _channel.invokeMethod("createStickersFromImages", {
+      "identifier": stickerPackIdentifier,
+      "imagePaths": imagePaths,
+      "trayImagePath": trayImagePath,
+    });
+    return {
+      "stickers": (result['stickers'] as List<dynamic>).cast<String>(),
+      "trayImageFile": result['trayImageFile'] as String?,
+    };
+  }
+
+  /// Add or replace a single sticker pack
+  ///
+  /// Only this sticker pack is written, the contents file is rewritten in
+  /// the background later. Needs `NonAssetContentProvider`.
+  /// [stickerPack] The sticker pack, in the format of the contents file
+  Future<void> upsertStickerPack(Map<String, dynamic> stickerPack) async {
+    await _channel.invokeMethod(
+        "upsertStickerPack", {"stickerPack": jsonEncode(stickerPack)});
+  }
+
+  /// Remove a sticker pack, its images are left on disk
+  ///
+  /// Needs `NonAssetContentProvider`.
+  /// [stickerPackIdentifier] The sticker pack identifier
+  Future<void> removeStickerPack(String stickerPackIdentifier) async {
+    await _channel.invokeMethod(
+        "removeStickerPack", {"identifier": stickerPackIdentifier});
+  }
+
   /// Updated sticker packs
   ///
   /// [stickerPackIdentifier] The sticker pack identider